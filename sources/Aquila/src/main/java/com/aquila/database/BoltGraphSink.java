@@ -0,0 +1,157 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.List;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Writing the graph to a Neo4j server through the Bolt driver.
+ * Users and relationships are merged one transaction each, tweets go
+ * through a {@link TweetBatchWriter} owned by the sink.
+ * @author Aquila
+ */
+public class BoltGraphSink implements GraphSink {
+
+    /**
+     * Merging a user and its location, when it has one.
+     */
+    static final String MERGE_USER =
+            "MERGE (u:User {UserID: $userID}) "
+            + "SET u.Username = $username, "
+            + "u.Description = $description, "
+            + "u.NbFriends = $nbfriends, "
+            + "u.NbFollowers = $nbfollowers, "
+            + "u.NbFavoritesUser = $nbfavorites, "
+            + "u.Verified = $verified "
+            + "FOREACH (location IN CASE WHEN $location IS NULL THEN [] ELSE [$location] END | "
+            + "MERGE (l:Location {Location: location}) "
+            + "ON CREATE SET l.Name = $locationname, l.Country = $country, l.Latitude = $latitude, l.Longitude = $longitude "
+            + "MERGE (u)-[:FROM]->(l))";
+
+    /**
+     * Merging a friendship between two users.
+     */
+    static final String MERGE_FRIEND =
+            "MATCH (u1:User {UserID: $mainaccount}), (u2:User {UserID: $user}) "
+            + "MERGE (u1)<-[:FRIEND]-(u2)";
+
+    /**
+     * Merging a following relationship between two users.
+     */
+    static final String MERGE_FOLLOWS =
+            "MATCH (u1:User {UserID: $mainaccount}), (u2:User {UserID: $user}) "
+            + "MERGE (u1)<-[:FOLLOWS]-(u2)";
+
+    /**
+     * Statements merging users.
+     */
+    static final StageMetrics USER_WRITES = CrawlMetrics.stage("cypher.merge_user");
+
+    /**
+     * Statements merging friendships.
+     */
+    static final StageMetrics FRIEND_WRITES = CrawlMetrics.stage("cypher.merge_friend");
+
+    /**
+     * Statements merging following relationships.
+     */
+    static final StageMetrics FOLLOWS_WRITES = CrawlMetrics.stage("cypher.merge_follows");
+
+    /**
+     * Driver for connection.
+     */
+    private final Driver driver;
+
+    /**
+     * Batch writer for tweets.
+     */
+    private final TweetBatchWriter tweets;
+
+    /**
+     * Class Constructor.
+     * @param driver Driver for connection.
+     * @param tweets Batch writer for tweets, closed with the sink.
+     */
+    public BoltGraphSink(final Driver driver, final TweetBatchWriter tweets) {
+        this.driver = driver;
+        this.tweets = tweets;
+    }
+
+    /**
+     * Parameters of {@link #MERGE_USER}.
+     * @param user Parsed Twitter Account.
+     * @return the parameters.
+     */
+    static Value userParameters(final UserRecord user) {
+        Place place = user.getPlace();
+        return parameters("userID", user.getUserID(), "username", user.getUsername(), "description", user.getDescription(), "nbfriends", user.getNbfriends(), "nbfollowers", user.getNbfollowers(), "nbfavorites", user.getNbfavorites(), "verified", user.getVerified(), "location", user.getLocation(),
+                "locationname", place == null ? null : place.getName(), "country", place == null ? null : place.getCountry(),
+                "latitude", place == null ? null : place.getLatitude(), "longitude", place == null ? null : place.getLongitude());
+    }
+
+    /**
+     * Running a write statement in its own transaction.
+     * @param stage Stage of the statement.
+     * @param statement Write statement.
+     * @param params Parameters of the statement.
+     */
+    private void write(final StageMetrics stage, final String statement, final Value params) {
+        try (Session session = driver.session()) {
+            CrawlMetrics.write(session, stage, new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run(statement, params).consume();
+                    return null;
+                }
+            });
+        }
+    }
+
+    @Override
+    public final void addUser(final UserRecord user) {
+        write(USER_WRITES, MERGE_USER, userParameters(user));
+    }
+
+    @Override
+    public final void addFriendship(final String mainaccount, final String user) {
+        write(FRIEND_WRITES, MERGE_FRIEND, parameters("mainaccount", mainaccount, "user", user));
+    }
+
+    @Override
+    public final void addFollowing(final String mainaccount, final String user) {
+        write(FOLLOWS_WRITES, MERGE_FOLLOWS, parameters("mainaccount", mainaccount, "user", user));
+    }
+
+    @Override
+    public final void addTweet(final TweetRecord tweet) {
+        tweets.add(tweet);
+    }
+
+    @Override
+    public final void addTweets(final List<TweetRecord> records, final Runnable written) {
+        tweets.add(records, written);
+    }
+
+    @Override
+    public final void flush() throws IOException {
+        tweets.flush();
+    }
+
+    /**
+     * Override Closing sink, flushing the tweets. The driver stays open.
+     */
+    @Override
+    public final void close() {
+        tweets.close();
+    }
+}
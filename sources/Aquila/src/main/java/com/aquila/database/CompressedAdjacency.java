@@ -0,0 +1,206 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency lists of a graph in compressed sparse row form.
+ * Nodes are numbered from 0. The neighbours of a node are sorted,
+ * deduplicated and stored as variable-length deltas, 7 bits per byte, in
+ * one byte array, the lists of the nodes following each other; an offset
+ * per node locates its list. Neighbour numbers of a social graph are close
+ * to each other, so most deltas fit in one or two bytes instead of four.
+ * @author Aquila
+ */
+public final class CompressedAdjacency {
+
+    /**
+     * Number of nodes.
+     */
+    private final int nodeCount;
+
+    /**
+     * Start of the list of every node in the bytes, then the end of the last list.
+     */
+    private final int[] offsets;
+
+    /**
+     * Number of neighbours of every node.
+     */
+    private final int[] degrees;
+
+    /**
+     * Delta-encoded lists of neighbours.
+     */
+    private final byte[] bytes;
+
+    /**
+     * Largest number of neighbours of a node.
+     */
+    private final int maxDegree;
+
+    /**
+     * Number of edges, duplicates removed.
+     */
+    private final long edgeCount;
+
+    /**
+     * Class Constructor.
+     * @param nodeCount Number of nodes.
+     * @param offsets Start of the list of every node, then the end of the last list.
+     * @param degrees Number of neighbours of every node.
+     * @param bytes Delta-encoded lists of neighbours.
+     * @param maxDegree Largest number of neighbours of a node.
+     * @param edgeCount Number of edges, duplicates removed.
+     */
+    private CompressedAdjacency(final int nodeCount, final int[] offsets, final int[] degrees, final byte[] bytes, final int maxDegree, final long edgeCount) {
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.degrees = degrees;
+        this.bytes = bytes;
+        this.maxDegree = maxDegree;
+        this.edgeCount = edgeCount;
+    }
+
+    /**
+     * Building the adjacency of edges given in any order.
+     * The edges are bucketed by start node with a counting sort, then the
+     * list of every node is sorted and encoded.
+     * @param nodeCount Number of nodes.
+     * @param starts Start node of every edge.
+     * @param ends End node of every edge.
+     * @param count Number of edges in the arrays.
+     * @return the adjacency of the start nodes.
+     */
+    public static CompressedAdjacency build(final int nodeCount, final int[] starts, final int[] ends, final int count) {
+        int[] bucket = new int[nodeCount + 1];
+        for (int i = 0; i < count; i++) {
+            bucket[starts[i] + 1]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            bucket[v + 1] += bucket[v];
+        }
+        int[] neighbours = new int[count];
+        int[] next = Arrays.copyOf(bucket, nodeCount);
+        for (int i = 0; i < count; i++) {
+            neighbours[next[starts[i]]++] = ends[i];
+        }
+        next = null;
+        int[] offsets = new int[nodeCount + 1];
+        int[] degrees = new int[nodeCount];
+        byte[] bytes = new byte[Math.max(16, count + count / 2)];
+        int position = 0;
+        int maxDegree = 0;
+        long edgeCount = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            offsets[v] = position;
+            Arrays.sort(neighbours, bucket[v], bucket[v + 1]);
+            int previous = -1;
+            int degree = 0;
+            for (int i = bucket[v]; i < bucket[v + 1]; i++) {
+                int neighbour = neighbours[i];
+                if (neighbour == previous) {
+                    continue;
+                }
+                if (bytes.length - position < 5) {
+                    long grown = Math.min(Integer.MAX_VALUE - 8, (long) bytes.length * 3 / 2 + 5);
+                    if (grown - position < 5) {
+                        throw new IllegalStateException("Adjacency larger than 2 GB at node " + v);
+                    }
+                    bytes = Arrays.copyOf(bytes, (int) grown);
+                }
+                // The first neighbour is a delta from 0
+                int delta = neighbour - Math.max(previous, 0);
+                while ((delta & ~0x7F) != 0) {
+                    bytes[position++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                bytes[position++] = (byte) delta;
+                previous = neighbour;
+                degree++;
+            }
+            degrees[v] = degree;
+            maxDegree = Math.max(maxDegree, degree);
+            edgeCount += degree;
+        }
+        offsets[nodeCount] = position;
+        return new CompressedAdjacency(nodeCount, offsets, degrees, Arrays.copyOf(bytes, position), maxDegree, edgeCount);
+    }
+
+    /**
+     * Decoding the neighbours of a node.
+     * @param node Node number.
+     * @param into Receiver of the neighbours, of at least {@link #degree(int)} slots.
+     * @return the number of neighbours.
+     */
+    public int neighbours(final int node, final int[] into) {
+        return neighbours(node, into, 0);
+    }
+
+    /**
+     * Decoding the neighbours of a node after other values.
+     * @param node Node number.
+     * @param into Receiver of the neighbours, of at least {@link #degree(int)} slots after the offset.
+     * @param offset First slot written.
+     * @return the number of neighbours.
+     */
+    public int neighbours(final int node, final int[] into, final int offset) {
+        int position = offsets[node];
+        int end = offsets[node + 1];
+        int count = offset;
+        int value = 0;
+        while (position < end) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+            into[count++] = value;
+        }
+        return count - offset;
+    }
+
+    /**
+     * @param node Node number.
+     * @return the number of neighbours of the node.
+     */
+    public int degree(final int node) {
+        return degrees[node];
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the largest number of neighbours of a node.
+     */
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    /**
+     * @return the number of edges, duplicates removed.
+     */
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return the bytes of the adjacency.
+     */
+    public long getSizeInBytes() {
+        return (long) bytes.length + 4L * offsets.length + 4L * degrees.length;
+    }
+}
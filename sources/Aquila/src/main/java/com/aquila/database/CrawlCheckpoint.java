@@ -0,0 +1,281 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+/**
+ * Durable progress of a cursor-paged crawl.
+ * The cursor of the current IDs page, the position reached in that page
+ * and the completed user IDs are appended to a log file, forced to disk at
+ * most every sync interval. Opening an existing log replays it, drops a
+ * torn last record and rewrites it compacted, so a restarted crawl resumes
+ * where the previous one stopped. Completed IDs are kept unboxed in a
+ * {@link LongHashSet}.
+ * @author Aquila
+ */
+public class CrawlCheckpoint implements AutoCloseable {
+
+    /**
+     * Record of the cursor of a new page.
+     */
+    private static final byte CURSOR = 1;
+
+    /**
+     * Record of the position reached in the current page.
+     */
+    private static final byte POSITION = 2;
+
+    /**
+     * Record of a completed user.
+     */
+    private static final byte DONE = 3;
+
+    /**
+     * Size of a record: type and value.
+     */
+    private static final int RECORD = 1 + 8;
+
+    /**
+     * Log file.
+     */
+    private final File file;
+
+    /**
+     * Milliseconds between two forces of the log to disk.
+     */
+    private final long syncInterval;
+
+    /**
+     * Appending channel of the log.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Buffer of the record being appended.
+     */
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD);
+
+    /**
+     * Cursor of the current page, -1 for the first page.
+     */
+    private long cursor = -1;
+
+    /**
+     * Number of IDs of the current page already handled.
+     */
+    private int position;
+
+    /**
+     * Number of completed users a new checkpoint is sized for.
+     */
+    private static final int EXPECTED_USERS = 100000;
+
+    /**
+     * Completed users.
+     */
+    private final LongHashSet completed = new LongHashSet(EXPECTED_USERS);
+
+    /**
+     * Time of the last force to disk.
+     */
+    private long lastSync;
+
+    /**
+     * True when records were appended since the last force.
+     */
+    private boolean dirty;
+
+    /**
+     * Class Constructor, replaying and compacting an existing log.
+     * @param file Log file.
+     * @param syncInterval Milliseconds between two forces of the log to disk, 0 to force every record.
+     * @throws IOException IO Exception
+     */
+    public CrawlCheckpoint(final File file, final long syncInterval) throws IOException {
+        this.file = file;
+        this.syncInterval = syncInterval;
+        if (file.exists()) {
+            replay();
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        try (final FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, CURSOR, cursor);
+            write(out, POSITION, position);
+            completed.forEach(new LongConsumer() {
+                @Override
+                public void accept(final long id) {
+                    try {
+                        write(out, DONE, id);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            out.force(true);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Reading the records of the log, up to the last complete one.
+     * @throws IOException IO Exception
+     */
+    private void replay() throws IOException {
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        while (log.remaining() >= RECORD) {
+            byte type = log.get();
+            long value = log.getLong();
+            switch (type) {
+                case CURSOR:
+                    cursor = value;
+                    position = 0;
+                    break;
+                case POSITION:
+                    position = (int) value;
+                    break;
+                case DONE:
+                    completed.add(value);
+                    break;
+                default:
+                    throw new IOException("Corrupted checkpoint " + file + " at byte " + (log.position() - RECORD));
+            }
+        }
+    }
+
+    /**
+     * Writing one record.
+     * @param out Channel of the log.
+     * @param type Type of the record.
+     * @param value Value of the record.
+     * @throws IOException IO Exception
+     */
+    private void write(final FileChannel out, final byte type, final long value) throws IOException {
+        ((Buffer) record).clear();
+        record.put(type).putLong(value);
+        ((Buffer) record).flip();
+        while (record.hasRemaining()) {
+            out.write(record);
+        }
+    }
+
+    /**
+     * Appending one record, forcing the log once the sync interval is over.
+     * @param type Type of the record.
+     * @param value Value of the record.
+     * @throws IOException IO Exception
+     */
+    private void append(final byte type, final long value) throws IOException {
+        write(channel, type, value);
+        dirty = true;
+        long now = System.currentTimeMillis();
+        if (now - lastSync >= syncInterval) {
+            sync();
+        }
+    }
+
+    /**
+     * @return the cursor of the page to resume, -1 for the first page.
+     */
+    public final synchronized long getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the number of IDs of the page to resume already handled.
+     */
+    public final synchronized int getPosition() {
+        return position;
+    }
+
+    /**
+     * @param id UserID.
+     * @return true when the user was completed by this crawl.
+     */
+    public final synchronized boolean isCompleted(final long id) {
+        return completed.contains(id);
+    }
+
+    /**
+     * Starting a new IDs page.
+     * @param next Cursor of the page.
+     * @throws IOException IO Exception
+     */
+    public final synchronized void startPage(final long next) throws IOException {
+        cursor = next;
+        position = 0;
+        append(CURSOR, next);
+    }
+
+    /**
+     * Recording that the first IDs of the current page are handled.
+     * @param handled Number of IDs handled.
+     * @throws IOException IO Exception
+     */
+    public final synchronized void advance(final int handled) throws IOException {
+        position = handled;
+        append(POSITION, handled);
+    }
+
+    /**
+     * Recording a completed user.
+     * @param id UserID.
+     * @throws IOException IO Exception
+     */
+    public final synchronized void complete(final long id) throws IOException {
+        if (completed.add(id)) {
+            append(DONE, id);
+        }
+    }
+
+    /**
+     * Forcing the appended records to disk.
+     * @throws IOException IO Exception
+     */
+    public final synchronized void sync() throws IOException {
+        if (dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Ending the crawl: the log is deleted so the next crawl starts over.
+     * @throws IOException IO Exception
+     */
+    public final synchronized void finish() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Override Closing log, forcing it to disk.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+}
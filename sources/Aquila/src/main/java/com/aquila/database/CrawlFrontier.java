@@ -0,0 +1,262 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Users waiting to be expanded, the one of highest priority first.
+ * Entries are held in a heap of a bounded number of entries. When the
+ * heap outgrows it, its lower half is appended to a spill file, and the
+ * largest priority spilled is kept: as long as the top of the heap is not
+ * below it, the heap alone gives the next entry. Otherwise the spill file
+ * is streamed back through the heap, spilling again into a new file, which
+ * brings the best entries back in memory. The frontier is thus exact for
+ * any number of entries, with the memory of the bound.
+ * @author Aquila
+ */
+public class CrawlFrontier implements AutoCloseable {
+
+    /**
+     * Estimated heap bytes of an entry, queue slot included.
+     */
+    public static final int ENTRY_BYTES = 64;
+
+    /**
+     * Bytes of a spilled entry: priority, depth then UserID.
+     */
+    private static final int RECORD = 8 + 4 + 8;
+
+    /**
+     * Buffer size of the spill streams.
+     */
+    private static final int BUFFER = 1 << 16;
+
+    /**
+     * Highest priority first, then nearest to the seed.
+     */
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry a, final Entry b) {
+            int byPriority = Double.compare(b.priority, a.priority);
+            return byPriority != 0 ? byPriority : Integer.compare(a.depth, b.depth);
+        }
+    };
+
+    /**
+     * User waiting to be expanded.
+     */
+    public static final class Entry {
+
+        /**
+         * UserID.
+         */
+        private final long id;
+
+        /**
+         * Number of hops from the seed.
+         */
+        private final int depth;
+
+        /**
+         * Priority, the highest expanded first.
+         */
+        private final double priority;
+
+        /**
+         * Class Constructor.
+         * @param id UserID.
+         * @param depth Number of hops from the seed.
+         * @param priority Priority, the highest expanded first.
+         */
+        Entry(final long id, final int depth, final double priority) {
+            this.id = id;
+            this.depth = depth;
+            this.priority = priority;
+        }
+
+        /**
+         * @return the UserID.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the number of hops from the seed.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return the priority.
+         */
+        public double getPriority() {
+            return priority;
+        }
+    }
+
+    /**
+     * Entries in memory.
+     */
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(ORDER);
+
+    /**
+     * Number of entries in memory triggering a spill.
+     */
+    private final int capacity;
+
+    /**
+     * Spill file, created by the first spill.
+     */
+    private final File spill;
+
+    /**
+     * Appender of the spill file, null when closed.
+     */
+    private DataOutputStream out;
+
+    /**
+     * Number of spilled entries.
+     */
+    private long spilled;
+
+    /**
+     * Best entry spilled, or null when nothing is spilled.
+     */
+    private Entry spillBest;
+
+    /**
+     * Class Constructor.
+     * @param spill Spill file, deleted when the frontier is closed.
+     * @param memoryBudget Heap bytes of the entries in memory.
+     */
+    public CrawlFrontier(final File spill, final long memoryBudget) {
+        this.spill = spill;
+        this.capacity = (int) Math.max(2, Math.min(Integer.MAX_VALUE, memoryBudget / ENTRY_BYTES));
+    }
+
+    /**
+     * Adding a user, spilling the lower half of the heap once it is full.
+     * @param id UserID.
+     * @param depth Number of hops from the seed.
+     * @param priority Priority, the highest expanded first.
+     * @throws IOException IO Exception of the spill file.
+     */
+    public final void add(final long id, final int depth, final double priority) throws IOException {
+        heap.add(new Entry(id, depth, priority));
+        if (heap.size() > capacity) {
+            spillLowerHalf();
+        }
+    }
+
+    /**
+     * Next user to expand.
+     * @return the entry of highest priority, or null when the frontier is empty.
+     * @throws IOException IO Exception of the spill file.
+     */
+    public final Entry poll() throws IOException {
+        if (spilled > 0 && (heap.isEmpty() || ORDER.compare(spillBest, heap.peek()) < 0)) {
+            refill();
+        }
+        return heap.poll();
+    }
+
+    /**
+     * @return the number of entries, in memory and spilled.
+     */
+    public final long size() {
+        return heap.size() + spilled;
+    }
+
+    /**
+     * @return the number of spilled entries.
+     */
+    public final long getSpilled() {
+        return spilled;
+    }
+
+    /**
+     * Appending the lower half of the heap to the spill file.
+     * @throws IOException IO Exception
+     */
+    private void spillLowerHalf() throws IOException {
+        Entry[] entries = heap.toArray(new Entry[0]);
+        Arrays.sort(entries, ORDER);
+        heap.clear();
+        int kept = entries.length / 2;
+        for (int i = 0; i < kept; i++) {
+            heap.add(entries[i]);
+        }
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spill, true), BUFFER));
+        }
+        for (int i = kept; i < entries.length; i++) {
+            out.writeDouble(entries[i].priority);
+            out.writeInt(entries[i].depth);
+            out.writeLong(entries[i].id);
+        }
+        spilled += entries.length - kept;
+        if (spillBest == null || ORDER.compare(entries[kept], spillBest) < 0) {
+            spillBest = entries[kept];
+        }
+    }
+
+    /**
+     * Streaming the spilled entries back through the heap, spilling again into a new file.
+     * @throws IOException IO Exception
+     */
+    private void refill() throws IOException {
+        out.close();
+        out = null;
+        File previous = new File(spill.getPath() + ".previous");
+        Files.move(spill.toPath(), previous.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long count = spilled;
+        spilled = 0;
+        spillBest = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(previous), BUFFER))) {
+            for (long i = 0; i < count; i++) {
+                double priority = in.readDouble();
+                int depth = in.readInt();
+                add(in.readLong(), depth, priority);
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException("Truncated spill file " + previous + ", " + count + " entries of " + RECORD + " bytes expected", e);
+        }
+        Files.delete(previous.toPath());
+    }
+
+    /**
+     * Override Closing frontier, dropping its entries and the spill file.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final void close() throws IOException {
+        heap.clear();
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        spilled = 0;
+        spillBest = null;
+        Files.deleteIfExists(spill.toPath());
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+
+/**
+ * Registry of the {@link StageMetrics} of the crawl.
+ * Stages are named by their family: twitter.* for the API calls per
+ * endpoint and the waits for a rate limit window, parse.* for parsing,
+ * cypher.* for the statements of a write transaction, commit for the
+ * commits, and merge.* for the merging passes. Every stage is registered
+ * as the MBean com.aquila:type=Stage,name=stage, and a line summing up the
+ * stages used since the previous one is printed every aquila.metricsInterval
+ * seconds, 60 by default, 0 to disable it.
+ * @author Aquila
+ */
+public final class CrawlMetrics {
+
+    /**
+     * Seconds between two report lines.
+     */
+    private static final long INTERVAL = Long.getLong("aquila.metricsInterval", 60);
+
+    /**
+     * Stages by name, in creation order for the report.
+     */
+    private static final ConcurrentMap<String, StageMetrics> STAGES = new ConcurrentHashMap<>();
+
+    /**
+     * Names of the stages in creation order.
+     */
+    private static final List<String> NAMES = new ArrayList<>();
+
+    /**
+     * Commits of the write transactions.
+     */
+    public static final StageMetrics COMMIT = stage("commit");
+
+    /**
+     * Last report in nanoseconds.
+     */
+    private static long lastReport = System.nanoTime();
+
+    static {
+        if (INTERVAL > 0) {
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "crawl-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            reporter.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    report();
+                }
+            }, INTERVAL, INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Class Constructor.
+     */
+    private CrawlMetrics() {
+    }
+
+    /**
+     * Stage of a name, created and registered on first use.
+     * @param name Name of the stage.
+     * @return the stage.
+     */
+    public static StageMetrics stage(final String name) {
+        StageMetrics stage = STAGES.get(name);
+        if (stage != null) {
+            return stage;
+        }
+        synchronized (NAMES) {
+            stage = STAGES.get(name);
+            if (stage == null) {
+                stage = new StageMetrics(name);
+                register(stage);
+                NAMES.add(name);
+                STAGES.put(name, stage);
+            }
+        }
+        return stage;
+    }
+
+    /**
+     * Registering a stage as an MBean.
+     * @param stage Stage.
+     */
+    private static void register(final StageMetrics stage) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stage, new ObjectName("com.aquila:type=Stage,name=" + stage.getName()));
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the stages in creation order.
+     */
+    public static List<StageMetrics> getStages() {
+        List<StageMetrics> stages = new ArrayList<>();
+        synchronized (NAMES) {
+            for (String name : NAMES) {
+                stages.add(STAGES.get(name));
+            }
+        }
+        return stages;
+    }
+
+    /**
+     * Running a write transaction, recording its statements in a stage and its commit in {@link #COMMIT}.
+     * A transaction retried by the driver records its last attempt.
+     * @param <T> Type of the result.
+     * @param session Session of the transaction.
+     * @param stage Stage of the statements.
+     * @param work Statements of the transaction.
+     * @return the result of the work.
+     */
+    public static <T> T write(final Session session, final StageMetrics stage, final TransactionWork<T> work) {
+        final long[] ended = new long[1];
+        try {
+            T result = session.writeTransaction(new TransactionWork<T>() {
+                @Override
+                public T execute(final Transaction tx) {
+                    long begin = System.nanoTime();
+                    try {
+                        return work.execute(tx);
+                    }
+                    finally {
+                        stage.stop(begin);
+                        ended[0] = System.nanoTime();
+                    }
+                }
+            });
+            COMMIT.stop(ended[0]);
+            return result;
+        }
+        catch (RuntimeException e) {
+            stage.error();
+            throw e;
+        }
+    }
+
+    /**
+     * Printing the stages used since the previous report.
+     */
+    static void report() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastReport, 1) / 1e9;
+        lastReport = now;
+        StringBuilder line = new StringBuilder();
+        for (StageMetrics stage : getStages()) {
+            String summary = stage.report(seconds);
+            if (summary != null) {
+                line.append(line.length() == 0 ? "Metrics: " : " | ").append(summary);
+            }
+        }
+        if (line.length() > 0) {
+            System.out.println(line);
+        }
+    }
+}
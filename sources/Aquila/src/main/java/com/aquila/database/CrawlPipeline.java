@@ -0,0 +1,497 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import twitter4j.Paging;
+import twitter4j.Status;
+import twitter4j.User;
+
+/**
+ * Staged crawler of the friends of a main account.
+ * Hydrated friends go through a fetch pool downloading timelines, a transform
+ * pool parsing users and tweets, and a writer pool writing them in the
+ * database. Stages are linked by bounded queues, so API latency and commit
+ * latency overlap while a slow stage still holds back the ones before it.
+ * With watermarks, the newest TweetID downloaded for every friend is kept,
+ * and a friend crawled before only costs the tweets posted since. Its
+ * watermark is raised, and it is completed in the checkpoint, only once the
+ * sink made its tweets durable.
+ * @author Aquila
+ */
+public class CrawlPipeline implements AutoCloseable {
+
+    /**
+     * Marker ending a stage worker.
+     */
+    private static final Object POISON = new Object();
+
+    /**
+     * Users submitted to the fetch stage.
+     */
+    private static final class Submitted {
+
+        /**
+         * UserID of the account the user is a friend of, null for none.
+         */
+        private final String account;
+
+        /**
+         * Hydrated user.
+         */
+        private final User user;
+
+        /**
+         * Class Constructor.
+         * @param account UserID of the account the user is a friend of, null for none.
+         * @param user Hydrated user.
+         */
+        private Submitted(final String account, final User user) {
+            this.account = account;
+            this.user = user;
+        }
+    }
+
+    /**
+     * Users and timelines downloaded by the fetch stage.
+     */
+    private static final class Fetched {
+
+        /**
+         * UserID of the account the user is a friend of, null for none.
+         */
+        private final String account;
+
+        /**
+         * Friend of the account.
+         */
+        private final User user;
+
+        /**
+         * Latest tweets of the friend.
+         */
+        private final List<Status> statuses;
+
+        /**
+         * Class Constructor.
+         * @param account UserID of the account the user is a friend of, null for none.
+         * @param user Friend of the account.
+         * @param statuses Latest tweets of the friend.
+         */
+        private Fetched(final String account, final User user, final List<Status> statuses) {
+            this.account = account;
+            this.user = user;
+            this.statuses = statuses;
+        }
+    }
+
+    /**
+     * Records parsed by the transform stage.
+     */
+    private static final class Parsed {
+
+        /**
+         * UserID of the account the user is a friend of, null for none.
+         */
+        private final String account;
+
+        /**
+         * Friend of the account.
+         */
+        private final UserRecord user;
+
+        /**
+         * French tweets of the friend.
+         */
+        private final List<TweetRecord> tweets;
+
+        /**
+         * Newest TweetID downloaded, in any language, 0 when none.
+         */
+        private final long newest;
+
+        /**
+         * Class Constructor.
+         * @param account UserID of the account the user is a friend of, null for none.
+         * @param user Friend of the account.
+         * @param tweets French tweets of the friend.
+         * @param newest Newest TweetID downloaded, in any language, 0 when none.
+         */
+        private Parsed(final String account, final UserRecord user, final List<TweetRecord> tweets, final long newest) {
+            this.account = account;
+            this.user = user;
+            this.tweets = tweets;
+            this.newest = newest;
+        }
+    }
+
+    /**
+     * Pool of workers consuming a bounded queue.
+     * @param <I> Type of the consumed items.
+     */
+    private abstract static class Stage<I> {
+
+        /**
+         * Items waiting for a worker.
+         */
+        private final BlockingQueue<Object> queue;
+
+        /**
+         * Workers of the stage.
+         */
+        private final List<Thread> workers = new ArrayList<>();
+
+        /**
+         * Class Constructor.
+         * @param name Name of the stage.
+         * @param threads Number of workers.
+         * @param capacity Capacity of the queue.
+         */
+        Stage(final String name, final int threads, final int capacity) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Stage " + name + " needs at least one thread: " + threads);
+            }
+            queue = new ArrayBlockingQueue<>(capacity);
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                }, name + "-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+        }
+
+        /**
+         * Starting the workers.
+         */
+        final void start() {
+            for (Thread worker : workers) {
+                worker.start();
+            }
+        }
+
+        /**
+         * Queueing an item, waiting while the queue is full.
+         * @param item Item to process.
+         * @throws InterruptedException Interrupted while waiting.
+         */
+        final void put(final I item) throws InterruptedException {
+            queue.put(item);
+        }
+
+        /**
+         * Letting the workers finish the queued items, then stopping them.
+         * @throws InterruptedException Interrupted while waiting.
+         */
+        final void drain() throws InterruptedException {
+            for (int i = 0; i < workers.size(); i++) {
+                queue.put(POISON);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        /**
+         * Stopping the workers without processing the queued items.
+         */
+        final void abort() {
+            queue.clear();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+
+        /**
+         * Worker loop.
+         */
+        @SuppressWarnings("unchecked")
+        private void work() {
+            try {
+                Object item;
+                while ((item = queue.take()) != POISON) {
+                    try {
+                        process((I) item);
+                    }
+                    catch (InterruptedException e) {
+                        throw e;
+                    }
+                    catch (Exception e) {
+                        System.out.println(Thread.currentThread().getName());
+                        System.out.println(e.getMessage());
+                        dropped();
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Processing one item.
+         * @param item Item to process.
+         * @throws Exception Exception
+         */
+        abstract void process(I item) throws Exception;
+
+        /**
+         * Called when an item fails and leaves the pipeline.
+         */
+        abstract void dropped();
+    }
+
+    /**
+     * Number of tweets requested from a timeline never crawled.
+     */
+    private static final int TIMELINE_SIZE = 20;
+
+    /**
+     * Friends whose timeline to download.
+     */
+    private final Stage<Submitted> fetch;
+
+    /**
+     * Downloads to parse.
+     */
+    private final Stage<Fetched> transform;
+
+    /**
+     * Records to write.
+     */
+    private final Stage<Parsed> write;
+
+    /**
+     * Number of friends written.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * True once the pipeline is drained or aborted.
+     */
+    private boolean closed;
+
+    /**
+     * Friends submitted and not yet written or dropped.
+     */
+    private long inFlight;
+
+    /**
+     * Lock guarding inFlight.
+     */
+    private final Object idle = new Object();
+
+    /**
+     * Progress of the crawl, null when not checkpointed.
+     */
+    private final CrawlCheckpoint checkpoint;
+
+    /**
+     * Newest TweetID downloaded by UserID, null when not tracked.
+     */
+    private final LongLongHashMap watermarks;
+
+    /**
+     * UserID of the main account.
+     */
+    private final String mainaccount;
+
+    /**
+     * Class Constructor.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param sink Destination of users and tweets.
+     * @param gazetteer Gazetteer resolving the locations of the users.
+     * @param mainaccount UserID of the main account.
+     * @param fetchThreads Number of threads calling the Twitter API.
+     * @param transformThreads Number of threads parsing users and tweets.
+     * @param writeThreads Number of threads writing in the database.
+     * @param queueCapacity Capacity of the queue in front of each stage.
+     * @param checkpoint Progress of the crawl, completed with every written friend, or null.
+     * @param watermarks Newest TweetID downloaded by UserID, raised with every written friend, or null.
+     */
+    public CrawlPipeline(final RateLimitedTwitter twitter, final GraphSink sink, final Gazetteer gazetteer, final String mainaccount, final int fetchThreads, final int transformThreads, final int writeThreads, final int queueCapacity, final CrawlCheckpoint checkpoint, final LongLongHashMap watermarks) {
+        this.checkpoint = checkpoint;
+        this.watermarks = watermarks;
+        this.mainaccount = mainaccount;
+        write = new Stage<Parsed>("write", writeThreads, queueCapacity) {
+            @Override
+            void process(final Parsed parsed) throws IOException {
+                sink.addUser(parsed.user);
+                if (parsed.account != null) {
+                    sink.addFriendship(parsed.account, parsed.user.getUserID());
+                }
+                final long id = Long.parseLong(parsed.user.getUserID());
+                final long newest = parsed.newest;
+                // The friend is done only once its tweets are durable, a failed batch leaving it to the next crawl
+                sink.addTweets(parsed.tweets, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (watermarks != null && newest > 0) {
+                                watermarks.putMax(id, newest);
+                            }
+                            if (checkpoint != null) {
+                                checkpoint.complete(id);
+                            }
+                        }
+                        catch (IOException e) {
+                            System.out.println(e.getMessage());
+                        }
+                    }
+                });
+                System.out.println("Ami : " + written.incrementAndGet());
+                finished();
+            }
+
+            @Override
+            void dropped() {
+                finished();
+            }
+        };
+        transform = new Stage<Fetched>("transform", transformThreads, queueCapacity) {
+            @Override
+            void process(final Fetched fetched) throws InterruptedException {
+                String userID = String.valueOf(fetched.user.getId());
+                List<TweetRecord> records = new ArrayList<>();
+                long newest = 0;
+                for (Status tweet : fetched.statuses) {
+                    newest = Math.max(newest, tweet.getId());
+                    // Adding only French Tweets, with their hashtags
+                    if ("fr".equals(tweet.getLang())) {
+                        records.add(TweetRecord.fromStatus(userID, tweet));
+                    }
+                }
+                write.put(new Parsed(fetched.account, UserRecord.fromUser(fetched.user, gazetteer), records, newest));
+            }
+
+            @Override
+            void dropped() {
+                finished();
+            }
+        };
+        fetch = new Stage<Submitted>("fetch", fetchThreads, queueCapacity) {
+            @Override
+            void process(final Submitted submitted) throws Exception {
+                transform.put(new Fetched(submitted.account, submitted.user, timeline(twitter, submitted.user, watermarks)));
+            }
+
+            @Override
+            void dropped() {
+                finished();
+            }
+        };
+        write.start();
+        transform.start();
+        fetch.start();
+    }
+
+    /**
+     * Tweets of a user not downloaded yet.
+     * A user never crawled gets its latest tweets, a user crawled before
+     * the tweets newer than its watermark. The latest tweet of the hydrated
+     * user tells whether there are any, so an inactive user costs no call.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param user Hydrated user.
+     * @param watermarks Newest TweetID downloaded by UserID, or null.
+     * @return the tweets, newest first.
+     * @throws Exception Exception
+     */
+    static List<Status> timeline(final RateLimitedTwitter twitter, final User user, final LongLongHashMap watermarks) throws Exception {
+        long since = watermarks != null ? watermarks.get(user.getId()) : 0;
+        if (user.getStatus() == null || user.getStatus().getId() <= since) {
+            return Collections.emptyList();
+        }
+        if (since > 0) {
+            return twitter.getUserTimelineSince(user.getScreenName(), since);
+        }
+        return new ArrayList<>(twitter.getUserTimeline(user.getScreenName(), new Paging(1, TIMELINE_SIZE)));
+    }
+
+    /**
+     * Queueing a hydrated friend of the main account, waiting while the fetch stage is full.
+     * @param user Friend with at least one tweet.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public final void submit(final User user) throws InterruptedException {
+        submit(mainaccount, user);
+    }
+
+    /**
+     * Queueing a hydrated friend of any account, waiting while the fetch stage is full.
+     * @param account UserID of the account the user is a friend of, null to write the user and its tweets alone.
+     * @param user User with at least one tweet.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public final void submit(final String account, final User user) throws InterruptedException {
+        synchronized (idle) {
+            inFlight++;
+        }
+        fetch.put(new Submitted(account, user));
+    }
+
+    /**
+     * A friend left the pipeline, written or dropped.
+     */
+    private void finished() {
+        synchronized (idle) {
+            inFlight--;
+            idle.notifyAll();
+        }
+    }
+
+    /**
+     * Waiting until every submitted friend is written or dropped.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public final void awaitIdle() throws InterruptedException {
+        synchronized (idle) {
+            while (inFlight > 0) {
+                idle.wait();
+            }
+        }
+    }
+
+    /**
+     * @return the number of friends written so far.
+     */
+    public final long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Stopping every stage at once, dropping queued friends.
+     */
+    public final synchronized void abort() {
+        closed = true;
+        fetch.abort();
+        transform.abort();
+        write.abort();
+    }
+
+    /**
+     * Override Closing pipeline, draining the stages one after the other.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    @Override
+    public final synchronized void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        fetch.drain();
+        transform.drain();
+        write.drain();
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writing the graph as CSV files for neo4j-admin import.
+ * Every node label and relationship type gets its own file, whose header
+ * carries the ID spaces, label and type expected by the import tool.
+ * Rows are streamed to disk as they come. Location, Source, Hashtag nodes
+ * and the Year, Month and Date nodes of the time tree are deduplicated in
+ * memory, their cardinality being small;
+ * User nodes are written as seen, so the import has to be run with
+ * --ignore-duplicate-nodes, as printed by {@link #importCommand()}.
+ * Tweet nodes, shared by an original and its retweets, are written once,
+ * their TweetIDs being kept off the heap.
+ * Every flush forces the files to disk and records their lengths in
+ * csv.lengths, so an interrupted export can be resumed: the files are cut
+ * back to the lengths of the last flush, rows written after it being
+ * dropped, then appended to, the deduplicated keys being read back.
+ * @author Aquila
+ */
+public class CsvGraphWriter implements GraphSink {
+
+    /**
+     * File recording the lengths of the files at the last flush.
+     */
+    private static final String LENGTHS = "csv.lengths";
+
+    /**
+     * Number of tweets the TweetID set is first sized for.
+     */
+    private static final int EXPECTED_TWEETS = 1000000;
+
+    /**
+     * Directory of the CSV files.
+     */
+    private final File directory;
+
+    /**
+     * Open file of every node label and relationship type.
+     */
+    private final Map<String, Writer> files = new LinkedHashMap<>();
+
+    /**
+     * Stream under the writer of every file.
+     */
+    private final Map<String, FileOutputStream> streams = new LinkedHashMap<>();
+
+    /**
+     * Files holding nodes rather than relationships.
+     */
+    private final Set<String> nodeFiles = new HashSet<>();
+
+    /**
+     * Location nodes already written.
+     */
+    private final Set<String> locations = new HashSet<>();
+
+    /**
+     * Source nodes already written.
+     */
+    private final Set<String> sources = new HashSet<>();
+
+    /**
+     * Year nodes already written.
+     */
+    private final Set<Integer> years = new HashSet<>();
+
+    /**
+     * Month nodes already written.
+     */
+    private final Set<Integer> months = new HashSet<>();
+
+    /**
+     * Date nodes already written.
+     */
+    private final Set<Integer> dates = new HashSet<>();
+
+    /**
+     * Hashtag nodes already written.
+     */
+    private final Set<String> hashtags = new HashSet<>();
+
+    /**
+     * Lengths of the resumed files at the last flush, by label or type.
+     */
+    private final Map<String, Long> lengths;
+
+    /**
+     * Tasks waiting for the next flush.
+     */
+    private final List<Runnable> waiting = new ArrayList<>();
+
+    /**
+     * TweetIDs of the Tweet nodes written.
+     */
+    private final LongHashSet tweets = new LongHashSet(EXPECTED_TWEETS);
+
+    /**
+     * Class Constructor, creating the files and their headers.
+     * @param directory Directory of the CSV files.
+     * @throws IOException IO Exception
+     */
+    public CsvGraphWriter(final File directory) throws IOException {
+        this(directory, false);
+    }
+
+    /**
+     * Class Constructor.
+     * @param directory Directory of the CSV files.
+     * @param resume Whether to continue the files as of the last flush of an interrupted export, instead of creating them.
+     * @throws IOException IO Exception, or a file shorter than at the last flush
+     */
+    public CsvGraphWriter(final File directory, final boolean resume) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.lengths = resume ? readLengths() : new HashMap<String, Long>();
+        open("User", "UserID:ID(User),Username,Description,NbFriends:long,NbFollowers:long,NbFavoritesUser:long,Verified:boolean,:LABEL");
+        open("Location", "Location:ID(Location),Name,Country,Latitude:double,Longitude:double,:LABEL");
+        open("Tweet", "TweetID:ID(Tweet),TweetContent,TweetDate,TweetTimestamp:long,NbRetweets:long,NbFavorites:long,TweetLatitude:double,TweetLongitude:double,:LABEL");
+        open("Source", "Source:ID(Source),:LABEL");
+        open("Year", ":ID(Year),Year:int,:LABEL");
+        open("Month", ":ID(Month),MonthKey:int,Year:int,Month:int,:LABEL");
+        open("Date", ":ID(Date),DayKey:int,Year:int,Month:int,Day:int,:LABEL");
+        open("Hashtag", "Hashtag:ID(Hashtag),:LABEL");
+        open("FROM", ":START_ID(User),:END_ID(Location),:TYPE");
+        open("FOLLOWS", ":START_ID(User),:END_ID(User),:TYPE");
+        open("FRIEND", ":START_ID(User),:END_ID(User),:TYPE");
+        open("TWEETED", ":START_ID(User),:END_ID(Tweet),:TYPE");
+        open("RETWEETED", ":START_ID(User),:END_ID(Tweet),RetweetID,RetweetTimestamp:long,:TYPE");
+        open("HAS_SOURCE", ":START_ID(Tweet),:END_ID(Source),:TYPE");
+        open("DATED_OF", ":START_ID(Tweet),:END_ID(Date),:TYPE");
+        open("HAS_MONTH", ":START_ID(Year),:END_ID(Month),:TYPE");
+        open("HAS_DAY", ":START_ID(Month),:END_ID(Date),:TYPE");
+        open("HAS_HASHTAG", ":START_ID(Tweet),:END_ID(Hashtag),:TYPE");
+        if (!lengths.isEmpty()) {
+            reload();
+        }
+    }
+
+    /**
+     * Reading the lengths of the files at the last flush.
+     * @return the lengths by label or type, empty without any flush.
+     * @throws IOException IO Exception
+     */
+    private Map<String, Long> readLengths() throws IOException {
+        Map<String, Long> read = new HashMap<>();
+        File file = new File(directory, LENGTHS);
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2) {
+                    read.put(fields[0], Long.valueOf(fields[1]));
+                }
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Reading back the keys of the deduplicated nodes already written.
+     * @throws IOException IO Exception
+     */
+    private void reload() throws IOException {
+        for (String location : readIds("Location")) {
+            locations.add(location);
+        }
+        for (String source : readIds("Source")) {
+            sources.add(source);
+        }
+        for (String hashtag : readIds("Hashtag")) {
+            hashtags.add(hashtag);
+        }
+        for (String year : readIds("Year")) {
+            years.add(Integer.valueOf(year));
+        }
+        for (String month : readIds("Month")) {
+            months.add(Integer.valueOf(month));
+        }
+        for (String date : readIds("Date")) {
+            dates.add(Integer.valueOf(date));
+        }
+        for (String tweet : readIds("Tweet")) {
+            tweets.add(Long.parseLong(tweet));
+        }
+        System.out.println("CSV Export Resumed: " + tweets.size() + " tweets");
+    }
+
+    /**
+     * Reading the first column of the rows of a file, its header skipped.
+     * @param name Label of the file.
+     * @return the IDs of the rows.
+     * @throws IOException IO Exception
+     */
+    private List<String> readIds(final String name) throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(directory, name + ".csv")), StandardCharsets.UTF_8))) {
+            StringBuilder field = new StringBuilder();
+            boolean header = true;
+            boolean first = true;
+            boolean quoted = false;
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                        continue;
+                    }
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        reader.reset();
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',' && first) {
+                    if (!header) {
+                        ids.add(field.toString());
+                    }
+                    first = false;
+                } else if (c == '\n') {
+                    header = false;
+                    first = true;
+                    field.setLength(0);
+                } else if (first) {
+                    field.append((char) c);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Opening the file of a label or type, writing its header unless it is resumed.
+     * @param name Label or type.
+     * @param header Header of the file.
+     * @throws IOException IO Exception
+     */
+    private void open(final String name, final String header) throws IOException {
+        File file = new File(directory, name + ".csv");
+        Long length = lengths.get(name);
+        FileOutputStream stream;
+        if (length == null) {
+            stream = new FileOutputStream(file);
+        } else if (file.length() >= length) {
+            stream = new FileOutputStream(file, true);
+            stream.getChannel().truncate(length);
+        } else {
+            throw new IOException("Cannot resume " + file + ": shorter than at the last flush");
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        if (length == null) {
+            writer.write(header);
+            writer.write('\n');
+        }
+        streams.put(name, stream);
+        files.put(name, writer);
+        if (header.contains(":ID(")) {
+            nodeFiles.add(name);
+        }
+    }
+
+    /**
+     * Writing one row.
+     * @param name Label or type of the file.
+     * @param values Values of the row, null for an absent property; only strings are quoted.
+     * @throws IOException IO Exception
+     */
+    private void row(final String name, final Object... values) throws IOException {
+        Writer writer = files.get(name);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (values[i] instanceof String) {
+                writer.write('"');
+                writer.write(((String) values[i]).replace("\"", "\"\""));
+                writer.write('"');
+            } else if (values[i] != null) {
+                writer.write(String.valueOf(values[i]));
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Adding User Node and its Location.
+     * @param user Parsed Twitter Account.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void addUser(final UserRecord user) throws IOException {
+        row("User", user.getUserID(), user.getUsername(), user.getDescription(), user.getNbfriends(), user.getNbfollowers(), user.getNbfavorites(), user.getVerified(), "User");
+        Place place = user.getPlace();
+        if (place == null) {
+            return;
+        }
+        if (locations.add(place.getLocation())) {
+            row("Location", place.getLocation(), place.getName(), place.getCountry(), place.getLatitude(), place.getLongitude(), "Location");
+        }
+        row("FROM", user.getUserID(), place.getLocation(), "FROM");
+    }
+
+    /**
+     * Adding Friendship.
+     * @param mainaccount Twitter Main Account.
+     * @param user Friend ID.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void addFriendship(final String mainaccount, final String user) throws IOException {
+        row("FRIEND", user, mainaccount, "FRIEND");
+    }
+
+    /**
+     * Adding Following relationship between users.
+     * @param mainaccount Main user Twitter Account.
+     * @param user User Twitter Account.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void addFollowing(final String mainaccount, final String user) throws IOException {
+        row("FOLLOWS", user, mainaccount, "FOLLOWS");
+    }
+
+    /**
+     * Adding the Year, Month and Date nodes of a day not written yet.
+     * Their keys are written twice, as the ID of the import and as the
+     * integer property the time tree is matched on.
+     * @param dayKey Day as yyyymmdd.
+     * @throws IOException IO Exception
+     */
+    private void addDay(final int dayKey) throws IOException {
+        if (!dates.add(dayKey)) {
+            return;
+        }
+        int monthKey = dayKey / 100;
+        int year = dayKey / 10000;
+        if (years.add(year)) {
+            row("Year", year, year, "Year");
+        }
+        if (months.add(monthKey)) {
+            row("Month", monthKey, monthKey, year, monthKey % 100, "Month");
+            row("HAS_MONTH", year, monthKey, "HAS_MONTH");
+        }
+        row("Date", dayKey, dayKey, year, monthKey % 100, dayKey % 100, "Date");
+        row("HAS_DAY", monthKey, dayKey, "HAS_DAY");
+    }
+
+    /**
+     * Adding Tweet or Retweet with its Source, Date and Hashtags.
+     * The original of a retweet is written with its first retweet.
+     * @param tweet Parsed tweet.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void addTweet(final TweetRecord tweet) throws IOException {
+        if (tweet.isRetweet()) {
+            row("RETWEETED", tweet.getUser(), tweet.getTweetid(), tweet.getRetweetid(), tweet.getRetweettimestamp(), "RETWEETED");
+        } else {
+            row("TWEETED", tweet.getUser(), tweet.getTweetid(), "TWEETED");
+        }
+        if (!tweets.add(Long.parseLong(tweet.getTweetid()))) {
+            return;
+        }
+        row("Tweet", tweet.getTweetid(), tweet.getTweetcontent(), tweet.getTweetdate(), tweet.getTweettimestamp(), tweet.getNbretweets(), tweet.getNbfavorites(), tweet.getTweetlatitude(), tweet.getTweetlongitude(), "Tweet");
+        if (sources.add(tweet.getSource())) {
+            row("Source", tweet.getSource(), "Source");
+        }
+        row("HAS_SOURCE", tweet.getTweetid(), tweet.getSource(), "HAS_SOURCE");
+        int dayKey = tweet.getDayKey();
+        addDay(dayKey);
+        row("DATED_OF", tweet.getTweetid(), dayKey, "DATED_OF");
+        for (String hashtag : tweet.getHashtags()) {
+            if (hashtags.add(hashtag)) {
+                row("Hashtag", hashtag, "Hashtag");
+            }
+            row("HAS_HASHTAG", tweet.getTweetid(), hashtag, "HAS_HASHTAG");
+        }
+    }
+
+    /**
+     * Adding tweets, the task waiting for the next flush.
+     * @param records Parsed tweets.
+     * @param written Task run once the files are flushed.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void addTweets(final List<TweetRecord> records, final Runnable written) throws IOException {
+        for (TweetRecord tweet : records) {
+            addTweet(tweet);
+        }
+        waiting.add(written);
+    }
+
+    /**
+     * Flushing the rows written so far to the disk, recording the lengths of
+     * the files, then running the tasks waiting for them.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void flush() throws IOException {
+        StringBuilder written = new StringBuilder();
+        for (Map.Entry<String, Writer> file : files.entrySet()) {
+            file.getValue().flush();
+            FileChannel channel = streams.get(file.getKey()).getChannel();
+            channel.force(false);
+            written.append(file.getKey()).append('\t').append(channel.size()).append('\n');
+        }
+        File recorded = new File(directory, LENGTHS + ".tmp");
+        try (FileChannel out = FileChannel.open(recorded.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(written.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(recorded.toPath(), new File(directory, LENGTHS).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Runnable task : waiting) {
+            task.run();
+        }
+        waiting.clear();
+    }
+
+    /**
+     * Command importing the files into an empty database.
+     * @return the command.
+     */
+    public final String importCommand() {
+        StringBuilder command = new StringBuilder("neo4j-admin import --database=graph.db --multiline-fields=true --ignore-duplicate-nodes=true --ignore-missing-nodes=true");
+        for (String name : files.keySet()) {
+            command.append(nodeFiles.contains(name) ? " --nodes " : " --relationships ").append(new File(directory, name + ".csv").getPath());
+        }
+        return command.toString();
+    }
+
+    /**
+     * Override Closing files, flushing them first.
+     * @throws IOException IO Exception
+     */
+    @Override
+    public final synchronized void close() throws IOException {
+        flush();
+        tweets.close();
+        IOException failure = null;
+        for (Writer writer : files.values()) {
+            try {
+                writer.close();
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
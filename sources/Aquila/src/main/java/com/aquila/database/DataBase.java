@@ -5,24 +5,26 @@
  */
 package com.aquila.database;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import org.jsoup.Jsoup;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Record;
 import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
 import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
 import static org.neo4j.driver.v1.Values.parameters;
-import twitter4j.HashtagEntity;
 import twitter4j.IDs;
-import twitter4j.Paging;
 import twitter4j.Status;
-import twitter4j.Twitter;
-import twitter4j.TwitterFactory;
 import twitter4j.User;
-import twitter4j.conf.ConfigurationBuilder;
 
 /**
  * Database Class.
@@ -34,14 +36,139 @@ public class DataBase implements AutoCloseable {
      */
     private final Driver driver;
 
+    /**
+     * Gazetteer resolving the locations of the users.
+     */
+    private final Gazetteer gazetteer;
+
+    /**
+     * Number of tweets written per transaction.
+     */
+    private static final int TWEET_BATCH_SIZE = 500;
+
+    /**
+     * Milliseconds between two flushes of the tweet buffer.
+     */
+    private static final long TWEET_FLUSH_INTERVAL = 5000;
+
+    /**
+     * Milliseconds between two flushes of the tweet buffer in streaming mode.
+     */
+    private static final long STREAM_FLUSH_INTERVAL = 1000;
+
+    /**
+     * Number of new nodes merged per transaction.
+     */
+    private static final int DEDUP_CHUNK_SIZE = 10000;
+
+    /**
+     * Default number of threads calling the Twitter API.
+     */
+    private static final int FETCH_THREADS = 4;
+
+    /**
+     * Default number of threads parsing users and tweets.
+     */
+    private static final int TRANSFORM_THREADS = 2;
+
+    /**
+     * Default number of threads writing in the database.
+     */
+    private static final int WRITE_THREADS = 2;
+
+    /**
+     * Capacity of the queue in front of each crawl stage.
+     */
+    private static final int STAGE_QUEUE_CAPACITY = 100;
+
+    /**
+     * Default milliseconds between two forces of the crawl checkpoint to disk.
+     */
+    private static final long CHECKPOINT_SYNC_INTERVAL = 1000;
+
+    /**
+     * Number of friend IDs between two checkpointed positions.
+     */
+    private static final int CHECKPOINT_POSITION_STEP = 1000;
+
+    /**
+     * Mean radius of the Earth in meters.
+     */
+    private static final double EARTH_RADIUS = 6371000;
+
+    /**
+     * Largest number of raw tweet sources remembered with their client name.
+     */
+    private static final int MAX_SOURCES = 4096;
+
+    /**
+     * Client names of the tweet sources.
+     */
+    private static final SourceExtractor SOURCES = new SourceExtractor(MAX_SOURCES);
+
+    /**
+     * Parsing of the tweet sources.
+     */
+    private static final StageMetrics SOURCE_PARSING = CrawlMetrics.stage("parse.source");
+
+    /**
+     * Statements of the single tweet writes.
+     */
+    private static final StageMetrics TWEET_WRITES = CrawlMetrics.stage("cypher.tweet");
+
+    /**
+     * Statements of the single retweet writes.
+     */
+    private static final StageMetrics RETWEET_WRITES = CrawlMetrics.stage("cypher.retweet");
+
+    /**
+     * Statements of the single hashtag writes.
+     */
+    private static final StageMetrics HASHTAG_WRITES = CrawlMetrics.stage("cypher.hashtag");
+
+    /**
+     * Statements of the migration windows.
+     */
+    private static final StageMetrics MIGRATION_WRITES = CrawlMetrics.stage("cypher.migrate");
+
+    /**
+     * Number of IDs a new seen-set file is sized for.
+     */
+    private static final int SEEN_EXPECTED_IDS = 1000000;
+
+    /**
+     * OAuth credentials shared by the crawl: consumer key, consumer secret, access token, access token secret.
+     */
+    private static final String[][] CREDENTIALS = {
+        //Tianyuan
+        {"Ckt54ac8nVyqTMDlW4VALUaOE", "sOOY3Dkujy0ruJLcMjJ1lA87mbqUgMG3K06GWwjHAEbyRSrmSU", "708838056040734722-CZm6LvxAKs1trZMWCgnV6RqhpBTclMr", "b98KWD1Tph2NCFtWhB6jJCQFYcW8OeiqtUXVqme9KRuRl"},
+        //Alexandre
+        {"qh7Nt1pGJHGvMt3DqNnjoacAZ", "xJMhad585jycg4WrU2Oh6AJxQaTEMfKp3Xyn3X6U2p4dRE3InF", "966009557372801025-KNpGkpGtSfPOU2iHzQFs9jLneDKA6on", "UfBSEDaSTr5wDMBMweJJNPd3jBCiQr7HsSN3PSB0Utc57"},
+        //Colin
+        {"PrGFy40pU5ucfM15LpS73AU1c", "hGbNAwIFyPzhm7VTkIrMb09fCd4pR864ekjHPuU5EKqWmedVHQ", "965874428692324352-f3QHxWHRvVvZvLrqXknIKTTjfrpZCP7", "zoI08QzLhAkK7fQKvcd8gWVVAOGsd8pIg9BBSxjONHSqu"}
+    };
+
+    /**
+     * Class Constructor, loading the gazetteer of aquila.gazetteer or the bundled one.
+     * @param uri URI.
+     * @param user Database username.
+     * @param password Database password.
+     * @throws IOException when the gazetteer cannot be read
+     */
+    public DataBase(final String uri, final String user, final String password) throws IOException {
+        this(uri, user, password, Gazetteer.loadDefault());
+    }
+
     /**
      * Class Constructor.
      * @param uri URI.
      * @param user Database username.
      * @param password Database password.
+     * @param gazetteer Gazetteer resolving the locations of the users.
      */
-    public DataBase(final String uri, final String user, final String password) {
+    public DataBase(final String uri, final String user, final String password, final Gazetteer gazetteer) {
         driver = GraphDatabase.driver(uri, AuthTokens.basic(user, password));
+        this.gazetteer = gazetteer;
     }
 
     /**
@@ -54,102 +181,116 @@ public class DataBase implements AutoCloseable {
     }
 
     /**
-     * Adding User index to the database.
+     * Opening a batch writer for tweets on the same driver.
+     * @param batchSize Number of tweets per transaction.
+     * @param flushInterval Milliseconds between two periodic flushes.
+     * @return the batch writer.
+     */
+    public final TweetBatchWriter newTweetBatchWriter(final int batchSize, final long flushInterval) {
+        return new TweetBatchWriter(driver, batchSize, flushInterval);
+    }
+
+    /**
+     * Batch writer for tweets skipping the tweets already written.
+     * @param batchSize Number of tweets per transaction.
+     * @param flushInterval Milliseconds between two periodic flushes.
+     * @param seen TweetIDs already written.
+     * @return the writer.
+     */
+    public final TweetBatchWriter newTweetBatchWriter(final int batchSize, final long flushInterval, final LongHashSet seen) {
+        return new TweetBatchWriter(driver, batchSize, flushInterval, seen);
+    }
+
+    /**
+     * Adding User indexes to the database, NbFollowers supporting range queries.
      */
     public final void addIndexUser() {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE INDEX ON : User(Username)");
-                    return result.next().get(0).asString();
-                }
-            });
-        }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
+        addSchema("CREATE INDEX ON :User(Username)");
+        addSchema("CREATE INDEX ON :User(NbFollowers)");
+    }
+
+    /**
+     * Adding geographic indexes to the database.
+     * Bounding boxes are range scans on one coordinate, filtered on the other.
+     */
+    public final void addIndexGeo() {
+        addSchema("CREATE INDEX ON :Tweet(TweetLatitude)");
+        addSchema("CREATE INDEX ON :Tweet(TweetLongitude)");
     }
 
     /**
-     * Adding Location index to the database.
+     * Adding Location index to the database: users of a country are an index lookup on Country.
      */
     public final void addIndexLocation() {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE INDEX ON : Location(Location)");
-                    return result.next().get(0).asString();
-                }
-            });
-        }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
+        addSchema("CREATE INDEX ON :Location(Country)");
     }
 
     /**
-     * Adding Source index to the database.
+     * Adding Date index to the database: time ranges of tweets are index range scans on TweetTimestamp.
      */
-    public final void addIndexSource() {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE INDEX ON : Source(Source)");
-                    return result.next().get(0).asString();
-                }
-            });
-        }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
+    public final void addIndexDate() {
+        addSchema("CREATE INDEX ON :Tweet(TweetTimestamp)");
     }
 
     /**
-     * Adding  Tweet index to the database.
+     * Adding uniqueness constraints on the natural keys of the nodes.
+     * They replace the former Location, Source, Tweet and Hashtag indexes
+     * and back every MERGE of the write methods.
+     * @return true when every constraint is in place, false when duplicates left by older runs block one.
      */
-    public final void addIndexTweet() {
+    public final boolean addConstraints() {
+        boolean added = addConstraint("User", "UserID");
+        added &= addConstraint("Tweet", "TweetID");
+        added &= addConstraint("Hashtag", "Hashtag");
+        added &= addConstraint("Source", "Source");
+        added &= addConstraint("Location", "Location");
+        added &= addConstraint("Year", "Year");
+        added &= addConstraint("Month", "MonthKey");
+        added &= addConstraint("Date", "DayKey");
+        return added;
+    }
+
+    /**
+     * Adding a uniqueness constraint, replacing the plain index left by the merging passes.
+     * @param label Label of the nodes.
+     * @param property Natural key of the nodes.
+     * @return true when the constraint is in place.
+     */
+    private boolean addConstraint(final String label, final String property) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            session.writeTransaction(new TransactionWork<Void>() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE INDEX ON : Tweet(TweetID)");
-                    return result.next().get(0).asString();
+                public Void execute(final Transaction tx) {
+                    tx.run("DROP INDEX ON :" + label + "(" + property + ")").consume();
+                    return null;
                 }
             });
         }
         catch (Exception e) {
-            System.out.println(e.getMessage());
+            // No plain index to replace
         }
+        return addSchema("CREATE CONSTRAINT ON (n:" + label + ") ASSERT n." + property + " IS UNIQUE");
     }
 
     /**
-     * Adding Hashtag index to the database.
+     * Running a schema statement in its own transaction.
+     * @param statement Schema statement.
+     * @return true when the statement committed.
      */
-    public final void addIndexHashtag() {
+    private boolean addSchema(final String statement) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            session.writeTransaction(new TransactionWork<Void>() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE INDEX ON : Hashtag(Hashtag)");
-                    return result.next().get(0).asString();
+                public Void execute(final Transaction tx) {
+                    tx.run(statement).consume();
+                    return null;
                 }
             });
+            return true;
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
+            return false;
         }
     }
 
@@ -159,7 +300,10 @@ public class DataBase implements AutoCloseable {
      * @return string.
      */
     public final static String getSource(final String source) {
-         return Jsoup.parse(source).text();
+        long start = System.nanoTime();
+        String name = SOURCES.extract(source);
+        SOURCE_PARSING.stop(start);
+        return name;
     }
 
     /**
@@ -173,35 +317,16 @@ public class DataBase implements AutoCloseable {
      * @param verified Verified Twitter Account.
      * @param location Location of Twitter Account.
      */
-    public final void addUserNode(final String userID, final String username, final String description, final String nbfriends, final String nbfollowers, final String nbfavorites, final String verified, final String location) {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE (u:User) "
-                            + "SET u.UserID = $userID, "
-                            + "u.Username = $username, "
-                            + "u.Description = $description, "
-                            + "u.NbFriends = $nbfriends, "
-                            + "u.NbFollowers = $nbfollowers, "
-                            + "u.NbFavoritesUser = $nbfavorites, "
-                            + "u.Verified = $verified "
-                            + "CREATE (l:Location) "
-                            + "SET l.Location = $location "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (u:User {UserID:  $userID}), (l:Location {Location: $location})"
-                            + "MERGE (u)-[:FROM]->(l)"
-                            + "RETURN l.location",
-                            parameters("userID", userID, "username", username, "description", description, "nbfriends", nbfriends, "nbfollowers", nbfollowers, "nbfavorites", nbfavorites, "verified", verified, "location", location));
-                    return result.next().get(0).asString();
-                }
-            });
-        }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
+    public final void addUserNode(final String userID, final String username, final String description, final long nbfriends, final long nbfollowers, final long nbfavorites, final boolean verified, final String location) {
+        addUserNode(new UserRecord(userID, username, description, nbfriends, nbfollowers, nbfavorites, verified, gazetteer.resolve(location)));
+    }
+
+    /**
+     * Adding User Node.
+     * @param user Parsed Twitter Account.
+     */
+    public final void addUserNode(final UserRecord user) {
+        write(BoltGraphSink.USER_WRITES, BoltGraphSink.MERGE_USER, BoltGraphSink.userParameters(user));
     }
 
     /**
@@ -210,17 +335,22 @@ public class DataBase implements AutoCloseable {
      * @param user Friend ID.
      */
     public final void addFriendship(final String mainaccount, final String user) {
+        write(BoltGraphSink.FRIEND_WRITES, BoltGraphSink.MERGE_FRIEND, parameters("mainaccount", mainaccount, "user", user));
+    }
+
+    /**
+     * Running a write statement in its own transaction.
+     * @param stage Stage of the statement.
+     * @param statement Write statement.
+     * @param params Parameters of the statement.
+     */
+    private void write(final StageMetrics stage, final String statement, final Value params) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            CrawlMetrics.write(session, stage, new TransactionWork<Void>() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (u1:User {UserID: $mainaccount}), (u2:User {UserID: $user}) "
-                            + "MERGE (u1)<-[:FRIEND]-(u2) "
-                            + "RETURN 'Friendship added'",
-                            parameters("mainaccount", mainaccount, "user", user));
-                    return result.next().get(0).asString();
+                public Void execute(final Transaction tx) {
+                    tx.run(statement, params).consume();
+                    return null;
                 }
             });
         }
@@ -229,6 +359,15 @@ public class DataBase implements AutoCloseable {
         }
     }
 
+    /**
+     * Bolt sink writing users and relationships on the same driver.
+     * @param tweets Batch writer for tweets, closed with the sink.
+     * @return the sink.
+     */
+    public final GraphSink newGraphSink(final TweetBatchWriter tweets) {
+        return new BoltGraphSink(driver, tweets);
+    }
+
     /**
      * Adding geocalised Tweets.
      * @param user user Twitter Account.
@@ -241,38 +380,31 @@ public class DataBase implements AutoCloseable {
      * @param tweetlatitude Tweet Latitude.
      * @param tweetlongitude Tweet Longitude.
      */
-    public final void addTweetGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final String nbretweets, final String nbfavorites, final String tweetlatitude, final String tweetlongitude) {
+    public final void addTweetGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final long nbretweets, final long nbfavorites, final double tweetlatitude, final double tweetlongitude) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            final long timestamp = parseTweetDate(tweetdate);
+            String userNode = CrawlMetrics
+                    .write(session, TWEET_WRITES, new TransactionWork<String>() {
                 @Override
                 public String execute(final Transaction tx) {
                     StatementResult result = tx.run(
-                            "CREATE (t:Tweet) "
-                            + "SET t.TweetID = $tweetid, "
-                            + "t.TweetContent = $tweetcontent, "
+                            "MERGE (t:Tweet {TweetID: $tweetid}) "
+                            + "SET t.TweetContent = $tweetcontent, "
                             + "t.TweetDate = $tweetdate, "
+                            + "t.TweetTimestamp = $tweettimestamp, "
                             + "t.NbRetweets = $nbretweets, "
                             + "t.NbFavorites = $nbfavorites, "
                             + "t.TweetLatitude = $tweetlatitude, "
                             + "t.TweetLongitude = $tweetlongitude "
-                            + "CREATE (d:Date)"
-                            + "SET d.Day = $day, "
-                            + "d.Month = $month, "
-                            + "d.Year = $year "
-                            + "CREATE (s:Source) "
-                            + "SET s.Source = $source "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (s:Source {Source: $source}) "
+                            + TimeTree.mergeDay("$day")
+                            + "MERGE (s:Source {Source: $source}) "
                             + "MERGE (t)-[:HAS_SOURCE]->(s) "
-                            + "WITH count(*) as dummy2 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (u:User {UserID: $user}) "
-                            + "MERGE (u)-[:TWEETED]->(t) "
-                            + "WITH count(*) as dummy3 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (d:Date {Day: $day, Month: $month, Year: $year}) "
                             + "MERGE (t)-[:DATED_OF]->(d) "
-                            + "RETURN t.tweetid",
-                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "day", getDay(tweetdate), "month", getMonth(tweetdate), "year", getYear(tweetdate), "nbretweets", nbretweets, "nbfavorites", nbfavorites, "tweetlatitude", tweetlatitude, "tweetlongitude", tweetlongitude));
+                            + "WITH t "
+                            + "MATCH (u:User {UserID: $user}) "
+                            + "MERGE (u)-[:TWEETED]->(t) "
+                            + "RETURN t.TweetID",
+                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "tweettimestamp", timestamp, "day", TimeTree.day(TimeTree.dayKey(timestamp)), "nbretweets", nbretweets, "nbfavorites", nbfavorites, "tweetlatitude", tweetlatitude, "tweetlongitude", tweetlongitude));
                     return result.next().get(0).asString();
                 }
             });
@@ -284,49 +416,45 @@ public class DataBase implements AutoCloseable {
     }
 
     /**
-     * Adding geocalised Retweets.
+     * Adding geocalised Retweets, as a RETWEETED relationship to their original.
      * @param user user Twitter Account.
      * @param source App used for tweeting.
-     * @param tweetid Tweet ID.
+     * @param tweetid Tweet ID of the original.
      * @param tweetcontent Tweet Content.
      * @param tweetdate Tweet Date.
      * @param nbretweets Number of retweets.
      * @param nbfavorites Number of favorites.
      * @param tweetlatitude Tweet Latitude.
      * @param tweetlongitude Tweet Longitude.
+     * @param retweetid Tweet ID of the retweet.
+     * @param retweettimestamp Retweet creation time in epoch milliseconds.
      */
-    public final void addRetweetGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final String nbretweets, final String nbfavorites, final String tweetlatitude, final String tweetlongitude) {
+    public final void addRetweetGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final long nbretweets, final long nbfavorites, final double tweetlatitude, final double tweetlongitude, final String retweetid, final long retweettimestamp) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            final long timestamp = parseTweetDate(tweetdate);
+            String userNode = CrawlMetrics
+                    .write(session, RETWEET_WRITES, new TransactionWork<String>() {
                 @Override
                 public String execute(final Transaction tx) {
                     StatementResult result = tx.run(
-                            "CREATE (t:Tweet) "
-                            + "SET t.TweetID = $tweetid, "
-                            + "t.TweetContent = $tweetcontent, "
+                            "MERGE (t:Tweet {TweetID: $tweetid}) "
+                            + "SET t.TweetContent = $tweetcontent, "
                             + "t.TweetDate = $tweetdate, "
+                            + "t.TweetTimestamp = $tweettimestamp, "
                             + "t.NbRetweets = $nbretweets, "
                             + "t.NbFavorites = $nbfavorites, "
                             + "t.TweetLatitude = $tweetlatitude, "
                             + "t.TweetLongitude = $tweetlongitude "
-                            + "CREATE (d:Date)"
-                            + "SET d.Day = $day, "
-                            + "d.Month = $month, "
-                            + "d.Year = $year "
-                            + "CREATE (s:Source) "
-                            + "SET s.Source = $source "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (s:Source {Source: $source}) "
+                            + TimeTree.mergeDay("$day")
+                            + "MERGE (s:Source {Source: $source}) "
                             + "MERGE (t)-[:HAS_SOURCE]->(s) "
-                            + "WITH count(*) as dummy2 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (u:User {UserID: $user}) "
-                            + "MERGE (u)-[:RETWEETED]->(t) "
-                            + "WITH count(*) as dummy3 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (d:Date {Day: $day, Month: $month, Year: $year}) "
                             + "MERGE (t)-[:DATED_OF]->(d) "
-                            + "RETURN t.tweetid",
-                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "day", getDay(tweetdate), "month", getMonth(tweetdate), "year", getYear(tweetdate), "nbretweets", nbretweets, "nbfavorites", nbfavorites, "tweetlatitude", tweetlatitude, "tweetlongitude", tweetlongitude));
+                            + "WITH t "
+                            + "MATCH (u:User {UserID: $user}) "
+                            + "MERGE (u)-[r:RETWEETED]->(t) "
+                            + "SET r.RetweetID = $retweetid, r.RetweetTimestamp = $retweettimestamp "
+                            + "RETURN t.TweetID",
+                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "tweettimestamp", timestamp, "day", TimeTree.day(TimeTree.dayKey(timestamp)), "nbretweets", nbretweets, "nbfavorites", nbfavorites, "tweetlatitude", tweetlatitude, "tweetlongitude", tweetlongitude, "retweetid", retweetid, "retweettimestamp", retweettimestamp));
                     return result.next().get(0).asString();
                 }
             });
@@ -347,36 +475,29 @@ public class DataBase implements AutoCloseable {
      * @param nbretweets Number of retweets.
      * @param nbfavorites Number of favorites.
      */
-    public final void addTweetNotGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final String nbretweets, final String nbfavorites) {
+    public final void addTweetNotGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final long nbretweets, final long nbfavorites) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            final long timestamp = parseTweetDate(tweetdate);
+            String userNode = CrawlMetrics
+                    .write(session, TWEET_WRITES, new TransactionWork<String>() {
                 @Override
                 public String execute(final Transaction tx) {
                     StatementResult result = tx.run(
-                            "CREATE (t:Tweet) "
-                            + "SET t.TweetID = $tweetid, "
-                            + "t.TweetContent = $tweetcontent, "
+                            "MERGE (t:Tweet {TweetID: $tweetid}) "
+                            + "SET t.TweetContent = $tweetcontent, "
                             + "t.TweetDate = $tweetdate, "
+                            + "t.TweetTimestamp = $tweettimestamp, "
                             + "t.NbRetweets = $nbretweets, "
                             + "t.NbFavorites = $nbfavorites "
-                            + "CREATE (d:Date)"
-                            + "SET d.Day = $day, "
-                            + "d.Month = $month, "
-                            + "d.Year = $year "
-                            + "CREATE (s:Source) "
-                            + "SET s.Source = $source "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (s:Source {Source: $source}) "
+                            + TimeTree.mergeDay("$day")
+                            + "MERGE (s:Source {Source: $source}) "
                             + "MERGE (t)-[:HAS_SOURCE]->(s) "
-                            + "WITH count(*) as dummy2 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (u:User {UserID: $user}) "
-                            + "MERGE (u)-[:TWEETED]->(t) "
-                            + "WITH count(*) as dummy3 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (d:Date {Day: $day, Month: $month, Year: $year}) "
                             + "MERGE (t)-[:DATED_OF]->(d) "
-                            + "RETURN t.tweetid",
-                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "day", getDay(tweetdate), "month", getMonth(tweetdate), "year", getYear(tweetdate), "nbretweets", nbretweets, "nbfavorites", nbfavorites));
+                            + "WITH t "
+                            + "MATCH (u:User {UserID: $user}) "
+                            + "MERGE (u)-[:TWEETED]->(t) "
+                            + "RETURN t.TweetID",
+                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "tweettimestamp", timestamp, "day", TimeTree.day(TimeTree.dayKey(timestamp)), "nbretweets", nbretweets, "nbfavorites", nbfavorites));
                     return result.next().get(0).asString();
                 }
             });
@@ -388,45 +509,41 @@ public class DataBase implements AutoCloseable {
     }
 
     /**
-     * Adding non Geocalised Retweets.
+     * Adding non Geocalised Retweets, as a RETWEETED relationship to their original.
      * @param user user Twitter Account.
      * @param source App used for tweeting.
-     * @param tweetid Tweet ID.
+     * @param tweetid Tweet ID of the original.
      * @param tweetcontent Tweet Content.
      * @param tweetdate Tweet Date.
      * @param nbretweets Number of retweets.
      * @param nbfavorites Number of favorites.
+     * @param retweetid Tweet ID of the retweet.
+     * @param retweettimestamp Retweet creation time in epoch milliseconds.
      */
-    public final void addRetweetNotGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final String nbretweets, final String nbfavorites) {
+    public final void addRetweetNotGeocalised(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final long nbretweets, final long nbfavorites, final String retweetid, final long retweettimestamp) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            final long timestamp = parseTweetDate(tweetdate);
+            String userNode = CrawlMetrics
+                    .write(session, RETWEET_WRITES, new TransactionWork<String>() {
                 @Override
                 public String execute(final Transaction tx) {
                     StatementResult result = tx.run(
-                            "CREATE (t:Tweet) "
-                            + "SET t.TweetID = $tweetid, "
-                            + "t.TweetContent = $tweetcontent, "
+                            "MERGE (t:Tweet {TweetID: $tweetid}) "
+                            + "SET t.TweetContent = $tweetcontent, "
                             + "t.TweetDate = $tweetdate, "
+                            + "t.TweetTimestamp = $tweettimestamp, "
                             + "t.NbRetweets = $nbretweets, "
                             + "t.NbFavorites = $nbfavorites "
-                            + "CREATE (d:Date)"
-                            + "SET d.Day = $day, "
-                            + "d.Month = $month, "
-                            + "d.Year = $year "
-                            + "CREATE (s:Source) "
-                            + "SET s.Source = $source "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (s:Source {Source: $source}) "
+                            + TimeTree.mergeDay("$day")
+                            + "MERGE (s:Source {Source: $source}) "
                             + "MERGE (t)-[:HAS_SOURCE]->(s) "
-                            + "WITH count(*) as dummy2 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (u:User {UserID: $user}) "
-                            + "MERGE (u)-[:RETWEETED]->(t) "
-                            + "WITH count(*) as dummy3 "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (d:Date {Day: $day, Month: $month, Year: $year}) "
                             + "MERGE (t)-[:DATED_OF]->(d) "
-                            + "RETURN t.tweetid",
-                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "day", getDay(tweetdate), "month", getMonth(tweetdate), "year", getYear(tweetdate), "nbretweets", nbretweets, "nbfavorites", nbfavorites));
+                            + "WITH t "
+                            + "MATCH (u:User {UserID: $user}) "
+                            + "MERGE (u)-[r:RETWEETED]->(t) "
+                            + "SET r.RetweetID = $retweetid, r.RetweetTimestamp = $retweettimestamp "
+                            + "RETURN t.TweetID",
+                            parameters("user", user, "source", source, "tweetid", tweetid, "tweetcontent", tweetcontent, "tweetdate", tweetdate, "tweettimestamp", timestamp, "day", TimeTree.day(TimeTree.dayKey(timestamp)), "nbretweets", nbretweets, "nbfavorites", nbfavorites, "retweetid", retweetid, "retweettimestamp", retweettimestamp));
                     return result.next().get(0).asString();
                 }
             });
@@ -440,22 +557,20 @@ public class DataBase implements AutoCloseable {
     /**
      * Adding Hashtags.
      * @param tweetid Tweet ID.
-     * @param hashtag Hashtag value.
+     * @param hashtag Hashtag value, normalized like the ones of the tweet records.
      */
     public final void addHashTag(final String tweetid, final String hashtag) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            String userNode = CrawlMetrics
+                    .write(session, HASHTAG_WRITES, new TransactionWork<String>() {
                 @Override
                 public String execute(final Transaction tx) {
                     StatementResult result = tx.run(
-                            "CREATE (h:Hashtag) "
-                            + "SET h.Hashtag = $hashtag "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (t:Tweet {TweetID: $tweetid}), (h:Hashtag {Hashtag: $hashtag}) "
+                            "MATCH (t:Tweet {TweetID: $tweetid}) "
+                            + "MERGE (h:Hashtag {Hashtag: $hashtag}) "
                             + "MERGE (t)-[:HAS_HASHTAG]->(h) "
-                            + "RETURN h.hashtag",
-                            parameters("tweetid", tweetid, "hashtag", hashtag));
+                            + "RETURN h.Hashtag",
+                            parameters("tweetid", tweetid, "hashtag", TweetRecord.normalizeHashtag(hashtag)));
                     return result.next().get(0).asString();
                 }
             });
@@ -466,313 +581,755 @@ public class DataBase implements AutoCloseable {
     }
 
     /**
-     * Day of a tweet.
-     * @param date date of the tweet
-     * @return the day
+     * Creation time of a tweet.
+     * @param tweetdate Tweet Date, as written by java.util.Date#toString().
+     * @return the epoch milliseconds.
      */
-    static String getDay(final String date) {
-        return date.substring(8, 10);
+    static long parseTweetDate(final String tweetdate) {
+        Long timestamp = TimeTree.parse(tweetdate);
+        if (timestamp == null) {
+            throw new IllegalArgumentException("Unparseable Tweet Date: " + tweetdate);
+        }
+        return timestamp;
     }
 
     /**
-     * Month of a tweet.
-     * @param date date of the tweet
-     * @return the moth
+     * Opening a property type migration on the same driver.
+     * @param chunkSize Number of nodes converted per transaction.
+     * @return the migration.
      */
-    static String getMonth(final String date) {
-        return date.substring(4, 7);
+    public final PropertyTypeMigration newPropertyTypeMigration(final int chunkSize) {
+        return new PropertyTypeMigration(driver, chunkSize);
     }
 
     /**
-     * Year of a tweet.
-     * @param date date of the tweet
-     * @return the year
+     * Opening a deduplicator on the same driver.
+     * @param chunkSize Number of new nodes merged per transaction.
+     * @return the deduplicator.
      */
-    static String getYear(final String date) {
-        if ("CET ".equals(date.substring(20, 23))) {
-            return date.substring(23, 27);
-        } else {
-            return date.substring(24, 28);
-        }
+    public final Deduplicator newDeduplicator(final int chunkSize) {
+        return new Deduplicator(driver, chunkSize);
+    }
+
+    /**
+     * Removing the duplicates and converting the values left by older runs,
+     * then adding the constraints they blocked.
+     * A one-off pass over the whole store, run with --migrate while nothing else writes.
+     * @return true when every constraint is in place.
+     */
+    public final boolean migrating() {
+        mergingLocation();
+        mergingSource();
+        mergingHashtag();
+        normalizingHashtags();
+        normalizingLocations();
+        mergingTweets();
+        mergingUsers();
+        mergingDate();
+        migratingDates();
+        return addConstraints();
     }
+
     /**
-     * Merging Location nodes in the database.
+     * Merging Location nodes created since the last merge.
      */
     public final void mergingLocation() {
+        newDeduplicator(DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.LOCATION);
+    }
+
+    /**
+     * Merging Source nodes created since the last merge.
+     */
+    public final void mergingSource() {
+        newDeduplicator(DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.SOURCE);
+    }
+
+    /**
+     * Merging Hashtag nodes created since the last merge.
+     */
+    public final void mergingHashtag() {
+        newDeduplicator(DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.HASHTAG);
+    }
+
+    /**
+     * Merging Tweet nodes created since the last merge.
+     */
+    public final void mergingTweets() {
+        newDeduplicator(DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.TWEET);
+    }
+
+    /**
+     * Merging User nodes created since the last merge.
+     */
+    public final void mergingUsers() {
+        newDeduplicator(DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.USER);
+    }
+
+    /**
+     * Rebuilding the analytics rollups from the tweets of the graph, while nothing else writes.
+     */
+    public final void rebuildingRollups() {
+        TweetRollup.rebuild(driver, DEDUP_CHUNK_SIZE);
+    }
+
+    /**
+     * Computing the PageRank, connected component and community of every user
+     * in memory, then writing them as PageRank, Component and Community properties.
+     * @throws Exception Exception
+     */
+    public final void analyzingGraph() throws Exception {
+        GraphAnalytics.run(driver);
+    }
+
+    /**
+     * Merging Year, Month and Date nodes created since the last merge.
+     */
+    public final void mergingDate() {
+        Deduplicator deduplicator = newDeduplicator(DEDUP_CHUNK_SIZE);
+        deduplicator.deduplicate(Deduplicator.YEAR);
+        deduplicator.deduplicate(Deduplicator.MONTH);
+        deduplicator.deduplicate(Deduplicator.DATE);
+    }
+
+    /**
+     * Moving the tweets written before the time tree onto it.
+     * Tweets without TweetTimestamp are read window by window of {@link NodeIdWindows},
+     * their TweetDate parsed into a timestamp, and their DATED_OF moved from
+     * the former Date nodes to the day of the tree, one window per transaction.
+     * Former Date nodes left without tweets are deleted.
+     */
+    public final void migratingDates() {
+        long migrated = 0;
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            migrated = NodeIdWindows.walk(session, MIGRATION_WRITES, -1, DEDUP_CHUNK_SIZE, new NodeIdWindows.Handler() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (l:Location) "
-                            + "WITH l.Location as Location, collect(l) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (l in tail(nodes) | DETACH DELETE l) "
-                            + "RETURN 'Location Merged'");
-                    return result.next().get(0).asString();
+                public long handle(final Transaction tx, final long first, final long last) {
+                    StatementResult tweets = tx.run(
+                            "UNWIND range($first, $last) AS i "
+                            + "MATCH (t:Tweet) WHERE id(t) = i "
+                            + "AND t.TweetTimestamp IS NULL AND t.TweetDate IS NOT NULL "
+                            + "RETURN id(t) AS id, t.TweetDate AS date",
+                            parameters("first", first, "last", last));
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    while (tweets.hasNext()) {
+                        Record record = tweets.next();
+                        Long timestamp = TimeTree.parse(record.get("date").asString());
+                        if (timestamp != null) {
+                            Map<String, Object> row = TimeTree.day(TimeTree.dayKey(timestamp));
+                            row.put("id", record.get("id").asLong());
+                            row.put("timestamp", timestamp);
+                            rows.add(row);
+                        }
+                    }
+                    tx.run("UNWIND $rows AS row "
+                            + "MATCH (t:Tweet) WHERE id(t) = row.id "
+                            + "SET t.TweetTimestamp = row.timestamp "
+                            + "WITH row, t "
+                            + "OPTIONAL MATCH (t)-[old:DATED_OF]->() "
+                            + "DELETE old "
+                            + "WITH DISTINCT row, t "
+                            + TimeTree.mergeDay("row")
+                            + "MERGE (t)-[:DATED_OF]->(d)",
+                            parameters("rows", rows)).consume();
+                    return rows.size();
+                }
+            });
+            session.writeTransaction(new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run("MATCH (d:Date) WHERE d.DayKey IS NULL AND NOT (d)--() DELETE d").consume();
+                    return null;
                 }
             });
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
         }
+        System.out.println("Tweet Dates Migrated: " + migrated);
     }
 
     /**
-     * Merging Source nodes in the database.
+     * Normalizing the hashtags written before they were case-folded.
+     * Hashtag nodes are read window by window of {@link NodeIdWindows}; the ones
+     * whose value is not normalized hand their tweets over to the Hashtag node
+     * of the normalized value, merged if needed, and are deleted.
      */
-    public final void mergingSource() {
+    public final void normalizingHashtags() {
+        long normalized = 0;
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            normalized = NodeIdWindows.walk(session, MIGRATION_WRITES, -1, DEDUP_CHUNK_SIZE, new NodeIdWindows.Handler() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (s:Source) "
-                            + "WITH s.Source as Source, collect(s) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (s in tail(nodes) | DETACH DELETE s) "
-                            + "RETURN 'Source Merged'");
-                    return result.next().get(0).asString();
+                public long handle(final Transaction tx, final long first, final long last) {
+                    StatementResult hashtags = tx.run(
+                            "UNWIND range($first, $last) AS i "
+                            + "MATCH (h:Hashtag) WHERE id(h) = i AND h.Hashtag IS NOT NULL "
+                            + "RETURN id(h) AS id, h.Hashtag AS hashtag",
+                            parameters("first", first, "last", last));
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    while (hashtags.hasNext()) {
+                        Record record = hashtags.next();
+                        String hashtag = record.get("hashtag").asString();
+                        String normal = TweetRecord.normalizeHashtag(hashtag);
+                        if (!normal.equals(hashtag)) {
+                            Map<String, Object> row = new HashMap<>();
+                            row.put("id", record.get("id").asLong());
+                            row.put("hashtag", normal);
+                            rows.add(row);
+                        }
+                    }
+                    tx.run("UNWIND $rows AS row "
+                            + "MATCH (old:Hashtag) WHERE id(old) = row.id "
+                            + "MERGE (h:Hashtag {Hashtag: row.hashtag}) "
+                            + "WITH old, h "
+                            + "OPTIONAL MATCH (t:Tweet)-[:HAS_HASHTAG]->(old) "
+                            + "FOREACH (tweet IN CASE WHEN t IS NULL THEN [] ELSE [t] END | MERGE (tweet)-[:HAS_HASHTAG]->(h)) "
+                            + "WITH DISTINCT old "
+                            + "DETACH DELETE old",
+                            parameters("rows", rows)).consume();
+                    return rows.size();
                 }
             });
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
         }
+        System.out.println("Hashtags Normalized: " + normalized);
     }
 
     /**
-     * Merging Hashtag nodes in the database.
+     * Resolving Location nodes through the gazetteer, once the merging passes are done.
+     * Every Location is resolved to its place, window by window of {@link NodeIdWindows}:
+     * the FROM relationships of the nodes of another place move to the node
+     * of the place, its name, country and coordinates set, and the nodes of
+     * empty locations are deleted. Part of the one-off migration: the crawl
+     * writes resolved locations.
      */
-    public final void mergingHashtag() {
+    public final void normalizingLocations() {
+        long normalized = 0;
+        final long[] deleted = new long[1];
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            normalized = NodeIdWindows.walk(session, MIGRATION_WRITES, -1, DEDUP_CHUNK_SIZE, new NodeIdWindows.Handler() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (h:Hashtag) "
-                            + "WITH h.Hashtag as Hashtag, collect(h) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (h in tail(nodes) | DETACH DELETE h) "
-                            + "RETURN 'Hashtag Merged'");
-                    return result.next().get(0).asString();
+                public long handle(final Transaction tx, final long first, final long last) {
+                    StatementResult locations = tx.run(
+                            "UNWIND range($first, $last) AS i "
+                            + "MATCH (l:Location) WHERE id(l) = i "
+                            + "RETURN id(l) AS id, l.Location AS location, l.Latitude AS latitude",
+                            parameters("first", first, "last", last));
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    List<Long> empty = new ArrayList<>();
+                    while (locations.hasNext()) {
+                        Record record = locations.next();
+                        String location = record.get("location").isNull() ? null : record.get("location").asString();
+                        Place place = gazetteer.resolve(location);
+                        if (place == null) {
+                            empty.add(record.get("id").asLong());
+                        } else if (!place.getLocation().equals(location) || (place.isResolved() && record.get("latitude").isNull())) {
+                            Map<String, Object> row = new HashMap<>();
+                            row.put("id", record.get("id").asLong());
+                            row.put("location", place.getLocation());
+                            row.put("name", place.getName());
+                            row.put("country", place.getCountry());
+                            row.put("latitude", place.getLatitude());
+                            row.put("longitude", place.getLongitude());
+                            rows.add(row);
+                        }
+                    }
+                    tx.run("UNWIND $ids AS id "
+                            + "MATCH (old:Location) WHERE id(old) = id "
+                            + "DETACH DELETE old",
+                            parameters("ids", empty)).consume();
+                    tx.run("UNWIND $rows AS row "
+                            + "MATCH (old:Location) WHERE id(old) = row.id "
+                            + "MERGE (l:Location {Location: row.location}) "
+                            + "SET l.Name = row.name, l.Country = row.country, l.Latitude = row.latitude, l.Longitude = row.longitude "
+                            + "WITH old, l "
+                            + "OPTIONAL MATCH (u:User)-[:FROM]->(old) "
+                            + "FOREACH (user IN CASE WHEN u IS NULL OR old = l THEN [] ELSE [u] END | MERGE (user)-[:FROM]->(l)) "
+                            + "WITH DISTINCT old, l WHERE old <> l "
+                            + "DETACH DELETE old",
+                            parameters("rows", rows)).consume();
+                    deleted[0] += empty.size();
+                    return rows.size();
                 }
             });
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
         }
+        System.out.println("Locations Normalized: " + normalized + ", Deleted: " + deleted[0]);
     }
 
     /**
-     * Merging Tweet nodes in the database.
+     * Counting the tweets of a time range with an index range scan.
+     * @param from Start of the range in epoch milliseconds, included.
+     * @param to End of the range in epoch milliseconds, excluded.
+     * @return the number of tweets.
      */
-    public final void mergingTweets() {
+    public final long countTweets(final long from, final long to) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            return session.readTransaction(new TransactionWork<Long>() {
                 @Override
-                public String execute(final Transaction tx) {
+                public Long execute(final Transaction tx) {
                     StatementResult result = tx.run(
                             "MATCH (t:Tweet) "
-                            + "WITH t.TweetID as TweetID, collect(t) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (t in tail(nodes) | DETACH DELETE t) "
-                            + "RETURN 'Tweets Merged'");
-                    return result.next().get(0).asString();
+                            + "WHERE t.TweetTimestamp >= $from AND t.TweetTimestamp < $to "
+                            + "RETURN count(t)",
+                            parameters("from", from, "to", to));
+                    return result.single().get(0).asLong();
                 }
             });
         }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
+    }
+
+    /**
+     * Users having more followers than a threshold, with an index range scan.
+     * @param nbfollowers Threshold of followers, excluded.
+     * @return the UserIDs.
+     */
+    public final List<String> getUsersWithFollowers(final long nbfollowers) {
+        return readIds("MATCH (u:User) WHERE u.NbFollowers > $nbfollowers RETURN u.UserID",
+                parameters("nbfollowers", nbfollowers).asMap());
+    }
+
+    /**
+     * Users with the most followers first.
+     * @param limit Number of users at most.
+     * @return the UserIDs.
+     */
+    public final List<String> getMostFollowedUsers(final long limit) {
+        return readIds("MATCH (u:User) RETURN u.UserID ORDER BY u.NbFollowers DESC LIMIT $limit",
+                parameters("limit", limit).asMap());
+    }
+
+    /**
+     * Most retweeted tweets first, counted from the degree of their RETWEETED relationships.
+     * @param limit Number of tweets at most.
+     * @return the TweetIDs.
+     */
+    public final List<String> getMostRetweetedTweets(final long limit) {
+        return readIds("MATCH (t:Tweet) WITH t, size((t)<-[:RETWEETED]-()) AS retweets WHERE retweets > 0 "
+                + "RETURN t.TweetID ORDER BY retweets DESC LIMIT $limit",
+                parameters("limit", limit).asMap());
+    }
+
+    /**
+     * Hashtags of a day with their number of tweets, the most used first, read from the rollups.
+     * @param dayKey Day as yyyymmdd.
+     * @param limit Number of hashtags at most.
+     * @return the numbers of tweets by Hashtag.
+     */
+    public final Map<String, Long> getTopHashtagsOfDay(final int dayKey, final long limit) {
+        return readCounts("MATCH (:Date {DayKey: $daykey})<-[c:USED_ON]-(h:Hashtag) "
+                + "RETURN h.Hashtag, c.NbTweets ORDER BY c.NbTweets DESC LIMIT $limit",
+                parameters("daykey", dayKey, "limit", limit).asMap());
+    }
+
+    /**
+     * Sources with their number of tweets, the most used first, read from the rollups.
+     * @return the numbers of tweets by Source.
+     */
+    public final Map<String, Long> getTweetsPerSource() {
+        return readCounts("MATCH (s:Source) WHERE s.NbTweets > 0 "
+                + "RETURN s.Source, s.NbTweets ORDER BY s.NbTweets DESC",
+                parameters().asMap());
+    }
+
+    /**
+     * Tweets and retweets of a user per month, read from the rollups.
+     * @param user UserID.
+     * @return the numbers of tweets and retweets by month, as yyyymm.
+     */
+    public final Map<String, Long> getActivityPerMonth(final String user) {
+        return readCounts("MATCH (:User {UserID: $user})-[a:ACTIVE_IN]->(m:Month) "
+                + "RETURN toString(m.MonthKey), a.NbTweets + a.NbRetweets ORDER BY m.MonthKey",
+                parameters("user", user).asMap());
+    }
+
+    /**
+     * Users of a location, resolved through the gazetteer then looked up by the Location key.
+     * @param location Location as typed, "paris" or "Paris, France" finding the users of "Paris, FR".
+     * @return the UserIDs.
+     */
+    public final List<String> getUsersFrom(final String location) {
+        Place place = gazetteer.resolve(location);
+        if (place == null) {
+            return new ArrayList<>();
         }
+        return readIds("MATCH (:Location {Location: $location})<-[:FROM]-(u:User) RETURN u.UserID",
+                parameters("location", place.getLocation()).asMap());
     }
 
     /**
-     * Merging User nodes in the database.
+     * Users of a country, its cities and regions included.
+     * @param country ISO 3166 code of the country.
+     * @return the UserIDs.
      */
-    public final void mergingUsers() {
+    public final List<String> getUsersOfCountry(final String country) {
+        return readIds("MATCH (l:Location {Country: $country})<-[:FROM]-(u:User) RETURN u.UserID",
+                parameters("country", country).asMap());
+    }
+
+    /**
+     * Countries with their number of users, the most frequent first.
+     * @return the numbers of users by ISO 3166 code.
+     */
+    public final Map<String, Long> getUsersPerCountry() {
+        return readCounts("MATCH (l:Location)<-[:FROM]-(u:User) WHERE exists(l.Country) "
+                + "RETURN l.Country AS country, count(u) AS users ORDER BY users DESC",
+                parameters().asMap());
+    }
+
+    /**
+     * Geocalised tweets inside a bounding box.
+     * @param south Smallest latitude.
+     * @param west Smallest longitude.
+     * @param north Largest latitude.
+     * @param east Largest longitude.
+     * @return the TweetIDs.
+     */
+    public final List<String> getTweetsInBox(final double south, final double west, final double north, final double east) {
+        return readIds("MATCH (t:Tweet) "
+                + "WHERE t.TweetLatitude >= $south AND t.TweetLatitude <= $north "
+                + "AND t.TweetLongitude >= $west AND t.TweetLongitude <= $east "
+                + "RETURN t.TweetID",
+                parameters("south", south, "west", west, "north", north, "east", east).asMap());
+    }
+
+    /**
+     * Geocalised tweets within a radius, the bounding box of the circle being scanned first.
+     * @param latitude Latitude of the center.
+     * @param longitude Longitude of the center.
+     * @param radius Radius in meters.
+     * @return the TweetIDs.
+     */
+    public final List<String> getTweetsNear(final double latitude, final double longitude, final double radius) {
+        double dlat = Math.toDegrees(radius / EARTH_RADIUS);
+        double dlon = Math.min(180, dlat / Math.max(Math.cos(Math.toRadians(latitude)), 1e-6));
+        return readIds("MATCH (t:Tweet) "
+                + "WHERE t.TweetLatitude >= $south AND t.TweetLatitude <= $north "
+                + "AND t.TweetLongitude >= $west AND t.TweetLongitude <= $east "
+                + "AND distance(point({latitude: t.TweetLatitude, longitude: t.TweetLongitude}), point({latitude: $latitude, longitude: $longitude})) <= $radius "
+                + "RETURN t.TweetID",
+                parameters("south", latitude - dlat, "north", latitude + dlat, "west", longitude - dlon, "east", longitude + dlon,
+                        "latitude", latitude, "longitude", longitude, "radius", radius).asMap());
+    }
+
+    /**
+     * Running a read query returning one ID per row.
+     * @param statement Read query.
+     * @param params Parameters of the query.
+     * @return the IDs.
+     */
+    private List<String> readIds(final String statement, final Map<String, Object> params) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            return session.readTransaction(new TransactionWork<List<String>>() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (u:User) "
-                            + "WITH u.UserID as UserID, collect(u) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (u in tail(nodes) | DETACH DELETE u) "
-                            + "RETURN 'Users Merged'");
-                    return result.next().get(0).asString();
+                public List<String> execute(final Transaction tx) {
+                    List<String> ids = new ArrayList<>();
+                    StatementResult result = tx.run(statement, params);
+                    while (result.hasNext()) {
+                        ids.add(result.next().get(0).asString());
+                    }
+                    return ids;
                 }
             });
         }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
     }
 
     /**
-     * Merging Date nodes in the database.
+     * Running a read query returning a key and a number per row.
+     * @param statement Read query.
+     * @param params Parameters of the query.
+     * @return the numbers by key, in the order of the rows.
      */
-    public final void mergingDate() {
+    private Map<String, Long> readCounts(final String statement, final Map<String, Object> params) {
         try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
+            return session.readTransaction(new TransactionWork<Map<String, Long>>() {
                 @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (d:Date) "
-                            + "WITH d.Day as Day, d.Month as Month, d.Year as Year, collect(d) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (d in tail(nodes) | DETACH DELETE d) "
-                            + "RETURN 'Date Merged'");
-                    return result.next().get(0).asString();
+                public Map<String, Long> execute(final Transaction tx) {
+                    Map<String, Long> counts = new LinkedHashMap<>();
+                    StatementResult result = tx.run(statement, params);
+                    while (result.hasNext()) {
+                        Record record = result.next();
+                        counts.put(record.get(0).asString(), record.get(1).asLong());
+                    }
+                    return counts;
                 }
             });
         }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
     }
 
     /**
-     * Main application.
-     * @param args arguments.
+     * Crawling the main account, its tweets and its friends with their tweets, resuming the previous crawl.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param sink Destination of users and tweets.
+     * @param gazetteer Gazetteer resolving the locations of the users.
+     * @param checkpoint Progress of the crawl, finished at the end.
+     * @param watermarks Newest TweetID downloaded by UserID, only the newer tweets being downloaded, or null.
      * @throws Exception Exception
      */
-    public static void main(final String... args) throws Exception {
-        try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123")) {
-
-            //App Configuration in order to retrieve data
-            ConfigurationBuilder cb = new ConfigurationBuilder();
-            cb.setDebugEnabled(true)
-                //Tianyuan
-                /*.setOAuthConsumerKey("Ckt54ac8nVyqTMDlW4VALUaOE")
-                .setOAuthConsumerSecret("sOOY3Dkujy0ruJLcMjJ1lA87mbqUgMG3K06GWwjHAEbyRSrmSU")
-                .setOAuthAccessToken("708838056040734722-CZm6LvxAKs1trZMWCgnV6RqhpBTclMr")
-                .setOAuthAccessTokenSecret("b98KWD1Tph2NCFtWhB6jJCQFYcW8OeiqtUXVqme9KRuRl");*/
-                //Alexandre
-                /*.setOAuthConsumerKey("qh7Nt1pGJHGvMt3DqNnjoacAZ")
-                .setOAuthConsumerSecret("xJMhad585jycg4WrU2Oh6AJxQaTEMfKp3Xyn3X6U2p4dRE3InF")
-                .setOAuthAccessToken("966009557372801025-KNpGkpGtSfPOU2iHzQFs9jLneDKA6on")
-                .setOAuthAccessTokenSecret("UfBSEDaSTr5wDMBMweJJNPd3jBCiQr7HsSN3PSB0Utc57");*/
-                //Colin
-                .setOAuthConsumerKey("PrGFy40pU5ucfM15LpS73AU1c")
-                .setOAuthConsumerSecret("hGbNAwIFyPzhm7VTkIrMb09fCd4pR864ekjHPuU5EKqWmedVHQ")
-                .setOAuthAccessToken("965874428692324352-f3QHxWHRvVvZvLrqXknIKTTjfrpZCP7")
-                .setOAuthAccessTokenSecret("zoI08QzLhAkK7fQKvcd8gWVVAOGsd8pIg9BBSxjONHSqu");
-
-            // Connecting to Twitter
-            TwitterFactory tf = new TwitterFactory(cb.build());
-            Twitter twitter = tf.getInstance();
-
-            // Adding indexes in the database
-            bd.addIndexUser();
-            bd.addIndexTweet();
-            bd.addIndexHashtag();
-            bd.addIndexSource();
-            bd.addIndexLocation();
+    static void crawlFriends(final RateLimitedTwitter twitter, final GraphSink sink, final Gazetteer gazetteer, final CrawlCheckpoint checkpoint, final LongLongHashMap watermarks) throws Exception {
+        // Adding User and Location
+        User userEntry = twitter.showUser("EmmanuelMacron");
+        sink.addUser(UserRecord.fromUser(userEntry, gazetteer));
 
-            // Adding User and Location
-            User userEntry = twitter.showUser("EmmanuelMacron");
-            bd.addUserNode(String.valueOf(userEntry.getId()), userEntry.getScreenName(), userEntry.getDescription(), String.valueOf(userEntry.getFriendsCount()), String.valueOf(userEntry.getFollowersCount()), String.valueOf(userEntry.getFavouritesCount()), String.valueOf(userEntry.isVerified()), String.valueOf(userEntry.getLocation()));
-
-            // Adding Main Account Tweets
-            ArrayList<Status> mainaccountstatuses = new ArrayList();
-            Paging mainpaging = new Paging(20);
-            mainaccountstatuses.addAll(twitter.getUserTimeline(userEntry.getScreenName(), mainpaging));
-            for (Status maintweet : mainaccountstatuses) {
-                // Adding only French Tweets
-                if ("fr".equals(maintweet.getLang())) {
-                    // Checking Location
-                    if (maintweet.getGeoLocation() != null) {
-                        bd.addTweetGeocalised(String.valueOf(userEntry.getId()), String.valueOf(getSource(maintweet.getSource())), String.valueOf(maintweet.getId()), String.valueOf(maintweet.getText()), String.valueOf(maintweet.getCreatedAt()), String.valueOf(maintweet.getRetweetCount()), String.valueOf(maintweet.getFavoriteCount()), String.valueOf(maintweet.getGeoLocation().getLatitude()), String.valueOf(maintweet.getGeoLocation().getLongitude()));
-                    } else {
-                        bd.addTweetNotGeocalised(String.valueOf(userEntry.getId()), String.valueOf(getSource(maintweet.getSource())), String.valueOf(maintweet.getId()), String.valueOf(maintweet.getText()), String.valueOf(maintweet.getCreatedAt()), String.valueOf(maintweet.getRetweetCount()), String.valueOf(maintweet.getFavoriteCount()));
+        // Adding Main Account Tweets posted since the last crawl
+        long newest = 0;
+        List<TweetRecord> maintweets = new ArrayList<>();
+        for (Status maintweet : CrawlPipeline.timeline(twitter, userEntry, watermarks)) {
+            newest = Math.max(newest, maintweet.getId());
+            // Adding only French Tweets
+            if ("fr".equals(maintweet.getLang())) {
+                maintweets.add(TweetRecord.fromStatus(String.valueOf(userEntry.getId()), maintweet));
+            }
+        }
+        // The watermark only moves once the tweets are durable
+        final long mainid = userEntry.getId();
+        final long mainnewest = newest;
+        sink.addTweets(maintweets, new Runnable() {
+            @Override
+            public void run() {
+                if (watermarks != null && mainnewest > 0) {
+                    try {
+                        watermarks.putMax(mainid, mainnewest);
+                    }
+                    catch (IOException e) {
+                        System.out.println(e.getMessage());
                     }
-                }
-
-                // ArrayList for hashtags recovering
-                ArrayList<String> hashtags = new ArrayList();
-                for (HashtagEntity hashtag : maintweet.getHashtagEntities()) {
-                    hashtags.add(hashtag.getText());
-                }
-                //Adding HashTag in the NEO4J Base
-                for (String hashtagInTweet : hashtags) {
-                    bd.addHashTag(String.valueOf(maintweet.getId()), hashtagInTweet);
                 }
             }
+        });
 
-            // Variable for NodeEntry for Project Scope
-            long nodeid;
-            nodeid = userEntry.getId();
+        // Variable for NodeEntry for Project Scope
+        long nodeid;
+        nodeid = userEntry.getId();
 
-            //Retrieving friends from a twitter account
+        //Retrieving friends from a twitter account through the crawl pipeline
+        try (CrawlPipeline pipeline = new CrawlPipeline(twitter, sink, gazetteer, String.valueOf(nodeid), Integer.getInteger("aquila.fetchThreads", FETCH_THREADS), Integer.getInteger("aquila.transformThreads", TRANSFORM_THREADS), Integer.getInteger("aquila.writeThreads", WRITE_THREADS), STAGE_QUEUE_CAPACITY, checkpoint, watermarks)) {
+            // Resolving friends 100 at a time
+            UserHydrator hydrator = new UserHydrator(twitter, new UserHydrator.Handler() {
+                @Override
+                public void handle(final User user) throws InterruptedException {
+                    pipeline.submit(user);
+                }
+            });
             IDs ids;
-            long cursor = -1;
-            long compteurid = 0;
+            long cursor = checkpoint.getCursor();
+            int position = checkpoint.getPosition();
             do {
                 ids = twitter.getFriendsIDs("EmmanuelMacron", cursor);
-                for (long id : ids.getIDs()) {
-                    User user = twitter.showUser(id);
-                    if (user.getStatus() != null) {
-                        // Adding User and Location
-                        bd.addUserNode(String.valueOf(user.getId()), user.getScreenName(), user.getDescription(), String.valueOf(user.getFriendsCount()), String.valueOf(user.getFollowersCount()), String.valueOf(user.getFavouritesCount()), String.valueOf(user.isVerified()), String.valueOf(user.getLocation()));
-                        // Adding Friendship with main User
-                        bd.addFriendship(String.valueOf(nodeid), String.valueOf(user.getId()));
-
-                        // Adding Tweets
-                        ArrayList<Status> statuses = new ArrayList();
-                        Paging page = new Paging(20);
-                        statuses.addAll(twitter.getUserTimeline(user.getScreenName(), page));
-                        for (Status tweet : statuses) {
-                            // Adding only French Tweets
-                            if ("fr".equals(tweet.getLang())) {
-                                // Checking Location
-                                if (tweet.getGeoLocation() != null) {
-                                    // Checking Retweet Status
-                                    if (tweet.isRetweet()) {
-                                        bd.addRetweetGeocalised(String.valueOf(user.getId()), String.valueOf(getSource(tweet.getSource())), String.valueOf(tweet.getId()), String.valueOf(tweet.getText()), String.valueOf(tweet.getCreatedAt()), String.valueOf(tweet.getRetweetCount()), String.valueOf(tweet.getFavoriteCount()), String.valueOf(tweet.getGeoLocation().getLatitude()), String.valueOf(tweet.getGeoLocation().getLongitude()));
-                                    } else {
-                                    bd.addTweetGeocalised(String.valueOf(user.getId()), String.valueOf(getSource(tweet.getSource())), String.valueOf(tweet.getId()), String.valueOf(tweet.getText()), String.valueOf(tweet.getCreatedAt()), String.valueOf(tweet.getRetweetCount()), String.valueOf(tweet.getFavoriteCount()), String.valueOf(tweet.getGeoLocation().getLatitude()), String.valueOf(tweet.getGeoLocation().getLongitude()));
-                                    }
-                                } else {
-                                     // Checking Retweet Status
-                                    if (tweet.isRetweet()) {
-                                        bd.addRetweetNotGeocalised(String.valueOf(user.getId()), String.valueOf(getSource(tweet.getSource())), String.valueOf(tweet.getId()), String.valueOf(tweet.getText()), String.valueOf(tweet.getCreatedAt()), String.valueOf(tweet.getRetweetCount()), String.valueOf(tweet.getFavoriteCount()));
-                                    } else {
-                                    bd.addTweetNotGeocalised(String.valueOf(user.getId()), String.valueOf(getSource(tweet.getSource())), String.valueOf(tweet.getId()), String.valueOf(tweet.getText()), String.valueOf(tweet.getCreatedAt()), String.valueOf(tweet.getRetweetCount()), String.valueOf(tweet.getFavoriteCount()));
-                                    }
-                                }
-                            }
-
-                            // ArrayList for hashtags recovering
-                            ArrayList<String> hashtags = new ArrayList();
-                            for (HashtagEntity hashtag : tweet.getHashtagEntities()) {
-                                hashtags.add(hashtag.getText());
-                            }
-                            //Add HashTag in the NEO4J Base
-                            for (String hashtagInTweet : hashtags) {
-                                bd.addHashTag(String.valueOf(tweet.getId()), hashtagInTweet);
-                            }
-                        }
-                        compteurid++;
-                        // Merging Nodes
-                        System.out.println("Ami : " + compteurid);
-                        bd.mergingLocation();
-                        bd.mergingSource();
-                        bd.mergingHashtag();
-                        bd.mergingTweets();
-                        bd.mergingUsers();
-                        bd.mergingDate();
-                        System.out.println("Merging Done");
+                long[] page = ids.getIDs();
+                for (int i = position; i < page.length; i++) {
+                    if (!checkpoint.isCompleted(page[i])) {
+                        // Hydrated even when crawled before, its latest tweet telling whether its timeline changed
+                        hydrator.add(page[i]);
                     }
+                    // The position only moves once every friend before it and their tweets are written
+                    if ((i + 1) % CHECKPOINT_POSITION_STEP == 0 || i + 1 == page.length) {
+                        hydrator.flush();
+                        pipeline.awaitIdle();
+                        sink.flush();
+                        checkpoint.advance(i + 1);
+                    }
+                }
+                position = 0;
+                cursor = ids.getNextCursor();
+                checkpoint.startPage(cursor);
+            } while (cursor != 0);
+            pipeline.close();
+            checkpoint.finish();
+        }
+    }
+
+    /**
+     * Crawling the friends of the main account, and theirs up to aquila.crawlDepth hops.
+     * One hop is the resumable crawl of {@link #crawlFriends}; more hops go
+     * through a {@link FrontierCrawler} expanding the most followed accounts
+     * first, with at most aquila.crawlFanout friends each and a frontier of
+     * aquila.frontierMemory bytes of heap spilling into the checkpoint directory.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param sink Destination of users and tweets.
+     * @param gazetteer Gazetteer resolving the locations of the users.
+     * @param checkpointDir Directory of the checkpoint or of the frontier.
+     * @param name Name of the crawl.
+     * @param watermarks Newest TweetID downloaded by UserID, or null.
+     * @throws Exception Exception
+     */
+    static void crawl(final RateLimitedTwitter twitter, final GraphSink sink, final Gazetteer gazetteer, final File checkpointDir, final String name, final LongLongHashMap watermarks) throws Exception {
+        int depth = Integer.getInteger("aquila.crawlDepth", 1);
+        if (depth <= 1) {
+            try (CrawlCheckpoint checkpoint = openCheckpoint(checkpointDir, name)) {
+                crawlFriends(twitter, sink, gazetteer, checkpoint, watermarks);
+            }
+            return;
+        }
+        User userEntry = twitter.showUser("EmmanuelMacron");
+        try (final CrawlPipeline pipeline = new CrawlPipeline(twitter, sink, gazetteer, String.valueOf(userEntry.getId()), Integer.getInteger("aquila.fetchThreads", FETCH_THREADS), Integer.getInteger("aquila.transformThreads", TRANSFORM_THREADS), Integer.getInteger("aquila.writeThreads", WRITE_THREADS), STAGE_QUEUE_CAPACITY, null, watermarks);
+             CrawlFrontier frontier = new CrawlFrontier(new File(checkpointDir, name + ".frontier"), Long.getLong("aquila.frontierMemory", FrontierCrawler.FRONTIER_MEMORY));
+             LongHashSet visited = new LongHashSet(SEEN_EXPECTED_IDS)) {
+            new FrontierCrawler(twitter, FrontierCrawler.Direction.FRIENDS, depth, Integer.getInteger("aquila.crawlFanout", Integer.MAX_VALUE), frontier, visited, new FrontierCrawler.Writer() {
+                @Override
+                public void addUser(final String account, final User user) throws InterruptedException {
+                    pipeline.submit(account, user);
                 }
-            } while ((cursor = ids.getNextCursor()) != 0);
+
+                @Override
+                public void addRelationship(final String account, final String user) throws IOException {
+                    sink.addFriendship(account, user);
+                }
+
+                @Override
+                public void flush() throws Exception {
+                    pipeline.awaitIdle();
+                    sink.flush();
+                }
+            }).crawl(userEntry);
+        }
+    }
+
+    /**
+     * Checkpoint of a friends crawl.
+     * @param checkpointDir Directory of the checkpoints.
+     * @param name Name of the crawl.
+     * @return the checkpoint.
+     * @throws IOException IO Exception
+     */
+    private static CrawlCheckpoint openCheckpoint(final File checkpointDir, final String name) throws IOException {
+        return new CrawlCheckpoint(checkpointFile(checkpointDir, name), Long.getLong("aquila.checkpointSync", CHECKPOINT_SYNC_INTERVAL));
+    }
+
+    /**
+     * File of the checkpoint of a friends crawl.
+     * @param checkpointDir Directory of the checkpoints.
+     * @param name Name of the crawl.
+     * @return the file, existing while the crawl is unfinished.
+     */
+    private static File checkpointFile(final File checkpointDir, final String name) {
+        return new File(checkpointDir, name + ".checkpoint");
+    }
+
+    /**
+     * Writing the tweets of the most followed users of the database from the filtered status stream, until the JVM stops.
+     * @param checkpointDir Directory of the seen-sets.
+     * @throws Exception Exception
+     */
+    private static void stream(final File checkpointDir) throws Exception {
+        final Thread main = Thread.currentThread();
+        try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123");
+             LongHashSet seenTweets = new LongHashSet(new File(checkpointDir, "tweets.seen"), SEEN_EXPECTED_IDS);
+             GraphSink sink = bd.newGraphSink(bd.newTweetBatchWriter(TWEET_BATCH_SIZE, Long.getLong("aquila.streamFlushInterval", STREAM_FLUSH_INTERVAL), seenTweets));
+             final StreamIngester ingester = StreamIngester.fromCredential(sink, CREDENTIALS[0])) {
+            List<String> users = bd.getMostFollowedUsers(StreamIngester.MAX_FOLLOW);
+            long[] ids = new long[users.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Long.parseLong(users.get(i));
+            }
+            // Closing the stream, the sink and the database before the JVM stops
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    ingester.close();
+                    try {
+                        main.join();
+                    }
+                    catch (InterruptedException e) {
+                        System.out.println(e.getMessage());
+                    }
+                }
+            });
+            ingester.start(ids, System.getProperty("aquila.streamLanguage", "fr"));
+            ingester.await();
+        }
+    }
+
+    /**
+     * Main application.
+     * @param args the command line arguments, "--csv directory" to export CSV files for neo4j-admin import
+     * or "--embedded storeDir" to load an empty store directly, instead of writing to the database,
+     * or "--stream" to write the tweets of the crawled users from the filtered status stream,
+     * or "--migrate" to remove the duplicates and convert the values and locations left by older runs,
+     * or "--rollups" to rebuild the analytics rollups of the database,
+     * or "--graph" to compute the PageRank, components and communities of the users
+     * @throws Exception Exception
+     */
+    public static void main(final String... args) throws Exception {
+        File checkpointDir = new File(System.getProperty("aquila.checkpointDir", "."));
+
+        if (args.length == 1 && "--stream".equals(args[0])) {
+            stream(checkpointDir);
+            return;
+        }
+        if (args.length == 1 && "--migrate".equals(args[0])) {
+            try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123")) {
+                if (bd.migrating()) {
+                    System.out.println("Migrated, the crawl can start");
+                }
+            }
+            return;
+        }
+        if (args.length == 1 && "--rollups".equals(args[0])) {
+            try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123")) {
+                bd.rebuildingRollups();
+            }
+            return;
+        }
+        if (args.length == 1 && "--graph".equals(args[0])) {
+            try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123")) {
+                bd.analyzingGraph();
+            }
+            return;
+        }
+
+        // Connecting to Twitter with every credential, locations resolved by a gazetteer loaded once
+        RateLimitedTwitter twitter = RateLimitedTwitter.fromCredentials(CREDENTIALS);
+        Gazetteer gazetteer = Gazetteer.loadDefault();
+
+        if (args.length == 2 && "--csv".equals(args[0])) {
+            // Continuing the files of an interrupted one-hop export, which its checkpoint resumes
+            boolean resume = Integer.getInteger("aquila.crawlDepth", 1) <= 1 && checkpointFile(checkpointDir, "friends-csv").exists();
+            try (CsvGraphWriter csv = new CsvGraphWriter(new File(args[1]), resume)) {
+                crawl(twitter, csv, gazetteer, checkpointDir, "friends-csv", null);
+                System.out.println(csv.importCommand());
+                System.out.println("Once imported, rebuild the analytics rollups with --rollups");
+            }
+            return;
+        }
+        if (args.length == 2 && "--embedded".equals(args[0])) {
+            // The store is only written when the loader closes, so an interrupted load starts over
+            File stale = checkpointFile(checkpointDir, "friends-embedded");
+            if (stale.exists()) {
+                if (!stale.delete()) {
+                    throw new IOException("Cannot delete " + stale);
+                }
+                String[] left = new File(args[1]).list();
+                if (left != null && left.length > 0) {
+                    throw new IOException("Cannot resume the interrupted load into " + args[1] + ": empty it to start over");
+                }
+            }
+            try (EmbeddedBatchLoader loader = new EmbeddedBatchLoader(new File(args[1]))) {
+                crawl(twitter, loader, gazetteer, checkpointDir, "friends-embedded", null);
+            }
+            System.out.println("Start the database, then rebuild the analytics rollups with --rollups");
+            return;
+        }
+
+        // Timelines and tweets already downloaded by this or an earlier crawl
+        try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123", gazetteer);
+             LongLongHashMap watermarks = new LongLongHashMap(new File(checkpointDir, "timelines.watermarks"), SEEN_EXPECTED_IDS);
+             LongHashSet seenTweets = new LongHashSet(new File(checkpointDir, "tweets.seen"), SEEN_EXPECTED_IDS);
+             GraphSink sink = bd.newGraphSink(bd.newTweetBatchWriter(TWEET_BATCH_SIZE, TWEET_FLUSH_INTERVAL, seenTweets))) {
+
+            // Adding constraints and indexes in the database, the duplicates of older runs being left to --migrate
+            if (!bd.addConstraints()) {
+                throw new IllegalStateException("Duplicates left by an older run block the constraints: run once with --migrate");
+            }
+            bd.addIndexUser();
+            bd.addIndexDate();
+            bd.addIndexGeo();
+            bd.addIndexLocation();
+
+            crawl(twitter, sink, gazetteer, checkpointDir, "friends", watermarks);
         }
     }
-}
\ No newline at end of file
+}
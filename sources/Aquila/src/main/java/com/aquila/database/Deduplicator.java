@@ -0,0 +1,423 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Incremental deduplication of nodes written by the former CREATE statements.
+ * Only the nodes created since the last recorded watermark are considered:
+ * they are read by {@link NodeIdWindows}, and every window is merged and
+ * committed in its own transaction together with the new watermark.
+ * The oldest node of each key survives and takes over the relationships
+ * and properties of its duplicates before they are deleted.
+ * Node ids freed by deletions can be reused by Neo4j after a restart, so a
+ * full pass can be forced with {@link #resetWatermark(Target)}.
+ * @author Aquila
+ */
+public class Deduplicator {
+
+    /**
+     * Relationship attached to a deduplicated label.
+     */
+    public static final class Relationship {
+
+        /**
+         * Relationship type.
+         */
+        private final String type;
+
+        /**
+         * True when the deduplicated node is the start node.
+         */
+        private final boolean outgoing;
+
+        /**
+         * Class Constructor.
+         * @param type Relationship type.
+         * @param outgoing True when the deduplicated node is the start node.
+         */
+        public Relationship(final String type, final boolean outgoing) {
+            this.type = type;
+            this.outgoing = outgoing;
+        }
+
+        /**
+         * Moving the relationships of the duplicates to the surviving node.
+         * @return the statement.
+         */
+        private String rewire() {
+            String pattern;
+            String copy;
+            if (outgoing) {
+                pattern = "(dup)-[r:" + type + "]->(other)";
+                copy = "(keep)-[copy:" + type + "]->(other)";
+            } else {
+                pattern = "(dup)<-[r:" + type + "]-(other)";
+                copy = "(keep)<-[copy:" + type + "]-(other)";
+            }
+            return "UNWIND $pairs AS pair "
+                    + "MATCH (keep) WHERE id(keep) = pair.keep "
+                    + "MATCH " + pattern + " WHERE id(dup) = pair.dup AND id(other) <> pair.keep "
+                    + "MERGE " + copy + " "
+                    + "SET copy += properties(r) "
+                    + "DELETE r";
+        }
+    }
+
+    /**
+     * Label deduplicated on its natural key.
+     */
+    public static final class Target {
+
+        /**
+         * Label of the nodes.
+         */
+        private final String label;
+
+        /**
+         * Properties of the natural key.
+         */
+        private final List<String> keys;
+
+        /**
+         * Relationships to move to the surviving node.
+         */
+        private final List<Relationship> relationships;
+
+        /**
+         * Class Constructor.
+         * @param label Label of the nodes.
+         * @param keys Properties of the natural key.
+         * @param relationships Relationships to move to the surviving node.
+         */
+        public Target(final String label, final List<String> keys, final List<Relationship> relationships) {
+            this.label = label;
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+            this.relationships = Collections.unmodifiableList(new ArrayList<>(relationships));
+        }
+
+        /**
+         * @return Label of the nodes.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Natural key of node n as a list.
+         * @return the expression.
+         */
+        private String keyOf() {
+            StringBuilder key = new StringBuilder("[");
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    key.append(", ");
+                }
+                key.append("n.").append(keys.get(i));
+            }
+            return key.append("]").toString();
+        }
+
+        /**
+         * Matching the nodes of the natural key bound to key.
+         * @return the predicate.
+         */
+        private String matchKey() {
+            StringBuilder match = new StringBuilder();
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    match.append(" AND ");
+                }
+                match.append("n.").append(keys.get(i)).append(" = key[").append(i).append("]");
+            }
+            return match.toString();
+        }
+
+        /**
+         * Index supporting the natural key lookups.
+         * @return the statement.
+         */
+        private String index() {
+            StringBuilder index = new StringBuilder("CREATE INDEX ON :").append(label).append("(");
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) {
+                    index.append(", ");
+                }
+                index.append(keys.get(i));
+            }
+            return index.append(")").toString();
+        }
+    }
+
+    /**
+     * User nodes.
+     */
+    public static final Target USER = new Target("User", Arrays.asList("UserID"), Arrays.asList(
+            new Relationship("FROM", true),
+            new Relationship("TWEETED", true),
+            new Relationship("RETWEETED", true),
+            new Relationship("FRIEND", true),
+            new Relationship("FRIEND", false),
+            new Relationship("FOLLOWS", true),
+            new Relationship("FOLLOWS", false),
+            new Relationship("ACTIVE_IN", true)));
+
+    /**
+     * Location nodes.
+     */
+    public static final Target LOCATION = new Target("Location", Arrays.asList("Location"), Arrays.asList(
+            new Relationship("FROM", false)));
+
+    /**
+     * Tweet nodes.
+     */
+    public static final Target TWEET = new Target("Tweet", Arrays.asList("TweetID"), Arrays.asList(
+            new Relationship("TWEETED", false),
+            new Relationship("RETWEETED", false),
+            new Relationship("HAS_SOURCE", true),
+            new Relationship("DATED_OF", true),
+            new Relationship("HAS_HASHTAG", true)));
+
+    /**
+     * Source nodes.
+     */
+    public static final Target SOURCE = new Target("Source", Arrays.asList("Source"), Arrays.asList(
+            new Relationship("HAS_SOURCE", false)));
+
+    /**
+     * Hashtag nodes.
+     */
+    public static final Target HASHTAG = new Target("Hashtag", Arrays.asList("Hashtag"), Arrays.asList(
+            new Relationship("HAS_HASHTAG", false),
+            new Relationship("USED_ON", true)));
+
+    /**
+     * Year nodes of the time tree.
+     */
+    public static final Target YEAR = new Target("Year", Arrays.asList("Year"), Arrays.asList(
+            new Relationship("HAS_MONTH", true)));
+
+    /**
+     * Month nodes of the time tree.
+     */
+    public static final Target MONTH = new Target("Month", Arrays.asList("MonthKey"), Arrays.asList(
+            new Relationship("HAS_MONTH", false),
+            new Relationship("HAS_DAY", true),
+            new Relationship("ACTIVE_IN", false)));
+
+    /**
+     * Date nodes, the days of the time tree.
+     */
+    public static final Target DATE = new Target("Date", Arrays.asList("DayKey"), Arrays.asList(
+            new Relationship("HAS_DAY", false),
+            new Relationship("DATED_OF", false),
+            new Relationship("USED_ON", false)));
+
+    /**
+     * Every deduplicated label, parents before children.
+     */
+    public static final List<Target> ALL = Collections.unmodifiableList(Arrays.asList(USER, LOCATION, TWEET, SOURCE, HASHTAG, YEAR, MONTH, DATE));
+
+    /**
+     * Statements merging the duplicates of a window.
+     */
+    private static final StageMetrics MERGE_WRITES = CrawlMetrics.stage("cypher.merge_chunk");
+
+    /**
+     * Driver for connection.
+     */
+    private final Driver driver;
+
+    /**
+     * Number of node ids merged per transaction.
+     */
+    private final int chunkSize;
+
+    /**
+     * Class Constructor.
+     * @param driver Driver for connection.
+     * @param chunkSize Number of node ids merged per transaction.
+     */
+    public Deduplicator(final Driver driver, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.driver = driver;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Deduplicating every label.
+     * @return the number of deleted nodes.
+     */
+    public final long deduplicateAll() {
+        long deleted = 0;
+        for (Target target : ALL) {
+            deleted += deduplicate(target);
+        }
+        return deleted;
+    }
+
+    /**
+     * Deduplicating the nodes of a label created since the last watermark.
+     * @param target Label to deduplicate.
+     * @return the number of deleted nodes.
+     */
+    public final long deduplicate(final Target target) {
+        StageMetrics pass = CrawlMetrics.stage("merge." + target.label.toLowerCase(Locale.ROOT));
+        long start = System.nanoTime();
+        addIndex(target);
+        long deleted = 0;
+        try (Session session = driver.session()) {
+            deleted = NodeIdWindows.walk(session, MERGE_WRITES, readWatermark(target), chunkSize, new NodeIdWindows.Handler() {
+                @Override
+                public long handle(final Transaction tx, final long first, final long last) {
+                    StatementResult rows = tx.run(
+                            "UNWIND range($first, $last) AS i "
+                            + "MATCH (n:" + target.label + ") WHERE id(n) = i "
+                            + "RETURN " + target.keyOf() + " AS key",
+                            parameters("first", first, "last", last));
+                    Set<List<Object>> keys = new LinkedHashSet<>();
+                    while (rows.hasNext()) {
+                        List<Object> key = rows.next().get("key").asList();
+                        if (!key.contains(null)) {
+                            keys.add(key);
+                        }
+                    }
+                    long merged = merge(tx, target, new ArrayList<>(keys));
+                    tx.run("MERGE (w:DedupWatermark {Label: $label}) SET w.LastNodeId = $id",
+                            parameters("label", target.label, "id", last)).consume();
+                    return merged;
+                }
+            });
+        }
+        catch (Exception e) {
+            pass.error();
+            System.out.println(e.getMessage());
+        }
+        pass.stop(start);
+        System.out.println(target.label + " Merged: " + deleted);
+        return deleted;
+    }
+
+    /**
+     * Forgetting the watermark of a label, the next pass reads every node.
+     * @param target Label to reset.
+     */
+    public final void resetWatermark(final Target target) {
+        try (Session session = driver.session()) {
+            session.writeTransaction(new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run("MATCH (w:DedupWatermark {Label: $label}) DELETE w",
+                            parameters("label", target.label)).consume();
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Merging the duplicates of the given keys in the current transaction.
+     * @param tx Current transaction.
+     * @param target Label to deduplicate.
+     * @param keys Natural keys seen in the window.
+     * @return the number of deleted nodes.
+     */
+    private long merge(final Transaction tx, final Target target, final List<List<Object>> keys) {
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        StatementResult groups = tx.run(
+                "UNWIND $keys AS key "
+                + "MATCH (n:" + target.label + ") WHERE " + target.matchKey() + " "
+                + "WITH key, n ORDER BY id(n) "
+                + "WITH key, collect(id(n)) AS ids "
+                + "WHERE size(ids) > 1 "
+                + "RETURN head(ids) AS keep, tail(ids) AS dups",
+                parameters("keys", keys));
+        List<Map<String, Object>> pairs = new ArrayList<>();
+        while (groups.hasNext()) {
+            Record group = groups.next();
+            long keep = group.get("keep").asLong();
+            for (Value dup : group.get("dups").values()) {
+                Map<String, Object> pair = new HashMap<>();
+                pair.put("keep", keep);
+                pair.put("dup", dup.asLong());
+                pairs.add(pair);
+            }
+        }
+        if (pairs.isEmpty()) {
+            return 0;
+        }
+        for (Relationship relationship : target.relationships) {
+            tx.run(relationship.rewire(), parameters("pairs", pairs)).consume();
+        }
+        tx.run("UNWIND $pairs AS pair "
+                + "MATCH (keep) WHERE id(keep) = pair.keep "
+                + "MATCH (dup) WHERE id(dup) = pair.dup "
+                + "SET keep += properties(dup) "
+                + "DETACH DELETE dup",
+                parameters("pairs", pairs)).consume();
+        return pairs.size();
+    }
+
+    /**
+     * Reading the watermark of a label.
+     * @param target Deduplicated label.
+     * @return the last merged node id, -1 when none.
+     */
+    private long readWatermark(final Target target) {
+        try (Session session = driver.session()) {
+            return session.readTransaction(new TransactionWork<Long>() {
+                @Override
+                public Long execute(final Transaction tx) {
+                    StatementResult result = tx.run(
+                            "OPTIONAL MATCH (w:DedupWatermark {Label: $label}) "
+                            + "RETURN coalesce(w.LastNodeId, -1)",
+                            parameters("label", target.label));
+                    return result.single().get(0).asLong();
+                }
+            });
+        }
+    }
+
+    /**
+     * Adding the index of the natural key, unless it or a constraint already exists.
+     * @param target Deduplicated label.
+     */
+    private void addIndex(final Target target) {
+        try (Session session = driver.session()) {
+            session.writeTransaction(new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run(target.index()).consume();
+                    return null;
+                }
+            });
+        }
+        catch (Exception e) {
+            // Index or constraint already there
+        }
+    }
+}
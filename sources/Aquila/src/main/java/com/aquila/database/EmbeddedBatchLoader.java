@@ -0,0 +1,333 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Writing the graph straight into a store directory with the BatchInserter.
+ * Meant for initial loads into an empty store, without a running server:
+ * nodes are found through in-memory maps from natural key to node id
+ * instead of index lookups, and the uniqueness constraints of
+ * {@link DataBase#addConstraints()} are created when the loader is closed.
+ * The BatchInserter is not thread safe, so every write is synchronized.
+ * @author Aquila
+ */
+public class EmbeddedBatchLoader implements GraphSink {
+
+    /**
+     * User label.
+     */
+    private static final Label USER = Label.label("User");
+
+    /**
+     * Location label.
+     */
+    private static final Label LOCATION = Label.label("Location");
+
+    /**
+     * Tweet label.
+     */
+    private static final Label TWEET = Label.label("Tweet");
+
+    /**
+     * Source label.
+     */
+    private static final Label SOURCE = Label.label("Source");
+
+    /**
+     * Year label.
+     */
+    private static final Label YEAR = Label.label("Year");
+
+    /**
+     * Month label.
+     */
+    private static final Label MONTH = Label.label("Month");
+
+    /**
+     * Date label.
+     */
+    private static final Label DATE = Label.label("Date");
+
+    /**
+     * Hashtag label.
+     */
+    private static final Label HASHTAG = Label.label("Hashtag");
+
+    /**
+     * Properties of the relationships.
+     */
+    private static final Map<String, Object> NO_PROPERTIES = Collections.emptyMap();
+
+    /**
+     * Store writer.
+     */
+    private final BatchInserter inserter;
+
+    /**
+     * User nodes by UserID.
+     */
+    private final Map<String, Long> users = new HashMap<>();
+
+    /**
+     * Location nodes by Location.
+     */
+    private final Map<String, Long> locations = new HashMap<>();
+
+    /**
+     * Tweet nodes by TweetID.
+     */
+    private final Map<String, Long> tweets = new HashMap<>();
+
+    /**
+     * TweetIDs of the originals loaded through a retweet, not yet linked to their author.
+     */
+    private final Set<String> retweetedOnly = new HashSet<>();
+
+    /**
+     * Source nodes by Source.
+     */
+    private final Map<String, Long> sources = new HashMap<>();
+
+    /**
+     * Year nodes by Year.
+     */
+    private final Map<String, Long> years = new HashMap<>();
+
+    /**
+     * Month nodes by MonthKey.
+     */
+    private final Map<String, Long> months = new HashMap<>();
+
+    /**
+     * Date nodes by DayKey.
+     */
+    private final Map<String, Long> dates = new HashMap<>();
+
+    /**
+     * Hashtag nodes by Hashtag.
+     */
+    private final Map<String, Long> hashtags = new HashMap<>();
+
+    /**
+     * Class Constructor.
+     * @param storeDir Store directory of the database.
+     * @throws IOException IO Exception
+     */
+    public EmbeddedBatchLoader(final File storeDir) throws IOException {
+        inserter = BatchInserters.inserter(storeDir);
+    }
+
+    /**
+     * Node of a natural key, created with its properties when missing.
+     * @param nodes Nodes by natural key.
+     * @param key Natural key.
+     * @param properties Properties of a new node.
+     * @param label Label of a new node.
+     * @return the node id.
+     */
+    private long node(final Map<String, Long> nodes, final String key, final Map<String, Object> properties, final Label label) {
+        Long id = nodes.get(key);
+        if (id == null) {
+            id = inserter.createNode(properties, label);
+            nodes.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Properties without their null values, which the store cannot hold.
+     * @param keysAndValues Alternating names and values.
+     * @return the properties.
+     */
+    private static Map<String, Object> properties(final Object... keysAndValues) {
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (keysAndValues[i + 1] != null) {
+                properties.put((String) keysAndValues[i], keysAndValues[i + 1]);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Adding User Node and its Location.
+     * @param user Parsed Twitter Account.
+     */
+    @Override
+    public final synchronized void addUser(final UserRecord user) {
+        Map<String, Object> properties = properties("UserID", user.getUserID(), "Username", user.getUsername(), "Description", user.getDescription(), "NbFriends", user.getNbfriends(), "NbFollowers", user.getNbfollowers(), "NbFavoritesUser", user.getNbfavorites(), "Verified", user.getVerified());
+        Long existing = users.get(user.getUserID());
+        if (existing != null) {
+            inserter.setNodeProperties(existing, properties);
+            return;
+        }
+        long userNode = node(users, user.getUserID(), properties, USER);
+        Place place = user.getPlace();
+        if (place != null) {
+            long locationNode = node(locations, place.getLocation(), properties("Location", place.getLocation(), "Name", place.getName(), "Country", place.getCountry(), "Latitude", place.getLatitude(), "Longitude", place.getLongitude()), LOCATION);
+            inserter.createRelationship(userNode, locationNode, RelationshipType.withName("FROM"), NO_PROPERTIES);
+        }
+    }
+
+    /**
+     * Adding Friendship.
+     * @param mainaccount Twitter Main Account.
+     * @param user Friend ID.
+     */
+    @Override
+    public final synchronized void addFriendship(final String mainaccount, final String user) {
+        relate(user, mainaccount, "FRIEND");
+    }
+
+    /**
+     * Adding Following relationship between users.
+     * @param mainaccount Main user Twitter Account.
+     * @param user User Twitter Account.
+     */
+    @Override
+    public final synchronized void addFollowing(final String mainaccount, final String user) {
+        relate(user, mainaccount, "FOLLOWS");
+    }
+
+    /**
+     * Relating two users already loaded, like the MATCH of the Bolt writes.
+     * @param from Start UserID.
+     * @param to End UserID.
+     * @param type Relationship type.
+     */
+    private void relate(final String from, final String to, final String type) {
+        Long fromNode = users.get(from);
+        Long toNode = users.get(to);
+        if (fromNode != null && toNode != null) {
+            inserter.createRelationship(fromNode, toNode, RelationshipType.withName(type), NO_PROPERTIES);
+        }
+    }
+
+    /**
+     * Date node of a day, created with its Year and Month nodes when missing.
+     * @param dayKey Day as yyyymmdd.
+     * @return the node id.
+     */
+    private long day(final int dayKey) {
+        Long dateNode = dates.get(String.valueOf(dayKey));
+        if (dateNode != null) {
+            return dateNode;
+        }
+        int monthKey = dayKey / 100;
+        int year = dayKey / 10000;
+        Long monthNode = months.get(String.valueOf(monthKey));
+        if (monthNode == null) {
+            long yearNode = node(years, String.valueOf(year), properties("Year", year), YEAR);
+            monthNode = node(months, String.valueOf(monthKey), properties("MonthKey", monthKey, "Year", year, "Month", monthKey % 100), MONTH);
+            inserter.createRelationship(yearNode, monthNode, RelationshipType.withName("HAS_MONTH"), NO_PROPERTIES);
+        }
+        dateNode = node(dates, String.valueOf(dayKey), properties("DayKey", dayKey, "Year", year, "Month", monthKey % 100, "Day", dayKey % 100), DATE);
+        inserter.createRelationship(monthNode, dateNode, RelationshipType.withName("HAS_DAY"), NO_PROPERTIES);
+        return dateNode;
+    }
+
+    /**
+     * Adding Tweet or Retweet with its Source, Date and Hashtags.
+     * The original of a retweet is loaded with its first retweet, and the
+     * tweet of an unknown author is skipped.
+     * @param tweet Parsed tweet.
+     */
+    @Override
+    public final synchronized void addTweet(final TweetRecord tweet) {
+        Long userNode = users.get(tweet.getUser());
+        if (userNode == null) {
+            return;
+        }
+        Long tweetNode = tweets.get(tweet.getTweetid());
+        if (tweet.isRetweet()) {
+            if (tweetNode == null) {
+                tweetNode = addTweetNode(tweet);
+                retweetedOnly.add(tweet.getTweetid());
+            }
+            inserter.createRelationship(userNode, tweetNode, RelationshipType.withName("RETWEETED"), properties("RetweetID", tweet.getRetweetid(), "RetweetTimestamp", tweet.getRetweettimestamp()));
+        } else if (tweetNode == null || retweetedOnly.remove(tweet.getTweetid())) {
+            if (tweetNode == null) {
+                tweetNode = addTweetNode(tweet);
+            }
+            inserter.createRelationship(userNode, tweetNode, RelationshipType.withName("TWEETED"), NO_PROPERTIES);
+        }
+    }
+
+    /**
+     * Loading a Tweet node with its Source, Date and Hashtags.
+     * @param tweet Parsed tweet.
+     * @return the node id of the tweet.
+     */
+    private long addTweetNode(final TweetRecord tweet) {
+        long tweetNode = node(tweets, tweet.getTweetid(), properties("TweetID", tweet.getTweetid(), "TweetContent", tweet.getTweetcontent(), "TweetDate", tweet.getTweetdate(), "TweetTimestamp", tweet.getTweettimestamp(), "NbRetweets", tweet.getNbretweets(), "NbFavorites", tweet.getNbfavorites(), "TweetLatitude", tweet.getTweetlatitude(), "TweetLongitude", tweet.getTweetlongitude()), TWEET);
+        long sourceNode = node(sources, tweet.getSource(), properties("Source", tweet.getSource()), SOURCE);
+        inserter.createRelationship(tweetNode, sourceNode, RelationshipType.withName("HAS_SOURCE"), NO_PROPERTIES);
+        inserter.createRelationship(tweetNode, day(tweet.getDayKey()), RelationshipType.withName("DATED_OF"), NO_PROPERTIES);
+        for (String hashtag : tweet.getHashtags()) {
+            long hashtagNode = node(hashtags, hashtag, properties("Hashtag", hashtag), HASHTAG);
+            inserter.createRelationship(tweetNode, hashtagNode, RelationshipType.withName("HAS_HASHTAG"), NO_PROPERTIES);
+        }
+        return tweetNode;
+    }
+
+    /**
+     * Adding tweets. The store is only consistent once the loader is closed,
+     * so the task runs at once and an interrupted load has to start over.
+     * @param records Parsed tweets.
+     * @param written Task run at once.
+     */
+    @Override
+    public final synchronized void addTweets(final List<TweetRecord> records, final Runnable written) {
+        for (TweetRecord tweet : records) {
+            addTweet(tweet);
+        }
+        written.run();
+    }
+
+    /**
+     * Nothing to flush: the store is only consistent once the loader is
+     * closed, so a load cannot be resumed, an interrupted one starting over
+     * into an emptied store.
+     */
+    @Override
+    public final void flush() {
+    }
+
+    /**
+     * Override Closing loader, creating the constraints and flushing the store.
+     */
+    @Override
+    public final synchronized void close() {
+        inserter.createDeferredConstraint(USER).assertPropertyIsUnique("UserID").create();
+        inserter.createDeferredConstraint(TWEET).assertPropertyIsUnique("TweetID").create();
+        inserter.createDeferredConstraint(HASHTAG).assertPropertyIsUnique("Hashtag").create();
+        inserter.createDeferredConstraint(SOURCE).assertPropertyIsUnique("Source").create();
+        inserter.createDeferredConstraint(LOCATION).assertPropertyIsUnique("Location").create();
+        inserter.createDeferredConstraint(YEAR).assertPropertyIsUnique("Year").create();
+        inserter.createDeferredConstraint(MONTH).assertPropertyIsUnique("MonthKey").create();
+        inserter.createDeferredConstraint(DATE).assertPropertyIsUnique("DayKey").create();
+        inserter.createDeferredSchemaIndex(USER).on("Username").create();
+        inserter.createDeferredSchemaIndex(TWEET).on("TweetTimestamp").create();
+        inserter.createDeferredSchemaIndex(USER).on("NbFollowers").create();
+        inserter.createDeferredSchemaIndex(TWEET).on("TweetLatitude").create();
+        inserter.createDeferredSchemaIndex(TWEET).on("TweetLongitude").create();
+        inserter.createDeferredSchemaIndex(LOCATION).on("Country").create();
+        inserter.shutdown();
+    }
+}
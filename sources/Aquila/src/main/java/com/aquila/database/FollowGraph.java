@@ -0,0 +1,168 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+
+/**
+ * In-memory snapshot of who follows whom among the User nodes.
+ * A user follows the users it is FRIEND of, (friend)-[:FRIEND]->(main),
+ * and the followed end of its FOLLOWS, (follower)-[:FOLLOWS]->(main).
+ * Users are numbered from 0 in the order of the scan; their node ids and
+ * UserIDs are kept in primitive arrays, and the edges in a compressed
+ * adjacency per direction, built from the streamed relationships without
+ * holding any record.
+ * @author Aquila
+ */
+public final class FollowGraph {
+
+    /**
+     * Users numbered by default before the first growth.
+     */
+    private static final int INITIAL_USERS = 1 << 16;
+
+    /**
+     * Edges buffered by default before the first growth.
+     */
+    private static final int INITIAL_EDGES = 1 << 20;
+
+    /**
+     * Node id of every user.
+     */
+    private final long[] nodeIds;
+
+    /**
+     * UserID of every user.
+     */
+    private final long[] userIds;
+
+    /**
+     * Users followed by every user.
+     */
+    private final CompressedAdjacency following;
+
+    /**
+     * Followers of every user.
+     */
+    private final CompressedAdjacency followers;
+
+    /**
+     * Class Constructor.
+     * @param nodeIds Node id of every user.
+     * @param userIds UserID of every user.
+     * @param following Users followed by every user.
+     * @param followers Followers of every user.
+     */
+    FollowGraph(final long[] nodeIds, final long[] userIds, final CompressedAdjacency following, final CompressedAdjacency followers) {
+        this.nodeIds = nodeIds;
+        this.userIds = userIds;
+        this.following = following;
+        this.followers = followers;
+    }
+
+    /**
+     * Loading the graph of the User nodes and their FRIEND and FOLLOWS relationships.
+     * @param driver Driver for connection.
+     * @return the graph.
+     * @throws IOException IO Exception
+     */
+    public static FollowGraph load(final Driver driver) throws IOException {
+        long start = System.currentTimeMillis();
+        try (Session session = driver.session();
+             LongLongHashMap numbers = new LongLongHashMap(INITIAL_USERS)) {
+            long[] nodeIds = new long[INITIAL_USERS];
+            long[] userIds = new long[INITIAL_USERS];
+            int nodeCount = 0;
+            StatementResult users = session.run("MATCH (u:User) RETURN id(u), u.UserID");
+            while (users.hasNext()) {
+                Record record = users.next();
+                if (nodeCount == nodeIds.length) {
+                    nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+                    userIds = Arrays.copyOf(userIds, nodeCount * 2);
+                }
+                nodeIds[nodeCount] = record.get(0).asLong();
+                userIds[nodeCount] = record.get(1).isNull() ? -1 : Long.parseLong(record.get(1).asString());
+                // Numbers are stored plus one, 0 meaning missing
+                numbers.putMax(nodeIds[nodeCount], ++nodeCount);
+            }
+            int[] starts = new int[INITIAL_EDGES];
+            int[] ends = new int[INITIAL_EDGES];
+            int edgeCount = 0;
+            for (String statement : new String[] {
+                "MATCH (a:User)-[:FOLLOWS]->(b:User) RETURN id(a), id(b)",
+                "MATCH (a:User)<-[:FRIEND]-(b:User) RETURN id(a), id(b)"}) {
+                StatementResult edges = session.run(statement);
+                while (edges.hasNext()) {
+                    Record record = edges.next();
+                    int follower = (int) numbers.get(record.get(0).asLong()) - 1;
+                    int followed = (int) numbers.get(record.get(1).asLong()) - 1;
+                    if (follower < 0 || followed < 0 || follower == followed) {
+                        continue;
+                    }
+                    if (edgeCount == starts.length) {
+                        if (edgeCount == Integer.MAX_VALUE - 8) {
+                            throw new IllegalStateException("Too many edges: " + edgeCount);
+                        }
+                        int grown = (int) Math.min(Integer.MAX_VALUE - 8, (long) edgeCount * 3 / 2);
+                        starts = Arrays.copyOf(starts, grown);
+                        ends = Arrays.copyOf(ends, grown);
+                    }
+                    starts[edgeCount] = follower;
+                    ends[edgeCount] = followed;
+                    edgeCount++;
+                }
+            }
+            CompressedAdjacency following = CompressedAdjacency.build(nodeCount, starts, ends, edgeCount);
+            CompressedAdjacency followers = CompressedAdjacency.build(nodeCount, ends, starts, edgeCount);
+            FollowGraph graph = new FollowGraph(Arrays.copyOf(nodeIds, nodeCount), Arrays.copyOf(userIds, nodeCount), following, followers);
+            System.out.println("Follow Graph Loaded: " + nodeCount + " users, " + following.getEdgeCount() + " edges, "
+                    + (following.getSizeInBytes() + followers.getSizeInBytes()) / 1024 + " KB of adjacency in " + (System.currentTimeMillis() - start) + " ms");
+            return graph;
+        }
+    }
+
+    /**
+     * @return the number of users.
+     */
+    public int getNodeCount() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @param node User number.
+     * @return the node id of the user.
+     */
+    public long getNodeId(final int node) {
+        return nodeIds[node];
+    }
+
+    /**
+     * @param node User number.
+     * @return the UserID of the user, -1 when it has none.
+     */
+    public long getUserId(final int node) {
+        return userIds[node];
+    }
+
+    /**
+     * @return the users followed by every user.
+     */
+    public CompressedAdjacency getFollowing() {
+        return following;
+    }
+
+    /**
+     * @return the followers of every user.
+     */
+    public CompressedAdjacency getFollowers() {
+        return followers;
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import twitter4j.IDs;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Crawler of the accounts up to a number of hops from a seed account.
+ * The crawl expands one account at a time, listing its friends or its
+ * followers: the ones never visited are hydrated, written and, when they
+ * are not on the last hop, added to the frontier; the others only get the
+ * relationship. The frontier hands out the account of highest priority
+ * first, so the quota of the ID listings, the scarcest of the API, goes to
+ * popular, verified accounts close to the seed. Visited UserIDs are kept
+ * off the heap and the frontier spills to disk past its memory budget.
+ * @author Aquila
+ */
+public class FrontierCrawler {
+
+    /**
+     * Relationship followed from an account to its neighbours.
+     */
+    public enum Direction {
+        /**
+         * The accounts it follows, friends/ids.
+         */
+        FRIENDS,
+        /**
+         * The accounts following it, followers/ids.
+         */
+        FOLLOWERS
+    }
+
+    /**
+     * Receiver of the crawled accounts.
+     */
+    public interface Writer {
+
+        /**
+         * Writing a new account and its relationship.
+         * @param account UserID of the expanded account, null for the seed.
+         * @param user Hydrated neighbour with at least one tweet.
+         * @throws Exception Exception
+         */
+        void addUser(String account, User user) throws Exception;
+
+        /**
+         * Writing the relationship to an account visited before.
+         * @param account UserID of the expanded account.
+         * @param user UserID of the neighbour.
+         * @throws Exception Exception
+         */
+        void addRelationship(String account, String user) throws Exception;
+
+        /**
+         * Waiting until every account handed over is written.
+         * @throws Exception Exception
+         */
+        void flush() throws Exception;
+    }
+
+    /**
+     * Heap bytes of the frontier by default, 64 MB.
+     */
+    public static final long FRONTIER_MEMORY = 64L << 20;
+
+    /**
+     * Priority of a verified account over an unverified one, in powers of ten of followers.
+     */
+    private static final double VERIFIED_WEIGHT = 1;
+
+    /**
+     * Priority lost per hop from the seed, in powers of ten of followers.
+     */
+    private static final double DEPTH_WEIGHT = 1;
+
+    /**
+     * Twitter API behind its rate limit scheduler.
+     */
+    private final RateLimitedTwitter twitter;
+
+    /**
+     * Relationship followed.
+     */
+    private final Direction direction;
+
+    /**
+     * Number of hops from the seed of the last accounts written.
+     */
+    private final int maxDepth;
+
+    /**
+     * Neighbours listed per expanded account at most.
+     */
+    private final int fanout;
+
+    /**
+     * Accounts waiting to be expanded.
+     */
+    private final CrawlFrontier frontier;
+
+    /**
+     * UserIDs met so far.
+     */
+    private final LongHashSet visited;
+
+    /**
+     * Receiver of the crawled accounts.
+     */
+    private final Writer writer;
+
+    /**
+     * Number of accounts expanded.
+     */
+    private long expanded;
+
+    /**
+     * Class Constructor.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param direction Relationship followed.
+     * @param maxDepth Number of hops from the seed of the last accounts written, at least 1.
+     * @param fanout Neighbours listed per expanded account at most.
+     * @param frontier Accounts waiting to be expanded, empty.
+     * @param visited UserIDs met so far, empty.
+     * @param writer Receiver of the crawled accounts.
+     */
+    public FrontierCrawler(final RateLimitedTwitter twitter, final Direction direction, final int maxDepth, final int fanout, final CrawlFrontier frontier, final LongHashSet visited, final Writer writer) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + maxDepth);
+        }
+        this.twitter = twitter;
+        this.direction = direction;
+        this.maxDepth = maxDepth;
+        this.fanout = fanout;
+        this.frontier = frontier;
+        this.visited = visited;
+        this.writer = writer;
+    }
+
+    /**
+     * Priority of an account: its followers in powers of ten, more for a verified account, less per hop.
+     * @param user Hydrated account.
+     * @param depth Number of hops from the seed.
+     * @return the priority.
+     */
+    static double priority(final User user, final int depth) {
+        return Math.log10(1 + Math.max(0, user.getFollowersCount())) + (user.isVerified() ? VERIFIED_WEIGHT : 0) - DEPTH_WEIGHT * depth;
+    }
+
+    /**
+     * Crawling from a seed until the frontier is empty.
+     * @param seed Seed account.
+     * @throws Exception Exception
+     */
+    public final void crawl(final User seed) throws Exception {
+        if (visited.add(seed.getId())) {
+            writer.addUser(null, seed);
+        }
+        frontier.add(seed.getId(), 0, Double.POSITIVE_INFINITY);
+        CrawlFrontier.Entry entry;
+        while ((entry = frontier.poll()) != null) {
+            try {
+                expand(entry);
+            }
+            catch (TwitterException e) {
+                // Protected or deleted account, its neighbours stay unknown
+                System.out.println(e.getMessage());
+            }
+            expanded++;
+            System.out.println("Expanded " + expanded + " at depth " + entry.getDepth() + ", frontier " + frontier.size() + " (" + frontier.getSpilled() + " on disk), visited " + visited.size());
+        }
+    }
+
+    /**
+     * Listing the neighbours of an account, writing them and queueing the new ones.
+     * @param entry Account to expand.
+     * @throws Exception Exception
+     */
+    private void expand(final CrawlFrontier.Entry entry) throws Exception {
+        final String account = String.valueOf(entry.getId());
+        final int depth = entry.getDepth() + 1;
+        UserHydrator hydrator = new UserHydrator(twitter, new UserHydrator.Handler() {
+            @Override
+            public void handle(final User user) throws Exception {
+                writer.addUser(account, user);
+                if (depth < maxDepth) {
+                    frontier.add(user.getId(), depth, priority(user, depth));
+                }
+            }
+        });
+        List<String> known = new ArrayList<>();
+        long listed = 0;
+        long cursor = -1;
+        do {
+            IDs ids = direction == Direction.FRIENDS ? twitter.getFriendsIDs(entry.getId(), cursor) : twitter.getFollowersIDs(entry.getId(), cursor);
+            for (long id : ids.getIDs()) {
+                if (listed == fanout) {
+                    break;
+                }
+                listed++;
+                if (visited.add(id)) {
+                    hydrator.add(id);
+                } else {
+                    known.add(String.valueOf(id));
+                }
+            }
+            hydrator.flush();
+            // The accounts met before may still be on their way to the sink
+            writer.flush();
+            for (String user : known) {
+                writer.addRelationship(account, user);
+            }
+            known.clear();
+            cursor = ids.getNextCursor();
+        } while (cursor != 0 && listed < fanout);
+        writer.flush();
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Offline gazetteer resolving the free-text locations of the accounts to places.
+ * The places are read from a tab-separated file of kind, name, ISO 3166
+ * country code, latitude, longitude and aliases separated by semicolons,
+ * the bundled gazetteer.tsv unless the aquila.gazetteer system property
+ * names another file. Names, aliases and locations are cleaned the same way:
+ * accents, case, emoji and punctuation removed, slashes and the like read as
+ * commas. The words of a location are then matched against the aliases,
+ * longest phrase first; a city or region in a country also named, through
+ * one of its regions or as a flag, wins over the other matches, then the first city or region,
+ * then the first country. A location matching nothing keeps its cleaned
+ * text, and an empty one has no place. Every distinct text is resolved once,
+ * the places being kept in an LRU cache of aquila.locationCache entries.
+ * The entry points load the gazetteer once and hand it to the code parsing
+ * users, a gazetteer that cannot be read stopping them before any write.
+ * @author Aquila
+ */
+public final class Gazetteer {
+
+    /**
+     * Gazetteer bundled next to the class.
+     */
+    private static final String RESOURCE = "gazetteer.tsv";
+
+    /**
+     * Resolved locations kept by default.
+     */
+    private static final int LOCATION_CACHE_SIZE = 100000;
+
+    /**
+     * First regional indicator symbol, the letter A of the flags.
+     */
+    private static final int REGIONAL_A = 0x1F1E6;
+
+    /**
+     * Last regional indicator symbol, the letter Z of the flags.
+     */
+    private static final int REGIONAL_Z = 0x1F1FF;
+
+    /**
+     * Combining marks left by the decomposition of accented letters.
+     */
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Characters separating places like commas.
+     */
+    private static final Pattern SEPARATORS = Pattern.compile("[/|;•·]+");
+
+    /**
+     * Characters neither letter, digit nor comma.
+     */
+    private static final Pattern SYMBOLS = Pattern.compile("[^\\p{L}\\p{N},]+");
+
+    /**
+     * Cleaned texts meaning no location.
+     */
+    private static final Set<String> NOWHERE = new HashSet<>(Arrays.asList("null", "none", "n a", "nowhere", "unknown"));
+
+    /**
+     * Places by cleaned alias, the first ones listed first.
+     */
+    private final Map<String, List<Place>> aliases;
+
+    /**
+     * Countries by ISO 3166 code.
+     */
+    private final Map<String, Place> countries;
+
+    /**
+     * Largest number of words of an alias.
+     */
+    private final int maxWords;
+
+    /**
+     * Places by raw location, the least recently used evicted first, guarded by itself.
+     */
+    private final Map<String, Place> memo;
+
+    /**
+     * Class Constructor.
+     * @param aliases Places by cleaned alias, the first ones listed first.
+     * @param countries Countries by ISO 3166 code.
+     * @param maxWords Largest number of words of an alias.
+     * @param cacheSize Resolved locations kept.
+     */
+    private Gazetteer(final Map<String, List<Place>> aliases, final Map<String, Place> countries, final int maxWords, final int cacheSize) {
+        this.aliases = aliases;
+        this.countries = countries;
+        this.maxWords = maxWords;
+        this.memo = new LinkedHashMap<String, Place>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Place> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Loading the gazetteer of the aquila.gazetteer file or the bundled one.
+     * @return the gazetteer.
+     * @throws IOException when the gazetteer cannot be read or is malformed
+     */
+    public static Gazetteer loadDefault() throws IOException {
+        int cacheSize = Integer.getInteger("aquila.locationCache", LOCATION_CACHE_SIZE);
+        String path = System.getProperty("aquila.gazetteer");
+        try (InputStream in = path != null ? new FileInputStream(path) : Gazetteer.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Missing gazetteer " + RESOURCE);
+            }
+            return load(new InputStreamReader(in, StandardCharsets.UTF_8), cacheSize);
+        }
+        catch (IOException e) {
+            throw new IOException("Cannot load gazetteer " + (path != null ? path : RESOURCE) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reading a gazetteer.
+     * @param reader Tab-separated places, lines starting with # ignored.
+     * @param cacheSize Resolved locations kept.
+     * @return the gazetteer.
+     * @throws IOException IO Exception or malformed line
+     */
+    public static Gazetteer load(final Reader reader, final int cacheSize) throws IOException {
+        Map<String, List<Place>> aliases = new HashMap<>();
+        Map<String, Place> countries = new HashMap<>();
+        int maxWords = 0;
+        BufferedReader lines = new BufferedReader(reader);
+        int number = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length < 5) {
+                throw new IOException("Malformed gazetteer line " + number + ": " + line);
+            }
+            String kind = fields[0];
+            String name = fields[1];
+            String country = fields[2];
+            Place place;
+            try {
+                place = new Place(Place.COUNTRY.equals(kind) ? name : name + ", " + country, kind, name, country,
+                        Double.valueOf(fields[3]), Double.valueOf(fields[4]));
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Malformed gazetteer line " + number + ": " + line);
+            }
+            if (Place.COUNTRY.equals(kind)) {
+                countries.put(country, place);
+            }
+            List<String> names = new ArrayList<>();
+            names.add(name);
+            if (fields.length > 5) {
+                names.addAll(Arrays.asList(fields[5].split(";")));
+            }
+            for (String alias : names) {
+                String cleaned = clean(alias).replace(", ", " ");
+                if (cleaned.isEmpty()) {
+                    continue;
+                }
+                List<Place> places = aliases.get(cleaned);
+                if (places == null) {
+                    places = new ArrayList<>(1);
+                    aliases.put(cleaned, places);
+                }
+                if (!places.contains(place)) {
+                    places.add(place);
+                }
+                maxWords = Math.max(maxWords, cleaned.split(" ").length);
+            }
+        }
+        System.out.println("Gazetteer Loaded: " + countries.size() + " countries, " + aliases.size() + " aliases");
+        return new Gazetteer(aliases, countries, maxWords, cacheSize);
+    }
+
+    /**
+     * Cleaning a location: accents, case, emoji and punctuation removed,
+     * places separated by ", ", words by one space.
+     * @param raw Location.
+     * @return the cleaned location, empty when nothing is left.
+     */
+    public static String clean(final String raw) {
+        String text = Normalizer.normalize(raw, Normalizer.Form.NFKD);
+        text = MARKS.matcher(text).replaceAll("").toLowerCase(Locale.ROOT);
+        text = SEPARATORS.matcher(text).replaceAll(",");
+        text = SYMBOLS.matcher(text).replaceAll(" ");
+        StringBuilder cleaned = new StringBuilder();
+        for (String part : text.split(",")) {
+            String words = part.trim();
+            if (!words.isEmpty()) {
+                if (cleaned.length() > 0) {
+                    cleaned.append(", ");
+                }
+                cleaned.append(words);
+            }
+        }
+        return cleaned.toString();
+    }
+
+    /**
+     * Countries shown as flags, pairs of regional indicator symbols.
+     * @param raw Location.
+     * @return the ISO 3166 codes of the flags.
+     */
+    private static List<String> flags(final String raw) {
+        List<String> codes = new ArrayList<>(0);
+        int previous = -1;
+        for (int i = 0; i < raw.length(); i += Character.charCount(raw.codePointAt(i))) {
+            int c = raw.codePointAt(i);
+            if (c < REGIONAL_A || c > REGIONAL_Z) {
+                previous = -1;
+            } else if (previous < 0) {
+                previous = c;
+            } else {
+                codes.add(new String(new char[] {(char) ('A' + previous - REGIONAL_A), (char) ('A' + c - REGIONAL_A)}));
+                previous = -1;
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Resolving a location, once per distinct text.
+     * @param raw Location of Twitter Account, possibly null.
+     * @return the place, null when the location is empty.
+     */
+    public Place resolve(final String raw) {
+        if (raw == null) {
+            return null;
+        }
+        synchronized (memo) {
+            if (memo.containsKey(raw)) {
+                return memo.get(raw);
+            }
+        }
+        Place place = lookup(raw);
+        synchronized (memo) {
+            memo.put(raw, place);
+        }
+        return place;
+    }
+
+    /**
+     * Resolving a location against the aliases.
+     * @param raw Location.
+     * @return the place, null when the location is empty.
+     */
+    private Place lookup(final String raw) {
+        String cleaned = clean(raw);
+        List<String> flags = flags(raw);
+        if (NOWHERE.contains(cleaned.replace(",", ""))) {
+            cleaned = "";
+        }
+        List<List<Place>> matches = new ArrayList<>();
+        for (String part : cleaned.split(", ")) {
+            String[] words = part.isEmpty() ? new String[0] : part.split(" ");
+            int i = 0;
+            while (i < words.length) {
+                int length = Math.min(maxWords, words.length - i);
+                for (; length > 0; length--) {
+                    List<Place> places = aliases.get(join(words, i, length));
+                    if (places != null) {
+                        matches.add(places);
+                        break;
+                    }
+                }
+                i += Math.max(length, 1);
+            }
+        }
+        Set<String> named = new HashSet<>(flags);
+        for (List<Place> places : matches) {
+            for (Place place : places) {
+                if (!Place.CITY.equals(place.getKind())) {
+                    named.add(place.getCountry());
+                }
+            }
+        }
+        Place first = null;
+        for (List<Place> places : matches) {
+            for (Place place : places) {
+                if (!Place.COUNTRY.equals(place.getKind())) {
+                    if (named.contains(place.getCountry())) {
+                        return place;
+                    }
+                    if (first == null) {
+                        first = place;
+                    }
+                }
+            }
+        }
+        if (first != null) {
+            return first;
+        }
+        for (List<Place> places : matches) {
+            for (Place place : places) {
+                if (Place.COUNTRY.equals(place.getKind())) {
+                    return place;
+                }
+            }
+        }
+        for (String flag : flags) {
+            if (countries.containsKey(flag)) {
+                return countries.get(flag);
+            }
+        }
+        return cleaned.isEmpty() ? null : Place.unresolved(cleaned);
+    }
+
+    /**
+     * Joining words with spaces.
+     * @param words Words.
+     * @param from First word joined.
+     * @param length Number of words joined.
+     * @return the phrase.
+     */
+    private static String join(final String[] words, final int from, final int length) {
+        StringBuilder phrase = new StringBuilder(words[from]);
+        for (int i = from + 1; i < from + length; i++) {
+            phrase.append(' ').append(words[i]);
+        }
+        return phrase.toString();
+    }
+
+    /**
+     * @return the number of resolved locations kept.
+     */
+    public int getCacheSize() {
+        synchronized (memo) {
+            return memo.size();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Graph algorithms run on a {@link FollowGraph} in parallel.
+ * Every iteration splits the users into ranges handled by the tasks of a
+ * fork-join pool, each range writing only its own slice of the values,
+ * so no lock is needed. PageRank pulls the rank
+ * of the followers of every user, connected components propagate the
+ * smallest user number through the edges in both directions, and label
+ * propagation gives every user the most frequent community of its
+ * neighbours. Results are written back as User properties in batches.
+ * @author Aquila
+ */
+public class GraphAnalytics {
+
+    /**
+     * Users per task at most.
+     */
+    private static final int GRAIN = 4096;
+
+    /**
+     * Users written back per transaction.
+     */
+    private static final int WRITE_BATCH = 10000;
+
+    /**
+     * Probability of following an edge in PageRank.
+     */
+    private static final double DAMPING = 0.85;
+
+    /**
+     * PageRank iterations by default.
+     */
+    private static final int PAGERANK_ITERATIONS = 20;
+
+    /**
+     * Sum of the rank changes under which PageRank stops.
+     */
+    private static final double TOLERANCE = 1e-6;
+
+    /**
+     * Label propagation iterations by default.
+     */
+    private static final int COMMUNITY_ITERATIONS = 10;
+
+    /**
+     * Statements writing the results back.
+     */
+    private static final StageMetrics GRAPH_WRITES = CrawlMetrics.stage("cypher.graph_write");
+
+    /**
+     * Work on a range of users.
+     */
+    private interface RangeWork {
+
+        /**
+         * Handling the users of a range.
+         * @param from First user number.
+         * @param to User number after the last one.
+         * @param buffer Neighbour buffer of the thread, of at least the degree of any user in both directions.
+         * @return the contribution of the range to the sum of the iteration.
+         */
+        double run(int from, int to, int[] buffer);
+    }
+
+    /**
+     * Task summing a work over a range of users, split in halves down to the grain.
+     */
+    private final class RangeTask extends RecursiveTask<Double> {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Work on a range.
+         */
+        private final RangeWork work;
+
+        /**
+         * First user number.
+         */
+        private final int from;
+
+        /**
+         * User number after the last one.
+         */
+        private final int to;
+
+        /**
+         * Class Constructor.
+         * @param work Work on a range.
+         * @param from First user number.
+         * @param to User number after the last one.
+         */
+        RangeTask(final RangeWork work, final int from, final int to) {
+            this.work = work;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= GRAIN) {
+                return work.run(from, to, buffers.get());
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(work, from, middle);
+            left.fork();
+            double right = new RangeTask(work, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Graph analysed.
+     */
+    private final FollowGraph graph;
+
+    /**
+     * Users followed by every user.
+     */
+    private final CompressedAdjacency following;
+
+    /**
+     * Followers of every user.
+     */
+    private final CompressedAdjacency followers;
+
+    /**
+     * Pool running the tasks.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Neighbour buffer of every thread.
+     */
+    private final ThreadLocal<int[]> buffers;
+
+    /**
+     * Class Constructor.
+     * @param graph Graph analysed.
+     * @param pool Pool running the tasks.
+     */
+    public GraphAnalytics(final FollowGraph graph, final ForkJoinPool pool) {
+        this.graph = graph;
+        this.following = graph.getFollowing();
+        this.followers = graph.getFollowers();
+        this.pool = pool;
+        final int bufferSize = following.getMaxDegree() + followers.getMaxDegree();
+        this.buffers = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[bufferSize];
+            }
+        };
+    }
+
+    /**
+     * Running a work over every user.
+     * @param work Work on a range.
+     * @return the sum of the ranges.
+     */
+    private double forEachUser(final RangeWork work) {
+        return pool.invoke(new RangeTask(work, 0, graph.getNodeCount()));
+    }
+
+    /**
+     * PageRank of the users, a follower passing its rank to the users it follows.
+     * The rank of users following nobody is spread over every user.
+     * @param damping Probability of following an edge, usually 0.85.
+     * @param maxIterations Number of iterations at most.
+     * @param tolerance Sum of the rank changes under which the ranks are stable.
+     * @return the rank of every user, summing to 1.
+     */
+    public final double[] pageRank(final double damping, final int maxIterations, final double tolerance) {
+        final int n = graph.getNodeCount();
+        if (n == 0) {
+            return new double[0];
+        }
+        double[] ranks = new double[n];
+        Arrays.fill(ranks, 1.0 / n);
+        double[] next = new double[n];
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            double dangling = 0;
+            for (int v = 0; v < n; v++) {
+                if (following.degree(v) == 0) {
+                    dangling += ranks[v];
+                }
+            }
+            final double[] current = ranks;
+            final double[] updated = next;
+            final double base = (1 - damping) / n + damping * dangling / n;
+            double change = forEachUser(new RangeWork() {
+                @Override
+                public double run(final int from, final int to, final int[] buffer) {
+                    double sum = 0;
+                    for (int v = from; v < to; v++) {
+                        int count = followers.neighbours(v, buffer);
+                        double received = 0;
+                        for (int i = 0; i < count; i++) {
+                            received += current[buffer[i]] / following.degree(buffer[i]);
+                        }
+                        updated[v] = base + damping * received;
+                        sum += Math.abs(updated[v] - current[v]);
+                    }
+                    return sum;
+                }
+            });
+            next = ranks;
+            ranks = updated;
+            System.out.println("PageRank Iteration " + iteration + ": change " + change);
+            if (change < tolerance) {
+                break;
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * Weakly connected components, following the edges in both directions.
+     * Every user takes the smallest component of itself and its neighbours,
+     * shortcut through the component of that component, until nothing changes.
+     * @return the smallest user number of the component of every user.
+     */
+    public final int[] components() {
+        final int n = graph.getNodeCount();
+        final int[] components = new int[n];
+        for (int v = 0; v < n; v++) {
+            components[v] = v;
+        }
+        int iteration = 0;
+        double changed;
+        do {
+            // Components only decrease, reading a value of this iteration is as valid as one of the previous
+            changed = forEachUser(new RangeWork() {
+                @Override
+                public double run(final int from, final int to, final int[] buffer) {
+                    int changes = 0;
+                    for (int v = from; v < to; v++) {
+                        int smallest = components[v];
+                        int count = following.neighbours(v, buffer);
+                        for (int i = 0; i < count; i++) {
+                            smallest = Math.min(smallest, components[buffer[i]]);
+                        }
+                        count = followers.neighbours(v, buffer);
+                        for (int i = 0; i < count; i++) {
+                            smallest = Math.min(smallest, components[buffer[i]]);
+                        }
+                        while (components[smallest] < smallest) {
+                            smallest = components[smallest];
+                        }
+                        if (smallest < components[v]) {
+                            components[v] = smallest;
+                            changes++;
+                        }
+                    }
+                    return changes;
+                }
+            });
+            iteration++;
+            System.out.println("Components Iteration " + iteration + ": " + (long) changed + " changes");
+        } while (changed > 0);
+        return components;
+    }
+
+    /**
+     * Communities found by label propagation, following the edges in both directions.
+     * Every user starts in its own community, then takes the community most
+     * frequent among its neighbours, keeping its own on a tie with it and the
+     * smallest one on other ties.
+     * @param maxIterations Number of iterations at most.
+     * @return the community of every user, the user number of one of its members.
+     */
+    public final int[] communities(final int maxIterations) {
+        final int n = graph.getNodeCount();
+        final int[] labels = new int[n];
+        for (int v = 0; v < n; v++) {
+            labels[v] = v;
+        }
+        for (int iteration = 1; iteration <= maxIterations; iteration++) {
+            // Updated in place, synchronous updates oscillate between the two sides of dense follow pairs
+            double changed = forEachUser(new RangeWork() {
+                @Override
+                public double run(final int from, final int to, final int[] buffer) {
+                    int changes = 0;
+                    for (int v = from; v < to; v++) {
+                        int count = following.neighbours(v, buffer);
+                        count += followers.neighbours(v, buffer, count);
+                        int label = mostFrequent(labels, buffer, count, labels[v]);
+                        if (label != labels[v]) {
+                            labels[v] = label;
+                            changes++;
+                        }
+                    }
+                    return changes;
+                }
+            });
+            System.out.println("Communities Iteration " + iteration + ": " + (long) changed + " changes");
+            if (changed == 0) {
+                break;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Community most frequent among neighbours.
+     * @param labels Community of every user.
+     * @param neighbours Neighbours, replaced by their communities.
+     * @param count Number of neighbours.
+     * @param own Community of the user, kept without neighbours or on a tie with it.
+     * @return the community.
+     */
+    private static int mostFrequent(final int[] labels, final int[] neighbours, final int count, final int own) {
+        if (count == 0) {
+            return own;
+        }
+        for (int i = 0; i < count; i++) {
+            neighbours[i] = labels[neighbours[i]];
+        }
+        Arrays.sort(neighbours, 0, count);
+        int best = own;
+        int bestRun = 0;
+        int i = 0;
+        while (i < count) {
+            int label = neighbours[i];
+            int run = 0;
+            while (i < count && neighbours[i] == label) {
+                run++;
+                i++;
+            }
+            if (run > bestRun || (run == bestRun && label == own)) {
+                best = label;
+                bestRun = run;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Writing the results back as PageRank, Component and Community properties of the User nodes.
+     * Components and communities are named by the UserID of one of their members.
+     * @param driver Driver for connection.
+     * @param ranks PageRank of every user.
+     * @param components Component of every user, as a user number.
+     * @param communities Community of every user, as a user number.
+     */
+    public final void write(final Driver driver, final double[] ranks, final int[] components, final int[] communities) {
+        try (Session session = driver.session()) {
+            int n = graph.getNodeCount();
+            for (int from = 0; from < n; from += WRITE_BATCH) {
+                final List<Map<String, Object>> rows = new ArrayList<>();
+                for (int v = from; v < Math.min(n, from + WRITE_BATCH); v++) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("id", graph.getNodeId(v));
+                    row.put("pagerank", ranks[v]);
+                    row.put("component", String.valueOf(graph.getUserId(components[v])));
+                    row.put("community", String.valueOf(graph.getUserId(communities[v])));
+                    rows.add(row);
+                }
+                CrawlMetrics.write(session, GRAPH_WRITES, new TransactionWork<Void>() {
+                    @Override
+                    public Void execute(final Transaction tx) {
+                        tx.run("UNWIND $rows AS row "
+                                + "MATCH (u:User) WHERE id(u) = row.id "
+                                + "SET u.PageRank = row.pagerank, u.Component = row.component, u.Community = row.community",
+                                parameters("rows", rows)).consume();
+                        return null;
+                    }
+                });
+            }
+            System.out.println("Graph Analytics Written: " + n + " users");
+        }
+    }
+
+    /**
+     * Loading the follow graph, running every algorithm and writing the results back.
+     * The aquila.graphThreads, aquila.pagerankIterations and
+     * aquila.communityIterations system properties tune the run.
+     * @param driver Driver for connection.
+     * @throws Exception Exception
+     */
+    public static void run(final Driver driver) throws Exception {
+        FollowGraph graph = FollowGraph.load(driver);
+        ForkJoinPool pool = new ForkJoinPool(Integer.getInteger("aquila.graphThreads", Runtime.getRuntime().availableProcessors()));
+        try {
+            GraphAnalytics analytics = new GraphAnalytics(graph, pool);
+            long start = System.currentTimeMillis();
+            double[] ranks = analytics.pageRank(DAMPING, Integer.getInteger("aquila.pagerankIterations", PAGERANK_ITERATIONS), TOLERANCE);
+            int[] components = analytics.components();
+            int[] communities = analytics.communities(Integer.getInteger("aquila.communityIterations", COMMUNITY_ITERATIONS));
+            System.out.println("Graph Analytics Computed in " + (System.currentTimeMillis() - start) + " ms");
+            analytics.write(driver, ranks, components, communities);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of the crawled graph.
+ * Every backend writes the same model from the same records: users and
+ * their Location, FRIEND and FOLLOWS relationships between users, and
+ * tweets or retweets with their Source, day of the time tree, Hashtags and
+ * optional coordinates. Relationships and tweets referring to users never
+ * added are dropped, by the sink or, for CSV files, by the import.
+ * Implementations are safe for use by several threads.
+ * @author Aquila
+ */
+public interface GraphSink extends AutoCloseable {
+
+    /**
+     * Adding User Node and its Location.
+     * @param user Parsed Twitter Account.
+     * @throws IOException IO Exception
+     */
+    void addUser(UserRecord user) throws IOException;
+
+    /**
+     * Adding Friendship.
+     * @param mainaccount Twitter Main Account.
+     * @param user Friend ID.
+     * @throws IOException IO Exception
+     */
+    void addFriendship(String mainaccount, String user) throws IOException;
+
+    /**
+     * Adding Following relationship between users.
+     * @param mainaccount Main user Twitter Account.
+     * @param user User Twitter Account.
+     * @throws IOException IO Exception
+     */
+    void addFollowing(String mainaccount, String user) throws IOException;
+
+    /**
+     * Adding Tweet or Retweet with its Source, Date and Hashtags.
+     * Its author has to be added first.
+     * @param tweet Parsed tweet.
+     * @throws IOException IO Exception
+     */
+    void addTweet(TweetRecord tweet) throws IOException;
+
+    /**
+     * Adding the tweets of a timeline, then running a task once all of them
+     * are durable, so progress depending on them is recorded after their
+     * write. The task is never run when one of their writes fails.
+     * @param tweets Parsed tweets, their authors added first.
+     * @param written Task run once the tweets are durable.
+     * @throws IOException IO Exception
+     */
+    void addTweets(List<TweetRecord> tweets, Runnable written) throws IOException;
+
+    /**
+     * Writing whatever the sink buffers, so everything added so far is durable.
+     * @throws IOException IO Exception, or a write of the sink failed since the last flush
+     */
+    void flush() throws IOException;
+
+    /**
+     * Override Closing sink, flushing it first.
+     * @throws Exception Exception
+     */
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,208 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeping the graph in memory, for tests and as a baseline of benchmarks.
+ * Writes follow the MERGE semantics of the Bolt sink: a user or tweet added
+ * twice keeps its last properties, relationships are sets and are dropped
+ * when one of their users is unknown, and so are tweets of unknown authors.
+ * @author Aquila
+ */
+public class InMemoryGraphSink implements GraphSink {
+
+    /**
+     * Users by UserID.
+     */
+    private final Map<String, UserRecord> users = new LinkedHashMap<>();
+
+    /**
+     * UserIDs of the friends of every main account.
+     */
+    private final Map<String, Set<String>> friends = new HashMap<>();
+
+    /**
+     * UserIDs of the followers of every main account.
+     */
+    private final Map<String, Set<String>> followers = new HashMap<>();
+
+    /**
+     * Tweets by TweetID, an original known only through a retweet being held by the record of its first retweet.
+     */
+    private final Map<String, TweetRecord> tweets = new LinkedHashMap<>();
+
+    /**
+     * Retweets by Tweet ID of the retweet.
+     */
+    private final Map<String, TweetRecord> retweets = new LinkedHashMap<>();
+
+    /**
+     * Source nodes.
+     */
+    private final Set<String> sources = new HashSet<>();
+
+    /**
+     * Hashtag nodes.
+     */
+    private final Set<String> hashtags = new HashSet<>();
+
+    /**
+     * Date nodes, by day key.
+     */
+    private final Set<Integer> days = new HashSet<>();
+
+    @Override
+    public final synchronized void addUser(final UserRecord user) {
+        users.put(user.getUserID(), user);
+    }
+
+    @Override
+    public final synchronized void addFriendship(final String mainaccount, final String user) {
+        relate(friends, mainaccount, user);
+    }
+
+    @Override
+    public final synchronized void addFollowing(final String mainaccount, final String user) {
+        relate(followers, mainaccount, user);
+    }
+
+    /**
+     * Relating a user to a main account, when both are known.
+     * @param relationships Related users by main account.
+     * @param mainaccount Main user Twitter Account.
+     * @param user User Twitter Account.
+     */
+    private void relate(final Map<String, Set<String>> relationships, final String mainaccount, final String user) {
+        if (!users.containsKey(mainaccount) || !users.containsKey(user)) {
+            return;
+        }
+        Set<String> related = relationships.get(mainaccount);
+        if (related == null) {
+            related = new HashSet<>();
+            relationships.put(mainaccount, related);
+        }
+        related.add(user);
+    }
+
+    @Override
+    public final synchronized void addTweet(final TweetRecord tweet) {
+        if (!users.containsKey(tweet.getUser())) {
+            return;
+        }
+        if (tweet.isRetweet()) {
+            retweets.put(tweet.getRetweetid(), tweet);
+            if (tweets.containsKey(tweet.getTweetid())) {
+                return;
+            }
+        }
+        tweets.put(tweet.getTweetid(), tweet);
+        sources.add(tweet.getSource());
+        hashtags.addAll(tweet.getHashtags());
+        days.add(tweet.getDayKey());
+    }
+
+    /**
+     * Adding tweets, durable as soon as added.
+     * @param records Parsed tweets.
+     * @param written Task run at once.
+     */
+    @Override
+    public final synchronized void addTweets(final List<TweetRecord> records, final Runnable written) {
+        for (TweetRecord tweet : records) {
+            addTweet(tweet);
+        }
+        written.run();
+    }
+
+    /**
+     * Nothing is buffered.
+     */
+    @Override
+    public final void flush() {
+    }
+
+    /**
+     * Override Closing sink, the graph stays readable.
+     */
+    @Override
+    public final void close() {
+    }
+
+    /**
+     * @return the users by UserID.
+     */
+    public final synchronized Map<String, UserRecord> getUsers() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(users));
+    }
+
+    /**
+     * @param mainaccount UserID of a main account.
+     * @return the UserIDs of its friends.
+     */
+    public final synchronized Set<String> getFriends(final String mainaccount) {
+        return copy(friends.get(mainaccount));
+    }
+
+    /**
+     * @param mainaccount UserID of a main account.
+     * @return the UserIDs of its followers.
+     */
+    public final synchronized Set<String> getFollowers(final String mainaccount) {
+        return copy(followers.get(mainaccount));
+    }
+
+    /**
+     * @return the tweets by TweetID.
+     */
+    public final synchronized Map<String, TweetRecord> getTweets() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(tweets));
+    }
+
+    /**
+     * @return the retweets by Tweet ID of the retweet.
+     */
+    public final synchronized Map<String, TweetRecord> getRetweets() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(retweets));
+    }
+
+    /**
+     * @return the Source nodes.
+     */
+    public final synchronized Set<String> getSources() {
+        return copy(sources);
+    }
+
+    /**
+     * @return the Hashtag nodes.
+     */
+    public final synchronized Set<String> getHashtags() {
+        return copy(hashtags);
+    }
+
+    /**
+     * @return the Date nodes, by day key.
+     */
+    public final synchronized Set<Integer> getDays() {
+        return Collections.unmodifiableSet(new HashSet<>(days));
+    }
+
+    /**
+     * Unmodifiable copy of a set of IDs.
+     * @param ids IDs or null.
+     * @return the copy.
+     */
+    private static Set<String> copy(final Set<String> ids) {
+        return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(new HashSet<>(ids));
+    }
+}
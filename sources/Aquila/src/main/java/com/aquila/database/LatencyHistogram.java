@@ -0,0 +1,158 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, in the manner of HdrHistogram.
+ * Values below 64 have a bucket each; above, every power of two is split
+ * into 64 buckets, so a recorded value is known within 1.6 % whatever its
+ * magnitude, from one microsecond to days, in a fixed 18 KB array.
+ * Recording is lock free and safe for use by several threads.
+ * @author Aquila
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bits of the value kept below its highest bit.
+     */
+    private static final int SUB_BITS = 6;
+
+    /**
+     * Buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Highest bit of the largest value, about 12 days.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * Largest value.
+     */
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    /**
+     * Count of every bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS);
+
+    /**
+     * Number of values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Largest value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Bucket of a value.
+     * @param value Value, at most {@link #MAX_VALUE}.
+     * @return the index of its bucket.
+     */
+    private static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Largest value of a bucket.
+     * @param bucket Index of the bucket.
+     * @return the value.
+     */
+    private static long highest(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Recording a value.
+     * @param micros Latency in microseconds, negative values counting as 0.
+     */
+    public final void record(final long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long previous = max.get();
+        while (value > previous && !max.compareAndSet(previous, value)) {
+            previous = max.get();
+        }
+    }
+
+    /**
+     * @return the number of values.
+     */
+    public final long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean value, 0 without values.
+     */
+    public final double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return the largest value, 0 without values.
+     */
+    public final long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Value below which a share of the values fall.
+     * @param quantile Share between 0 and 1.
+     * @return the largest value of the bucket reaching the share, 0 without values.
+     */
+    public final long getValueAtQuantile(final double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgetting every value. Values recorded meanwhile may be partly kept.
+     */
+    public final void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
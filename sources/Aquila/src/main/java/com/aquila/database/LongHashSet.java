@@ -0,0 +1,141 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of raw long IDs held off the Java heap.
+ * IDs are stored unboxed in an open addressing table with linear probing,
+ * 8 bytes per slot and at most 3 slots in 4 used, so ten million IDs take
+ * 128 MB. The table lives in a direct buffer, or in a memory-mapped file
+ * when the set must survive a restart, see {@link OffHeapTable}.
+ * @author Aquila
+ */
+public class LongHashSet implements AutoCloseable {
+
+    /**
+     * Bytes before the table: number of IDs, then the flag of ID 0.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * Largest number of slots, the table has to fit in one buffer.
+     */
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    /**
+     * Header and table, 0 marking an empty slot.
+     */
+    private final OffHeapTable table;
+
+    /**
+     * Number of IDs.
+     */
+    private long size;
+
+    /**
+     * True when ID 0, which marks empty slots, is in the set.
+     */
+    private boolean containsZero;
+
+    /**
+     * Class Constructor of a set held in a direct buffer.
+     * @param expected Expected number of IDs, the set grows beyond it.
+     */
+    public LongHashSet(final int expected) {
+        table = new OffHeapTable(HEADER, 1, MAX_CAPACITY, expected, "ID set");
+    }
+
+    /**
+     * Class Constructor of a set held in a memory-mapped file, reopened when it exists.
+     * @param file Backing file.
+     * @param expected Expected number of IDs of a new file, the set grows beyond it.
+     * @throws IOException IO Exception
+     */
+    public LongHashSet(final File file, final int expected) throws IOException {
+        table = new OffHeapTable(file, HEADER, 1, MAX_CAPACITY, expected, "ID set");
+        size = table.header().getLong(0);
+        containsZero = table.header().get(8) != 0;
+    }
+
+    /**
+     * @param id ID.
+     * @return true when the ID is in the set.
+     */
+    public final synchronized boolean contains(final long id) {
+        if (id == 0) {
+            return containsZero;
+        }
+        return table.key(table.slot(id)) != 0;
+    }
+
+    /**
+     * Adding an ID.
+     * @param id ID.
+     * @return true when the ID was not in the set yet.
+     * @throws IOException IO Exception of the backing file growing.
+     */
+    public final synchronized boolean add(final long id) throws IOException {
+        if (id == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            table.header().put(8, (byte) 1);
+        } else {
+            int index = table.slot(id);
+            if (table.key(index) != 0) {
+                return false;
+            }
+            table.putKey(index, id);
+        }
+        size++;
+        table.header().putLong(0, size);
+        table.ensure(size);
+        return true;
+    }
+
+    /**
+     * @return the number of IDs.
+     */
+    public final synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Visiting every ID, in no particular order.
+     * @param visitor Receiver of the IDs.
+     */
+    public final synchronized void forEach(final LongConsumer visitor) {
+        if (containsZero) {
+            visitor.accept(0);
+        }
+        for (int i = 0; i < table.capacity(); i++) {
+            long id = table.key(i);
+            if (id != 0) {
+                visitor.accept(id);
+            }
+        }
+    }
+
+    /**
+     * Forcing the backing file to disk.
+     */
+    public final synchronized void force() {
+        table.force();
+    }
+
+    /**
+     * Override Closing set, forcing the backing file to disk.
+     */
+    @Override
+    public final void close() {
+        force();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Map of raw long keys to long values held off the Java heap.
+ * Like {@link LongHashSet}, entries are stored unboxed in an open
+ * addressing table with linear probing, a key and its value per slot and
+ * at most 3 slots in 4 used. The table lives in a direct buffer, or in a
+ * memory-mapped file when the map must survive a restart. Missing keys
+ * read as 0, so values are expected to be positive, like TweetIDs.
+ * @author Aquila
+ */
+public class LongLongHashMap implements AutoCloseable {
+
+    /**
+     * Bytes before the table: number of keys, the flag of key 0, then its value.
+     */
+    private static final int HEADER = 24;
+
+    /**
+     * Largest number of slots, the table has to fit in one buffer.
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    /**
+     * Header and table of keys and values, key 0 marking an empty slot.
+     */
+    private final OffHeapTable table;
+
+    /**
+     * Number of keys.
+     */
+    private long size;
+
+    /**
+     * Class Constructor of a map held in a direct buffer.
+     * @param expected Expected number of keys, the map grows beyond it.
+     */
+    public LongLongHashMap(final int expected) {
+        table = new OffHeapTable(HEADER, 2, MAX_CAPACITY, expected, "ID map");
+    }
+
+    /**
+     * Class Constructor of a map held in a memory-mapped file, reopened when it exists.
+     * @param file Backing file.
+     * @param expected Expected number of keys of a new file, the map grows beyond it.
+     * @throws IOException IO Exception
+     */
+    public LongLongHashMap(final File file, final int expected) throws IOException {
+        table = new OffHeapTable(file, HEADER, 2, MAX_CAPACITY, expected, "ID map");
+        size = table.header().getLong(0);
+    }
+
+    /**
+     * @param key Key.
+     * @return the value of the key, 0 when missing.
+     */
+    public final synchronized long get(final long key) {
+        if (key == 0) {
+            return table.header().getLong(16);
+        }
+        int index = table.slot(key);
+        return table.key(index) != 0 ? table.value(index) : 0;
+    }
+
+    /**
+     * Setting the value of a key unless it already holds a larger one.
+     * @param key Key.
+     * @param value Value.
+     * @return the value of the key.
+     * @throws IOException IO Exception of the backing file growing.
+     */
+    public final synchronized long putMax(final long key, final long value) throws IOException {
+        ByteBuffer header = table.header();
+        if (key == 0) {
+            if (header.get(8) == 0) {
+                header.put(8, (byte) 1);
+                size++;
+            } else if (header.getLong(16) >= value) {
+                return header.getLong(16);
+            }
+            header.putLong(16, value);
+        } else {
+            int index = table.slot(key);
+            if (table.key(index) != 0) {
+                if (table.value(index) >= value) {
+                    return table.value(index);
+                }
+                table.putValue(index, value);
+                return value;
+            }
+            table.putKey(index, key);
+            table.putValue(index, value);
+            size++;
+        }
+        header.putLong(0, size);
+        table.ensure(size);
+        return value;
+    }
+
+    /**
+     * @return the number of keys.
+     */
+    public final synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Forcing the backing file to disk.
+     */
+    public final synchronized void force() {
+        table.force();
+    }
+
+    /**
+     * Override Closing map, forcing the backing file to disk.
+     */
+    @Override
+    public final void close() {
+        force();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
+
+/**
+ * Walk over the node ids in fixed windows, each read by id seeks and handled
+ * in a write transaction of its own.
+ * The highest node id is read once when the walk starts, by an aggregation
+ * that keeps a single value whatever the size of the store; a window then
+ * costs the seeks of its ids, and nothing is sorted nor kept open between two
+ * windows. Nodes created during the walk are left to the next one.
+ * @author Aquila
+ */
+public final class NodeIdWindows {
+
+    /**
+     * Receiver of the windows.
+     */
+    public interface Handler {
+
+        /**
+         * Handling a window of node ids in the current transaction.
+         * @param tx Current transaction.
+         * @param first First node id of the window.
+         * @param last Last node id of the window.
+         * @return the number of nodes counted for the window.
+         */
+        long handle(Transaction tx, long first, long last);
+    }
+
+    /**
+     * Class Constructor, no instance.
+     */
+    private NodeIdWindows() {
+    }
+
+    /**
+     * Walking the node ids above the given one, up to the highest node id.
+     * @param session Session of the transactions.
+     * @param stage Stage of the statements.
+     * @param after Last node id already handled, -1 for every node.
+     * @param size Number of node ids per window.
+     * @param handler Receiver of the windows.
+     * @return the number of nodes counted by the handler.
+     */
+    public static long walk(final Session session, final StageMetrics stage, final long after, final int size, final Handler handler) {
+        Value highest = session.run("MATCH (n) RETURN max(id(n))").single().get(0);
+        if (highest.isNull()) {
+            return 0;
+        }
+        long counted = 0;
+        for (long from = after + 1; from <= highest.asLong(); from += size) {
+            final long first = from;
+            final long last = Math.min(from + size - 1, highest.asLong());
+            counted += CrawlMetrics.write(session, stage, new TransactionWork<Long>() {
+                @Override
+                public Long execute(final Transaction tx) {
+                    return handler.handle(tx, first, last);
+                }
+            });
+        }
+        return counted;
+    }
+}
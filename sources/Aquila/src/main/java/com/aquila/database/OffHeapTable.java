@@ -0,0 +1,311 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Open addressing table of raw long keys held off the Java heap, shared by
+ * {@link LongHashSet} and {@link LongLongHashMap}.
+ * A slot holds a key, followed by its value in a map, key 0 marking an
+ * empty slot, and collisions are probed linearly. A header of the owner's
+ * fields comes before the slots. The table lives in a direct buffer, or in
+ * a memory-mapped file reopened as is: a full table is rehashed into a file
+ * twice as large, forced to disk, then moved over the former one.
+ * @author Aquila
+ */
+final class OffHeapTable {
+
+    /**
+     * Smallest number of slots.
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Backing file, null when the table is not persistent.
+     */
+    private final File file;
+
+    /**
+     * Bytes of the header.
+     */
+    private final int header;
+
+    /**
+     * Longs of a slot, 1 for a key, 2 for a key and its value.
+     */
+    private final int width;
+
+    /**
+     * Largest number of slots, the table has to fit in one buffer.
+     */
+    private final int maxCapacity;
+
+    /**
+     * Name of the table in error messages.
+     */
+    private final String name;
+
+    /**
+     * Header and slots.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Slots.
+     */
+    private LongBuffer slots;
+
+    /**
+     * Number of slots minus one.
+     */
+    private int mask;
+
+    /**
+     * Class Constructor of a table held in a direct buffer.
+     * @param header Bytes of the header.
+     * @param width Longs of a slot.
+     * @param maxCapacity Largest number of slots.
+     * @param expected Expected number of keys, the table grows beyond it.
+     * @param name Name of the table in error messages.
+     */
+    OffHeapTable(final int header, final int width, final int maxCapacity, final int expected, final String name) {
+        this.file = null;
+        this.header = header;
+        this.width = width;
+        this.maxCapacity = maxCapacity;
+        this.name = name;
+        attach(ByteBuffer.allocateDirect((int) length(capacity(expected))));
+    }
+
+    /**
+     * Class Constructor of a table held in a memory-mapped file, reopened when it exists.
+     * @param file Backing file.
+     * @param header Bytes of the header.
+     * @param width Longs of a slot.
+     * @param maxCapacity Largest number of slots.
+     * @param expected Expected number of keys of a new file, the table grows beyond it.
+     * @param name Name of the table in error messages.
+     * @throws IOException IO Exception
+     */
+    OffHeapTable(final File file, final int header, final int width, final int maxCapacity, final int expected, final String name) throws IOException {
+        this.file = file;
+        this.header = header;
+        this.width = width;
+        this.maxCapacity = maxCapacity;
+        this.name = name;
+        if (file.length() > header) {
+            long slotCount = (file.length() - header) / (width * 8);
+            if (Long.bitCount(slotCount) != 1 || slotCount > maxCapacity || length((int) slotCount) != file.length()) {
+                throw new IOException("Corrupted " + name + " " + file);
+            }
+            attach(map(file, (int) slotCount));
+        } else {
+            attach(map(file, capacity(expected)));
+        }
+    }
+
+    /**
+     * Number of slots holding the expected keys, at most 3 slots in 4 used.
+     * @param expected Expected number of keys.
+     * @return the power of two.
+     */
+    private int capacity(final int expected) {
+        long needed = Math.max(MIN_CAPACITY, (long) expected * 4 / 3 + 1);
+        if (needed > maxCapacity) {
+            throw new IllegalArgumentException("Too many keys expected in " + name + ": " + expected);
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    /**
+     * @param slotCount Number of slots.
+     * @return the bytes of the header and slots.
+     */
+    private long length(final int slotCount) {
+        return header + (long) slotCount * width * 8;
+    }
+
+    /**
+     * Mapping a file of the given number of slots, new bytes being zero.
+     * @param target File to map.
+     * @param slotCount Number of slots.
+     * @return the mapped buffer.
+     * @throws IOException IO Exception
+     */
+    private MappedByteBuffer map(final File target, final int slotCount) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw")) {
+            long length = length(slotCount);
+            raf.setLength(length);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    /**
+     * Using a buffer as header and slots.
+     * @param table Buffer of the header and slots.
+     */
+    private void attach(final ByteBuffer table) {
+        buffer = table;
+        slots = slots(table);
+        mask = slots.capacity() / width - 1;
+    }
+
+    /**
+     * Slots of a buffer.
+     * @param table Buffer of the header and slots.
+     * @return the view of the slots.
+     */
+    private LongBuffer slots(final ByteBuffer table) {
+        // Positioned as a Buffer, the covariant overrides of Java 9 are missing on Java 8
+        ((Buffer) table).position(header);
+        LongBuffer view = table.slice().asLongBuffer();
+        ((Buffer) table).position(0);
+        return view;
+    }
+
+    /**
+     * Spreading the bits of a key over the slot index.
+     * @param key Key.
+     * @return the mixed hash.
+     */
+    private static long mix(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Slot holding a key, or the empty slot where it belongs.
+     * @param table Slots to probe.
+     * @param tableMask Number of slots minus one.
+     * @param key Non-zero key.
+     * @return the slot index.
+     */
+    private int slot(final LongBuffer table, final int tableMask, final long key) {
+        int index = (int) mix(key) & tableMask;
+        long current;
+        while ((current = table.get(index * width)) != 0 && current != key) {
+            index = (index + 1) & tableMask;
+        }
+        return index;
+    }
+
+    /**
+     * Slot holding a key, or the empty slot where it belongs.
+     * @param key Non-zero key.
+     * @return the slot index.
+     */
+    int slot(final long key) {
+        return slot(slots, mask, key);
+    }
+
+    /**
+     * @return the number of slots.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param index Slot index.
+     * @return the key of the slot, 0 when empty.
+     */
+    long key(final int index) {
+        return slots.get(index * width);
+    }
+
+    /**
+     * @param index Slot index.
+     * @return the value of the slot.
+     */
+    long value(final int index) {
+        return slots.get(index * width + 1);
+    }
+
+    /**
+     * Setting the key of a slot.
+     * @param index Slot index.
+     * @param key Non-zero key.
+     */
+    void putKey(final int index, final long key) {
+        slots.put(index * width, key);
+    }
+
+    /**
+     * Setting the value of a slot.
+     * @param index Slot index.
+     * @param value Value.
+     */
+    void putValue(final int index, final long value) {
+        slots.put(index * width + 1, value);
+    }
+
+    /**
+     * @return the header, read and written by absolute positions.
+     */
+    ByteBuffer header() {
+        return buffer;
+    }
+
+    /**
+     * Rehashing the slots into a table twice as large when the given number of keys fills 3 slots in 4.
+     * @param size Number of keys in the slots and header.
+     * @throws IOException IO Exception of the backing file.
+     */
+    void ensure(final long size) throws IOException {
+        if ((size + 1) * 4 <= (long) capacity() * 3) {
+            return;
+        }
+        int capacity = capacity() * 2;
+        if (capacity > maxCapacity) {
+            throw new IllegalStateException(name + " is full: " + size);
+        }
+        File grown = file == null ? null : new File(file.getPath() + ".tmp");
+        ByteBuffer larger = grown == null ? ByteBuffer.allocateDirect((int) length(capacity)) : map(grown, capacity);
+        LongBuffer table = slots(larger);
+        for (int i = 0; i <= mask; i++) {
+            long key = key(i);
+            if (key != 0) {
+                int index = slot(table, capacity - 1, key);
+                for (int j = 0; j < width; j++) {
+                    table.put(index * width + j, slots.get(i * width + j));
+                }
+            }
+        }
+        for (int i = 0; i < header; i++) {
+            larger.put(i, buffer.get(i));
+        }
+        if (grown != null) {
+            ((MappedByteBuffer) larger).force();
+            Files.move(grown.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        attach(larger);
+    }
+
+    /**
+     * Forcing the backing file to disk.
+     */
+    void force() {
+        // A direct buffer is a MappedByteBuffer too, only a mapped file can be forced
+        if (file != null) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+/**
+ * Place a free-text location resolves to, the key of its Location node.
+ * A place of the gazetteer has a name, a country and coordinates; a
+ * location the gazetteer does not know keeps its cleaned text only.
+ * @author Aquila
+ */
+public final class Place {
+
+    /**
+     * Kind of a city in the gazetteer.
+     */
+    public static final String CITY = "city";
+
+    /**
+     * Kind of a region in the gazetteer.
+     */
+    public static final String REGION = "region";
+
+    /**
+     * Kind of a country in the gazetteer.
+     */
+    public static final String COUNTRY = "country";
+
+    /**
+     * Location of the node, "Name, CC" for cities and regions, the name for countries, the cleaned text otherwise.
+     */
+    private final String location;
+
+    /**
+     * Kind of place, null when not in the gazetteer.
+     */
+    private final String kind;
+
+    /**
+     * Name of the place, null when not in the gazetteer.
+     */
+    private final String name;
+
+    /**
+     * ISO 3166 code of the country, null when not in the gazetteer.
+     */
+    private final String country;
+
+    /**
+     * Latitude of the place, null when not in the gazetteer.
+     */
+    private final Double latitude;
+
+    /**
+     * Longitude of the place, null when not in the gazetteer.
+     */
+    private final Double longitude;
+
+    /**
+     * Class Constructor.
+     * @param location Location of the node.
+     * @param kind Kind of place, null when not in the gazetteer.
+     * @param name Name of the place, null when not in the gazetteer.
+     * @param country ISO 3166 code of the country, null when not in the gazetteer.
+     * @param latitude Latitude of the place, null when not in the gazetteer.
+     * @param longitude Longitude of the place, null when not in the gazetteer.
+     */
+    public Place(final String location, final String kind, final String name, final String country, final Double latitude, final Double longitude) {
+        this.location = location;
+        this.kind = kind;
+        this.name = name;
+        this.country = country;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Place of a location the gazetteer does not know.
+     * @param text Cleaned text of the location.
+     * @return the place.
+     */
+    public static Place unresolved(final String text) {
+        return new Place(text, null, null, null, null, null);
+    }
+
+    /**
+     * @return Location of the node.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return Kind of place, null when not in the gazetteer.
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Name of the place, null when not in the gazetteer.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return ISO 3166 code of the country, null when not in the gazetteer.
+     */
+    public String getCountry() {
+        return country;
+    }
+
+    /**
+     * @return Latitude of the place, null when not in the gazetteer.
+     */
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return Longitude of the place, null when not in the gazetteer.
+     */
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return whether the place is in the gazetteer.
+     */
+    public boolean isResolved() {
+        return kind != null;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * One-shot conversion of the string properties written by former versions.
+ * User counters become integers and Verified a boolean; Tweet counters
+ * become integers and coordinates floats. The nodes are converted window
+ * by window of {@link NodeIdWindows}, each window in its own transaction. Conversions leave typed values unchanged, so an interrupted
+ * migration can simply be run again.
+ * @author Aquila
+ */
+public class PropertyTypeMigration {
+
+    /**
+     * Default number of nodes converted per transaction.
+     */
+    private static final int CHUNK_SIZE = 10000;
+
+    /**
+     * Statements converting a window.
+     */
+    private static final StageMetrics CONVERSION_WRITES = CrawlMetrics.stage("cypher.convert");
+
+    /**
+     * Converting the properties of User nodes.
+     */
+    private static final String USERS =
+            "UNWIND range($first, $last) AS i "
+            + "MATCH (n:User) WHERE id(n) = i "
+            + "SET n.NbFriends = toInteger(n.NbFriends), "
+            + "n.NbFollowers = toInteger(n.NbFollowers), "
+            + "n.NbFavoritesUser = toInteger(n.NbFavoritesUser), "
+            + "n.Verified = CASE n.Verified WHEN 'true' THEN true WHEN 'false' THEN false ELSE n.Verified END "
+            + "RETURN count(n)";
+
+    /**
+     * Converting the properties of Tweet nodes.
+     */
+    private static final String TWEETS =
+            "UNWIND range($first, $last) AS i "
+            + "MATCH (n:Tweet) WHERE id(n) = i "
+            + "SET n.NbRetweets = toInteger(n.NbRetweets), "
+            + "n.NbFavorites = toInteger(n.NbFavorites), "
+            + "n.TweetLatitude = toFloat(n.TweetLatitude), "
+            + "n.TweetLongitude = toFloat(n.TweetLongitude) "
+            + "RETURN count(n)";
+
+    /**
+     * Driver for connection.
+     */
+    private final Driver driver;
+
+    /**
+     * Number of node ids converted per transaction.
+     */
+    private final int chunkSize;
+
+    /**
+     * Class Constructor.
+     * @param driver Driver for connection.
+     * @param chunkSize Number of node ids converted per transaction.
+     */
+    public PropertyTypeMigration(final Driver driver, final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.driver = driver;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Converting every User and Tweet node.
+     * @return the number of converted nodes.
+     */
+    public final long migrateAll() {
+        return migrate("User", USERS) + migrate("Tweet", TWEETS);
+    }
+
+    /**
+     * Converting the nodes of a label window by window.
+     * @param label Label of the nodes.
+     * @param statement Statement converting the nodes of a window of ids.
+     * @return the number of converted nodes.
+     */
+    private long migrate(final String label, final String statement) {
+        long converted = 0;
+        try (Session session = driver.session()) {
+            converted = NodeIdWindows.walk(session, CONVERSION_WRITES, -1, chunkSize, new NodeIdWindows.Handler() {
+                /**
+                 * Nodes converted so far.
+                 */
+                private long done;
+
+                @Override
+                public long handle(final Transaction tx, final long first, final long last) {
+                    long count = tx.run(statement, parameters("first", first, "last", last)).single().get(0).asLong();
+                    done += count;
+                    System.out.println(label + " Converted: " + done);
+                    return count;
+                }
+            });
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+        return converted;
+    }
+
+    /**
+     * @param args the command line arguments, the number of nodes per transaction
+     * @throws Exception Exception
+     */
+    public static void main(final String... args) throws Exception {
+        int chunkSize = args.length > 0 ? Integer.parseInt(args[0]) : CHUNK_SIZE;
+        try (DataBase bd = new DataBase("bolt://localhost:7687", "neo4j", "123")) {
+            bd.newPropertyTypeMigration(chunkSize).migrateAll();
+            bd.addIndexUser();
+            bd.addIndexGeo();
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import twitter4j.IDs;
+import twitter4j.Paging;
+import twitter4j.RateLimitStatus;
+import twitter4j.ResponseList;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterFactory;
+import twitter4j.TwitterResponse;
+import twitter4j.User;
+import twitter4j.conf.ConfigurationBuilder;
+
+/**
+ * Scheduler of the Twitter API calls over several credentials.
+ * The remaining quota of every endpoint is tracked per credential from the
+ * rate limit headers of the responses. Each call goes to the credential
+ * with the most remaining calls, and waits for the earliest window reset
+ * when every credential is exhausted instead of failing.
+ * @author Aquila
+ */
+public class RateLimitedTwitter {
+
+    /**
+     * Rate limited endpoints of the Twitter API.
+     */
+    public enum Endpoint {
+        /**
+         * users/show.
+         */
+        USERS_SHOW(900),
+        /**
+         * users/lookup.
+         */
+        USERS_LOOKUP(900),
+        /**
+         * friends/ids.
+         */
+        FRIENDS_IDS(15),
+        /**
+         * followers/ids.
+         */
+        FOLLOWERS_IDS(15),
+        /**
+         * statuses/user_timeline.
+         */
+        STATUSES_USER_TIMELINE(900);
+
+        /**
+         * Calls per window before the first response is seen.
+         */
+        private final int defaultLimit;
+
+        /**
+         * Enum Constructor.
+         * @param defaultLimit Calls per window before the first response is seen.
+         */
+        Endpoint(final int defaultLimit) {
+            this.defaultLimit = defaultLimit;
+        }
+
+        /**
+         * @return the calls per window of the endpoint.
+         */
+        int getDefaultLimit() {
+            return defaultLimit;
+        }
+    }
+
+    /**
+     * Call of the Twitter API.
+     * @param <T> Type of the response.
+     */
+    public interface Call<T extends TwitterResponse> {
+
+        /**
+         * Calling the Twitter API.
+         * @param twitter Twitter API of one credential.
+         * @return the response.
+         * @throws TwitterException Twitter Exception
+         */
+        T call(Twitter twitter) throws TwitterException;
+    }
+
+    /**
+     * Length of a rate limit window.
+     */
+    private static final long WINDOW = 15 * 60 * 1000L;
+
+    /**
+     * Margin for the clock difference with the Twitter servers.
+     */
+    private static final long CLOCK_MARGIN = 1000L;
+
+    /**
+     * Tweets per page of an incremental timeline, the largest count of the API.
+     */
+    private static final int TIMELINE_PAGE = 200;
+
+    /**
+     * Quota of one endpoint for one credential.
+     */
+    private static final class Quota {
+
+        /**
+         * Calls left in the window.
+         */
+        private int remaining;
+
+        /**
+         * End of the window in milliseconds.
+         */
+        private long reset;
+
+        /**
+         * Calls per window.
+         */
+        private int limit;
+
+        /**
+         * Class Constructor.
+         * @param limit Calls per window.
+         */
+        private Quota(final int limit) {
+            this.limit = limit;
+            this.remaining = limit;
+        }
+
+        /**
+         * Opening a new window once the previous one is over.
+         * @param now Current time in milliseconds.
+         */
+        private void refresh(final long now) {
+            if (reset != 0 && now >= reset) {
+                remaining = limit;
+                reset = 0;
+            }
+        }
+    }
+
+    /**
+     * Credential and its quotas.
+     */
+    private static final class Account {
+
+        /**
+         * Twitter API of the credential.
+         */
+        private final Twitter twitter;
+
+        /**
+         * Quota of every endpoint.
+         */
+        private final Map<Endpoint, Quota> quotas = new EnumMap<>(Endpoint.class);
+
+        /**
+         * Class Constructor.
+         * @param twitter Twitter API of the credential.
+         */
+        private Account(final Twitter twitter) {
+            this.twitter = twitter;
+            for (Endpoint endpoint : Endpoint.values()) {
+                quotas.put(endpoint, new Quota(endpoint.defaultLimit));
+            }
+        }
+    }
+
+    /**
+     * Calls of every endpoint.
+     */
+    private static final Map<Endpoint, StageMetrics> CALLS = new EnumMap<>(Endpoint.class);
+
+    static {
+        for (Endpoint endpoint : Endpoint.values()) {
+            CALLS.put(endpoint, CrawlMetrics.stage("twitter." + endpoint.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    /**
+     * Waits for a credential with remaining calls.
+     */
+    private static final StageMetrics WAITS = CrawlMetrics.stage("twitter.wait");
+
+    /**
+     * Credentials in use.
+     */
+    private final List<Account> accounts = new ArrayList<>();
+
+    /**
+     * Class Constructor.
+     * @param twitters Twitter API of every credential.
+     */
+    public RateLimitedTwitter(final List<Twitter> twitters) {
+        if (twitters.isEmpty()) {
+            throw new IllegalArgumentException("At least one credential is needed");
+        }
+        for (Twitter twitter : twitters) {
+            accounts.add(new Account(twitter));
+        }
+    }
+
+    /**
+     * Connecting to Twitter with several OAuth credentials.
+     * The aquila.twitter system property replaces the live API by a
+     * {@link TwitterStandIn} with the quotas of every credential:
+     * "replay:directory" replays the responses recorded in the directory,
+     * "synthetic:users" or "synthetic:users:seed" serves a {@link SyntheticTwitter},
+     * and "record:directory" calls the live API, recording its responses.
+     * The aquila.twitterWindow system property sets the rate limit window of
+     * the stand-in in milliseconds, 0 (the default) never exhausting a quota.
+     * @param credentials Consumer key, consumer secret, access token and access token secret of every credential.
+     * @return the scheduler.
+     */
+    public static RateLimitedTwitter fromCredentials(final String[][] credentials) {
+        String mode = System.getProperty("aquila.twitter", "live");
+        long window = Long.getLong("aquila.twitterWindow", 0);
+        TwitterStandIn.Responses responses = null;
+        File recordings = null;
+        if (mode.startsWith("replay:")) {
+            responses = TwitterStandIn.recorded(new File(mode.substring("replay:".length())));
+        } else if (mode.startsWith("synthetic:")) {
+            String[] parameters = mode.split(":");
+            responses = new SyntheticTwitter(Long.parseLong(parameters[1]), parameters.length > 2 ? Long.parseLong(parameters[2]) : 0);
+        } else if (mode.startsWith("record:")) {
+            recordings = new File(mode.substring("record:".length()));
+        }
+        List<Twitter> twitters = new ArrayList<>();
+        for (String[] credential : credentials) {
+            if (responses != null) {
+                twitters.add(TwitterStandIn.create(responses, window));
+                continue;
+            }
+            ConfigurationBuilder cb = new ConfigurationBuilder();
+            cb.setDebugEnabled(true)
+                .setJSONStoreEnabled(recordings != null)
+                .setOAuthConsumerKey(credential[0])
+                .setOAuthConsumerSecret(credential[1])
+                .setOAuthAccessToken(credential[2])
+                .setOAuthAccessTokenSecret(credential[3]);
+            Twitter twitter = new TwitterFactory(cb.build()).getInstance();
+            twitters.add(recordings != null ? TwitterStandIn.recording(twitter, recordings) : twitter);
+        }
+        return new RateLimitedTwitter(twitters);
+    }
+
+    /**
+     * Calling an endpoint with the credential having the most remaining calls.
+     * @param <T> Type of the response.
+     * @param endpoint Rate limited endpoint.
+     * @param call Call of the Twitter API.
+     * @return the response.
+     * @throws TwitterException Twitter Exception other than an exceeded rate limit.
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final <T extends TwitterResponse> T execute(final Endpoint endpoint, final Call<T> call) throws TwitterException, InterruptedException {
+        StageMetrics calls = CALLS.get(endpoint);
+        while (true) {
+            long waiting = System.nanoTime();
+            Account account = acquire(endpoint);
+            WAITS.stop(waiting);
+            long start = System.nanoTime();
+            try {
+                T response = call.call(account.twitter);
+                calls.stop(start);
+                update(account, endpoint, response.getRateLimitStatus());
+                return response;
+            }
+            catch (TwitterException e) {
+                calls.stop(start);
+                calls.error();
+                if (!e.exceededRateLimitation()) {
+                    throw e;
+                }
+                exhaust(account, endpoint, e.getRateLimitStatus());
+            }
+        }
+    }
+
+    /**
+     * Reserving a call on the credential with the most remaining calls,
+     * waiting for the earliest window reset when every credential is exhausted.
+     * @param endpoint Rate limited endpoint.
+     * @return the credential.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    private synchronized Account acquire(final Endpoint endpoint) throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Account best = null;
+            long earliest = Long.MAX_VALUE;
+            for (Account account : accounts) {
+                Quota quota = account.quotas.get(endpoint);
+                quota.refresh(now);
+                if (quota.remaining > 0 && (best == null || quota.remaining > best.quotas.get(endpoint).remaining)) {
+                    best = account;
+                }
+                if (quota.remaining <= 0) {
+                    earliest = Math.min(earliest, quota.reset);
+                }
+            }
+            if (best != null) {
+                Quota quota = best.quotas.get(endpoint);
+                if (quota.reset == 0) {
+                    // Window opened by this call until the headers tell otherwise
+                    quota.reset = now + WINDOW;
+                }
+                quota.remaining--;
+                return best;
+            }
+            long wait = Math.max(earliest - now, 0) + CLOCK_MARGIN;
+            System.out.println("Rate limit of " + endpoint + " reached, waiting " + (wait / 1000) + " s");
+            wait(wait);
+        }
+    }
+
+    /**
+     * Updating a quota from the rate limit headers of a response.
+     * @param account Credential used.
+     * @param endpoint Rate limited endpoint.
+     * @param status Rate limit headers, null when absent.
+     */
+    private synchronized void update(final Account account, final Endpoint endpoint, final RateLimitStatus status) {
+        if (status == null) {
+            return;
+        }
+        Quota quota = account.quotas.get(endpoint);
+        quota.limit = status.getLimit();
+        quota.remaining = status.getRemaining();
+        quota.reset = status.getResetTimeInSeconds() * 1000L;
+        notifyAll();
+    }
+
+    /**
+     * Marking a quota as exhausted after a rate limit error.
+     * @param account Credential used.
+     * @param endpoint Rate limited endpoint.
+     * @param status Rate limit headers, null when absent.
+     */
+    private synchronized void exhaust(final Account account, final Endpoint endpoint, final RateLimitStatus status) {
+        Quota quota = account.quotas.get(endpoint);
+        quota.remaining = 0;
+        if (status != null) {
+            quota.reset = status.getResetTimeInSeconds() * 1000L;
+        } else {
+            quota.reset = System.currentTimeMillis() + WINDOW;
+        }
+    }
+
+    /**
+     * @param endpoint Rate limited endpoint.
+     * @return the remaining calls of every credential.
+     */
+    public final synchronized List<Integer> getRemaining(final Endpoint endpoint) {
+        List<Integer> remaining = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Account account : accounts) {
+            Quota quota = account.quotas.get(endpoint);
+            quota.refresh(now);
+            remaining.add(quota.remaining);
+        }
+        return Collections.unmodifiableList(remaining);
+    }
+
+    /**
+     * Showing a user.
+     * @param id UserID.
+     * @return the user.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final User showUser(final long id) throws TwitterException, InterruptedException {
+        return execute(Endpoint.USERS_SHOW, new Call<User>() {
+            @Override
+            public User call(final Twitter twitter) throws TwitterException {
+                return twitter.showUser(id);
+            }
+        });
+    }
+
+    /**
+     * Showing a user.
+     * @param screenName Username.
+     * @return the user.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final User showUser(final String screenName) throws TwitterException, InterruptedException {
+        return execute(Endpoint.USERS_SHOW, new Call<User>() {
+            @Override
+            public User call(final Twitter twitter) throws TwitterException {
+                return twitter.showUser(screenName);
+            }
+        });
+    }
+
+    /**
+     * Looking up to 100 users at once.
+     * @param ids UserIDs.
+     * @return the users found.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final ResponseList<User> lookupUsers(final long... ids) throws TwitterException, InterruptedException {
+        return execute(Endpoint.USERS_LOOKUP, new Call<ResponseList<User>>() {
+            @Override
+            public ResponseList<User> call(final Twitter twitter) throws TwitterException {
+                return twitter.lookupUsers(ids);
+            }
+        });
+    }
+
+    /**
+     * Page of friend IDs.
+     * @param screenName Username.
+     * @param cursor Cursor of the page.
+     * @return the friend IDs.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final IDs getFriendsIDs(final String screenName, final long cursor) throws TwitterException, InterruptedException {
+        return execute(Endpoint.FRIENDS_IDS, new Call<IDs>() {
+            @Override
+            public IDs call(final Twitter twitter) throws TwitterException {
+                return twitter.getFriendsIDs(screenName, cursor);
+            }
+        });
+    }
+
+    /**
+     * Page of friend IDs.
+     * @param userId UserID.
+     * @param cursor Cursor of the page.
+     * @return the friend IDs.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final IDs getFriendsIDs(final long userId, final long cursor) throws TwitterException, InterruptedException {
+        return execute(Endpoint.FRIENDS_IDS, new Call<IDs>() {
+            @Override
+            public IDs call(final Twitter twitter) throws TwitterException {
+                return twitter.getFriendsIDs(userId, cursor);
+            }
+        });
+    }
+
+    /**
+     * Page of follower IDs.
+     * @param userId UserID.
+     * @param cursor Cursor of the page.
+     * @return the follower IDs.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final IDs getFollowersIDs(final long userId, final long cursor) throws TwitterException, InterruptedException {
+        return execute(Endpoint.FOLLOWERS_IDS, new Call<IDs>() {
+            @Override
+            public IDs call(final Twitter twitter) throws TwitterException {
+                return twitter.getFollowersIDs(userId, cursor);
+            }
+        });
+    }
+
+    /**
+     * Timeline of a user.
+     * @param screenName Username.
+     * @param paging Page of the timeline.
+     * @return the tweets.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final ResponseList<Status> getUserTimeline(final String screenName, final Paging paging) throws TwitterException, InterruptedException {
+        return execute(Endpoint.STATUSES_USER_TIMELINE, new Call<ResponseList<Status>>() {
+            @Override
+            public ResponseList<Status> call(final Twitter twitter) throws TwitterException {
+                return twitter.getUserTimeline(screenName, paging);
+            }
+        });
+    }
+
+    /**
+     * Tweets of a timeline newer than a known one, newest first.
+     * Pages of the newer tweets are requested with sinceId, going
+     * backwards with maxId until a page reaches sinceId or comes back
+     * empty, so a timeline with k new pages costs k or k + 1 calls.
+     * @param screenName Username.
+     * @param sinceId Newest TweetID already known, positive.
+     * @return the newer tweets, at most the 3200 the API keeps.
+     * @throws TwitterException Twitter Exception
+     * @throws InterruptedException Interrupted while waiting for a window reset.
+     */
+    public final List<Status> getUserTimelineSince(final String screenName, final long sinceId) throws TwitterException, InterruptedException {
+        List<Status> statuses = new ArrayList<>();
+        long maxId = 0;
+        while (true) {
+            Paging paging = new Paging(1, TIMELINE_PAGE, sinceId);
+            if (maxId > 0) {
+                paging.setMaxId(maxId);
+            }
+            ResponseList<Status> page = getUserTimeline(screenName, paging);
+            if (page.isEmpty()) {
+                return statuses;
+            }
+            statuses.addAll(page);
+            // maxId is inclusive
+            maxId = page.get(page.size() - 1).getId() - 1;
+            if (maxId <= sinceId) {
+                return statuses;
+            }
+        }
+    }
+}
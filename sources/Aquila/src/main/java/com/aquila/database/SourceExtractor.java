@@ -0,0 +1,191 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jsoup.Jsoup;
+
+/**
+ * Extracting the client name out of the source of a tweet.
+ * Sources are anchors like {@code <a href="...">Twitter for iPhone</a>}:
+ * the anchor text is scanned directly and its entities decoded, Jsoup only
+ * parsing what the scan does not understand. Raw sources map to canonical
+ * names in a bounded dictionary, so each client is parsed once and every
+ * tweet of a client shares the same name instance.
+ * @author Aquila
+ */
+public class SourceExtractor {
+
+    /**
+     * Largest number of raw sources kept in the dictionary.
+     */
+    private final int maxSources;
+
+    /**
+     * Canonical names by raw source.
+     */
+    private final ConcurrentMap<String, String> sources = new ConcurrentHashMap<>();
+
+    /**
+     * Canonical names, shared by raw sources differing only by their URL.
+     */
+    private final ConcurrentMap<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Class Constructor.
+     * @param maxSources Largest number of raw sources kept in the dictionary.
+     */
+    public SourceExtractor(final int maxSources) {
+        this.maxSources = maxSources;
+    }
+
+    /**
+     * Returning Source without URL.
+     * @param source Raw source of a tweet.
+     * @return the canonical name of the client.
+     */
+    public final String extract(final String source) {
+        if (source == null) {
+            return "";
+        }
+        String name = sources.get(source);
+        if (name != null) {
+            return name;
+        }
+        name = scan(source);
+        if (name == null) {
+            name = Jsoup.parse(source).text();
+        }
+        if (sources.size() >= maxSources) {
+            return name;
+        }
+        String canonical = names.putIfAbsent(name, name);
+        if (canonical == null) {
+            canonical = name;
+        }
+        sources.putIfAbsent(source, canonical);
+        return canonical;
+    }
+
+    /**
+     * @return the number of raw sources in the dictionary.
+     */
+    public final int size() {
+        return sources.size();
+    }
+
+    /**
+     * Text of a source made of one anchor or of plain text.
+     * @param source Raw source.
+     * @return the text with collapsed whitespace, or null when the source needs a real parser.
+     */
+    static String scan(final String source) {
+        int start = 0;
+        int end = source.length();
+        if (source.startsWith("<a ") || source.startsWith("<a>")) {
+            start = tagEnd(source) + 1;
+            end = source.lastIndexOf("</a>");
+            if (end < start || end + 4 != source.length()) {
+                return null;
+            }
+        }
+        StringBuilder text = new StringBuilder(end - start);
+        boolean space = false;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '<') {
+                return null;
+            }
+            if (c == '&') {
+                int semicolon = source.indexOf(';', i);
+                if (semicolon < 0 || semicolon >= end) {
+                    return null;
+                }
+                int decoded = entity(source.substring(i + 1, semicolon));
+                if (decoded < 0) {
+                    return null;
+                }
+                i = semicolon;
+                c = (char) decoded;
+                if (Character.isSupplementaryCodePoint(decoded)) {
+                    if (space) {
+                        text.append(' ');
+                        space = false;
+                    }
+                    text.appendCodePoint(decoded);
+                    continue;
+                }
+            }
+            if (Character.isWhitespace(c)) {
+                space = text.length() > 0;
+            } else {
+                if (space) {
+                    text.append(' ');
+                    space = false;
+                }
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * End of the opening tag, skipping the quoted attribute values.
+     * @param source Raw source starting with a tag.
+     * @return the index of the closing bracket, or -1 when missing.
+     */
+    private static int tagEnd(final String source) {
+        char quote = 0;
+        for (int i = 1; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Code point of an HTML entity.
+     * @param entity Entity between its ampersand and semicolon.
+     * @return the code point, or -1 when unknown.
+     */
+    private static int entity(final String entity) {
+        switch (entity) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            default:
+                break;
+        }
+        if (entity.length() < 2 || entity.charAt(0) != '#') {
+            return -1;
+        }
+        try {
+            int codePoint = entity.charAt(1) == 'x' || entity.charAt(1) == 'X'
+                    ? Integer.parseInt(entity.substring(2), 16)
+                    : Integer.parseInt(entity.substring(1));
+            return Character.isValidCodePoint(codePoint) && codePoint != 0 ? codePoint : -1;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
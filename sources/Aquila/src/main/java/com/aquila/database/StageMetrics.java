@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, calls and errors of one crawl stage.
+ * Every call is recorded twice: since the start of the crawl, for JMX,
+ * and since the last report, for the periodic log line of {@link CrawlMetrics}.
+ * @author Aquila
+ */
+public class StageMetrics implements StageMetricsMBean {
+
+    /**
+     * Microseconds per millisecond.
+     */
+    private static final double MICROS = 1000.0;
+
+    /**
+     * Name of the stage.
+     */
+    private final String name;
+
+    /**
+     * Latencies since the start or the last reset.
+     */
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    /**
+     * Latencies since the last report.
+     */
+    private final LatencyHistogram recent = new LatencyHistogram();
+
+    /**
+     * Errors since the start or the last reset.
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Errors since the last report.
+     */
+    private final AtomicLong recentErrors = new AtomicLong();
+
+    /**
+     * Start or last reset in nanoseconds.
+     */
+    private volatile long since = System.nanoTime();
+
+    /**
+     * Class Constructor.
+     * @param name Name of the stage.
+     */
+    StageMetrics(final String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the stage.
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Recording a call.
+     * @param start Start of the call from System.nanoTime().
+     */
+    public final void stop(final long start) {
+        long micros = (System.nanoTime() - start) / 1000;
+        total.record(micros);
+        recent.record(micros);
+    }
+
+    /**
+     * Recording a failed call, besides its latency.
+     */
+    public final void error() {
+        errors.incrementAndGet();
+        recentErrors.incrementAndGet();
+    }
+
+    /**
+     * Summary of the calls since the last report, forgetting them.
+     * @param seconds Seconds since the last report.
+     * @return the summary, null without calls.
+     */
+    final String report(final double seconds) {
+        long count = recent.getCount();
+        long failed = recentErrors.getAndSet(0);
+        if (count == 0 && failed == 0) {
+            return null;
+        }
+        String summary = String.format(Locale.ROOT, "%s %d (%.1f/s) p50 %.1f p99 %.1f max %.1f ms",
+                name, count, count / seconds, recent.getValueAtQuantile(0.5) / MICROS, recent.getValueAtQuantile(0.99) / MICROS, recent.getMax() / MICROS);
+        recent.reset();
+        return failed == 0 ? summary : summary + " err " + failed;
+    }
+
+    @Override
+    public final long getCount() {
+        return total.getCount();
+    }
+
+    @Override
+    public final long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public final double getThroughput() {
+        return total.getCount() * 1e9 / Math.max(System.nanoTime() - since, 1);
+    }
+
+    @Override
+    public final double getMeanMillis() {
+        return total.getMean() / MICROS;
+    }
+
+    @Override
+    public final double getP50Millis() {
+        return total.getValueAtQuantile(0.5) / MICROS;
+    }
+
+    @Override
+    public final double getP90Millis() {
+        return total.getValueAtQuantile(0.9) / MICROS;
+    }
+
+    @Override
+    public final double getP99Millis() {
+        return total.getValueAtQuantile(0.99) / MICROS;
+    }
+
+    @Override
+    public final double getP999Millis() {
+        return total.getValueAtQuantile(0.999) / MICROS;
+    }
+
+    @Override
+    public final double getMaxMillis() {
+        return total.getMax() / MICROS;
+    }
+
+    @Override
+    public final void reset() {
+        total.reset();
+        errors.set(0);
+        since = System.nanoTime();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+/**
+ * JMX view of the metrics of one crawl stage, since the start of the crawl.
+ * @author Aquila
+ */
+public interface StageMetricsMBean {
+
+    /**
+     * @return the number of calls.
+     */
+    long getCount();
+
+    /**
+     * @return the number of failed calls.
+     */
+    long getErrors();
+
+    /**
+     * @return the calls per second.
+     */
+    double getThroughput();
+
+    /**
+     * @return the mean latency in milliseconds.
+     */
+    double getMeanMillis();
+
+    /**
+     * @return the median latency in milliseconds.
+     */
+    double getP50Millis();
+
+    /**
+     * @return the 90th percentile of the latency in milliseconds.
+     */
+    double getP90Millis();
+
+    /**
+     * @return the 99th percentile of the latency in milliseconds.
+     */
+    double getP99Millis();
+
+    /**
+     * @return the 99.9th percentile of the latency in milliseconds.
+     */
+    double getP999Millis();
+
+    /**
+     * @return the largest latency in milliseconds.
+     */
+    double getMaxMillis();
+
+    /**
+     * Forgetting the calls made so far.
+     */
+    void reset();
+}
@@ -0,0 +1,213 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import twitter4j.FilterQuery;
+import twitter4j.StallWarning;
+import twitter4j.Status;
+import twitter4j.StatusDeletionNotice;
+import twitter4j.StatusListener;
+import twitter4j.TwitterStream;
+import twitter4j.TwitterStreamFactory;
+import twitter4j.conf.ConfigurationBuilder;
+
+/**
+ * Continuous ingestion of the tweets of the crawled users from the filtered status stream.
+ * Instead of polling the latest tweets of every timeline, one connection
+ * to statuses/filter follows the users, with the language filter applied
+ * by the stream. Every status written by a followed user goes to the sink
+ * like a crawled one, with its retweet, hashtags and source; the batch
+ * writer behind the sink turns the stream into micro-batches, flushed by
+ * size or by time. Statuses of other users, such as replies to or
+ * retweets of the followed users, are skipped: their author is not in the
+ * graph. twitter4j reconnects with back-off when the connection drops.
+ * @author Aquila
+ */
+public class StreamIngester implements AutoCloseable {
+
+    /**
+     * Users followed by one connection at most, the limit of statuses/filter.
+     */
+    public static final int MAX_FOLLOW = 5000;
+
+    /**
+     * Statuses per second of the stand-in stream by default.
+     */
+    private static final double STAND_IN_RATE = 50;
+
+    /**
+     * Handling of the statuses, sink included.
+     */
+    private static final StageMetrics STATUSES = CrawlMetrics.stage("stream.status");
+
+    /**
+     * Stream of the statuses.
+     */
+    private final TwitterStream stream;
+
+    /**
+     * Destination of the tweets.
+     */
+    private final GraphSink sink;
+
+    /**
+     * Local stand-in of the stream, or null.
+     */
+    private final StreamStandIn standIn;
+
+    /**
+     * Followed UserIDs, sorted.
+     */
+    private volatile long[] followed = new long[0];
+
+    /**
+     * Released once the ingester is closed.
+     */
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * Class Constructor.
+     * @param stream Stream of the statuses, not yet filtered.
+     * @param sink Destination of the tweets.
+     */
+    public StreamIngester(final TwitterStream stream, final GraphSink sink) {
+        this(stream, sink, null);
+    }
+
+    /**
+     * Class Constructor.
+     * @param stream Stream of the statuses, not yet filtered.
+     * @param sink Destination of the tweets.
+     * @param standIn Local stand-in of the stream, closed with the ingester, or null.
+     */
+    private StreamIngester(final TwitterStream stream, final GraphSink sink, final StreamStandIn standIn) {
+        this.stream = stream;
+        this.sink = sink;
+        this.standIn = standIn;
+        stream.addListener(new StatusListener() {
+            @Override
+            public void onStatus(final Status status) {
+                long start = System.nanoTime();
+                if (Arrays.binarySearch(followed, status.getUser().getId()) >= 0) {
+                    try {
+                        sink.addTweet(TweetRecord.fromStatus(String.valueOf(status.getUser().getId()), status));
+                    }
+                    catch (Exception e) {
+                        STATUSES.error();
+                        System.out.println(e.getMessage());
+                    }
+                    STATUSES.stop(start);
+                }
+            }
+
+            @Override
+            public void onDeletionNotice(final StatusDeletionNotice notice) {
+                // Deleted tweets are kept, like the crawled ones
+            }
+
+            @Override
+            public void onTrackLimitationNotice(final int numberOfLimitedStatuses) {
+                System.out.println("Stream limited, " + numberOfLimitedStatuses + " statuses not delivered");
+            }
+
+            @Override
+            public void onScrubGeo(final long userId, final long upToStatusId) {
+                // Coordinates are only read from new statuses
+            }
+
+            @Override
+            public void onStallWarning(final StallWarning warning) {
+                System.out.println("Stream stalled: " + warning.getMessage() + " " + warning.getPercentFull() + "%");
+            }
+
+            @Override
+            public void onException(final Exception e) {
+                STATUSES.error();
+                System.out.println(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Stream of one credential, the local stand-in being started for a synthetic Twitter.
+     * aquila.twitter=synthetic:N[:seed] streams the same users as the
+     * synthetic API, at aquila.streamRate statuses per second, and
+     * aquila.streamUrl points a live stream to another base URL.
+     * @param sink Destination of the tweets.
+     * @param credential Consumer key and secret, access token and secret.
+     * @return the ingester, to start.
+     * @throws IOException IO Exception
+     */
+    public static StreamIngester fromCredential(final GraphSink sink, final String[] credential) throws IOException {
+        String mode = System.getProperty("aquila.twitter", "live");
+        ConfigurationBuilder cb = new ConfigurationBuilder();
+        cb.setDebugEnabled(true)
+            .setOAuthConsumerKey(credential[0])
+            .setOAuthConsumerSecret(credential[1])
+            .setOAuthAccessToken(credential[2])
+            .setOAuthAccessTokenSecret(credential[3]);
+        StreamStandIn standIn = null;
+        if (mode.startsWith("synthetic:")) {
+            String[] parameters = mode.split(":");
+            SyntheticTwitter twitter = new SyntheticTwitter(Long.parseLong(parameters[1]), parameters.length > 2 ? Long.parseLong(parameters[2]) : 0);
+            double rate = Double.parseDouble(System.getProperty("aquila.streamRate", String.valueOf(STAND_IN_RATE)));
+            standIn = new StreamStandIn(twitter, rate);
+            cb.setStreamBaseURL(standIn.getStreamBaseURL());
+        } else if (System.getProperty("aquila.streamUrl") != null) {
+            cb.setStreamBaseURL(System.getProperty("aquila.streamUrl"));
+        }
+        return new StreamIngester(new TwitterStreamFactory(cb.build()).getInstance(), sink, standIn);
+    }
+
+    /**
+     * Following users, replacing the users followed before.
+     * @param users UserIDs, the first {@link #MAX_FOLLOW} being followed.
+     * @param languages Languages of the statuses, none for every language.
+     */
+    public final synchronized void start(final long[] users, final String... languages) {
+        long[] follow = Arrays.copyOf(users, Math.min(users.length, MAX_FOLLOW));
+        if (users.length > MAX_FOLLOW) {
+            System.out.println("Following " + MAX_FOLLOW + " users of " + users.length);
+        }
+        FilterQuery query = new FilterQuery().follow(follow);
+        if (languages.length > 0) {
+            query.language(languages);
+        }
+        Arrays.sort(follow);
+        followed = follow;
+        stream.filter(query);
+    }
+
+    /**
+     * Waiting for the ingester to be closed.
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public final void await() throws InterruptedException {
+        closed.await();
+    }
+
+    /**
+     * Override Closing stream, then writing the buffered tweets.
+     */
+    @Override
+    public final void close() {
+        stream.shutdown();
+        stream.cleanUp();
+        if (standIn != null) {
+            standIn.close();
+        }
+        try {
+            sink.flush();
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+        closed.countDown();
+    }
+}
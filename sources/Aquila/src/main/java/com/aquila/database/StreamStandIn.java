@@ -0,0 +1,203 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import twitter4j.JSONObject;
+
+/**
+ * Local stand-in for the statuses/filter endpoint of the streaming API.
+ * The stand-in listens on a free local port and answers every filter
+ * request with an endless stream of newline delimited statuses of a
+ * {@link SyntheticTwitter}, posted now by the followed users at the given
+ * rate. Like the real endpoint, only the statuses in one of the requested
+ * languages are sent, and blank lines keep the connection alive while
+ * nothing matches. twitter4j connects to it through its stream base URL.
+ * @author Aquila
+ */
+public final class StreamStandIn implements AutoCloseable {
+
+    /**
+     * Path of the filter endpoint under the stream base URL.
+     */
+    private static final String FILTER = "/1.1/statuses/filter.json";
+
+    /**
+     * Milliseconds between two keep-alive lines, like the real API.
+     */
+    private static final long KEEP_ALIVE = 30000;
+
+    /**
+     * Source of the statuses.
+     */
+    private final SyntheticTwitter twitter;
+
+    /**
+     * Statuses per second of a connection, matching or not.
+     */
+    private final double rate;
+
+    /**
+     * Number of the next status of the stream, shared by the connections.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * HTTP server of the endpoint.
+     */
+    private final HttpServer server;
+
+    /**
+     * Threads of the connections.
+     */
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+
+    /**
+     * Class Constructor, starting the server.
+     * @param twitter Source of the statuses.
+     * @param rate Statuses per second of a connection, matching or not.
+     * @throws IOException IO Exception
+     */
+    public StreamStandIn(final SyntheticTwitter twitter, final double rate) throws IOException {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        this.twitter = twitter;
+        this.rate = rate;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(FILTER, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                filter(exchange);
+            }
+        });
+        server.setExecutor(connections);
+        server.start();
+    }
+
+    /**
+     * Stream base URL of the stand-in, for ConfigurationBuilder#setStreamBaseURL.
+     * @return the URL.
+     */
+    public String getStreamBaseURL() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/1.1/";
+    }
+
+    /**
+     * Streaming the statuses of a filter request until the client disconnects.
+     * @param exchange Filter request.
+     * @throws IOException IO Exception
+     */
+    private void filter(final HttpExchange exchange) throws IOException {
+        Map<String, String> query = form(exchange.getRequestBody());
+        long[] follow = ids(query.get("follow"));
+        List<String> languages = query.containsKey("language") ? Arrays.asList(query.get("language").split(",")) : null;
+        if (follow.length == 0) {
+            exchange.sendResponseHeaders(406, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        Random random = new Random();
+        long interval = (long) (1000 / rate);
+        long lastWrite = System.currentTimeMillis();
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                long user = follow[random.nextInt(follow.length)];
+                JSONObject status = twitter.streamedStatus(user, sequence.getAndIncrement(), System.currentTimeMillis());
+                if (languages == null || languages.contains(status.getString("lang"))) {
+                    out.write((status.toString() + "\r\n").getBytes(StandardCharsets.UTF_8));
+                } else if (System.currentTimeMillis() - lastWrite >= KEEP_ALIVE) {
+                    out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    continue;
+                }
+                out.flush();
+                lastWrite = System.currentTimeMillis();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            // Disconnected by the client
+        }
+    }
+
+    /**
+     * Parameters of a form encoded request body.
+     * @param body Request body.
+     * @return the parameters by name.
+     * @throws IOException IO Exception
+     */
+    private static Map<String, String> form(final InputStream body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : new String(bytes.toByteArray(), StandardCharsets.UTF_8).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * UserIDs of a comma separated list.
+     * @param list List, possibly null.
+     * @return the UserIDs.
+     */
+    private static long[] ids(final String list) {
+        List<Long> ids = new ArrayList<>();
+        if (list != null) {
+            for (String id : list.split(",")) {
+                if (!id.isEmpty()) {
+                    ids.add(Long.parseLong(id));
+                }
+            }
+        }
+        long[] array = new long[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Override Closing server and its connections.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        connections.shutdownNow();
+    }
+}
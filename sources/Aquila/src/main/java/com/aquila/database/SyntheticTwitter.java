@@ -0,0 +1,544 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import twitter4j.JSONArray;
+import twitter4j.JSONObject;
+import twitter4j.Paging;
+
+/**
+ * Synthetic Twitter of a fixed number of users, answering like the API.
+ * Users are numbered from 1 to the given count and named user1, user2...
+ * Every other Username resolves to user1, the hub followed by every other
+ * user, so the crawlers started on their usual main account crawl the whole
+ * graph. Follower and friend counts follow power laws, and the lists are
+ * drawn without repetition from a permutation of the users seeded by the
+ * user. Timelines mix languages, sources, hashtags, retweets and
+ * geocalised tweets in fixed proportions. Nothing is stored: every response
+ * is computed again from the seed and the user, so a crawl of millions of
+ * users is deterministic and needs no memory.
+ * @author Aquila
+ */
+public class SyntheticTwitter implements TwitterStandIn.Responses {
+
+    /**
+     * IDs per page of friends/ids and followers/ids.
+     */
+    private static final int IDS_PAGE = 5000;
+
+    /**
+     * Tweets per page of statuses/user_timeline by default.
+     */
+    private static final int TIMELINE_PAGE = 20;
+
+    /**
+     * Tweets of a timeline at most, like the API.
+     */
+    private static final int TIMELINE_MAX = 3200;
+
+    /**
+     * Exponent of the power law of the follower counts.
+     */
+    private static final double FOLLOWERS_EXPONENT = 2.1;
+
+    /**
+     * Smallest follower count of the power law.
+     */
+    private static final double FOLLOWERS_MIN = 5;
+
+    /**
+     * Exponent of the power law of the friend counts.
+     */
+    private static final double FRIENDS_EXPONENT = 2.5;
+
+    /**
+     * Smallest friend count of the power law.
+     */
+    private static final double FRIENDS_MIN = 20;
+
+    /**
+     * Largest friend count, the follow limit of the API.
+     */
+    private static final int FRIENDS_MAX = 5000;
+
+    /**
+     * Exponent of the power law of the tweet counts.
+     */
+    private static final double TWEETS_EXPONENT = 1.8;
+
+    /**
+     * Smallest tweet count of the power law.
+     */
+    private static final double TWEETS_MIN = 5;
+
+    /**
+     * Last tweet of every timeline, 2018-03-01 UTC.
+     */
+    private static final long LAST_TWEET = 1519862400000L;
+
+    /**
+     * Creation of the first account, 2007-01-01 UTC.
+     */
+    private static final long FIRST_ACCOUNT = 1167609600000L;
+
+    /**
+     * Share of retweets.
+     */
+    private static final double RETWEETS = 0.3;
+
+    /**
+     * Share of geocalised tweets.
+     */
+    private static final double GEOCALISED = 0.02;
+
+    /**
+     * Share of users without location.
+     */
+    private static final double NO_LOCATION = 0.3;
+
+    /**
+     * Languages of the users and tweets.
+     */
+    private static final String[] LANGUAGES = {"fr", "en", "es", "ar", "de", "it", "pt"};
+
+    /**
+     * Cumulated shares of {@link #LANGUAGES}.
+     */
+    private static final double[] LANGUAGE_SHARES = {0.55, 0.80, 0.86, 0.91, 0.95, 0.98, 1.0};
+
+    /**
+     * Words of every language of {@link #LANGUAGES}.
+     */
+    private static final String[][] WORDS = {
+        {"le", "la", "les", "de", "et", "pour", "avec", "nous", "France", "président", "réforme", "ensemble", "aujourd'hui", "merci", "élection", "projet", "européen", "travail", "jeunes", "avenir"},
+        {"the", "and", "for", "with", "we", "today", "thanks", "great", "people", "new", "world", "future", "vote", "news", "team", "live", "now", "watch", "support", "time"},
+        {"el", "la", "de", "y", "con", "para", "hoy", "gracias", "gente", "nuevo", "mundo", "futuro"},
+        {"في", "من", "على", "مع", "اليوم", "شكرا", "العالم", "الناس"},
+        {"der", "die", "und", "mit", "für", "heute", "danke", "Zukunft", "Europa", "neue"},
+        {"il", "la", "di", "e", "con", "per", "oggi", "grazie", "futuro", "Europa"},
+        {"o", "a", "de", "e", "com", "para", "hoje", "obrigado", "futuro", "mundo"}
+    };
+
+    /**
+     * Hashtags, the first ones the most frequent.
+     */
+    private static final String[] HASHTAGS = {"Macron", "France", "EnMarche", "Europe", "Paris", "JO2024", "Politique", "Brexit", "Climat", "Trump", "MakeOurPlanetGreatAgain", "Education", "Emploi", "Sécurité", "Santé", "Culture", "Sport", "Football", "Économie", "Numérique", "Startup", "IA", "Innovation", "Afrique", "Syrie", "Migrants", "Grève", "SNCF", "Retraites", "Jeunesse"};
+
+    /**
+     * Locations of the users with one, the first ones the most frequent, the last ones spelt as users do.
+     */
+    private static final String[] LOCATIONS = {"Paris, France", "France", "Lyon, France", "Marseille, France", "Toulouse, France", "Bordeaux", "Lille, France", "Nantes, France", "Strasbourg", "Montpellier, France", "Nice, France", "Rennes, France", "Bruxelles, Belgique", "Genève, Suisse", "Montréal, Québec", "London, England", "New York, NY", "Madrid, España", "Berlin, Deutschland", "Dakar, Sénégal", "Alger, Algérie", "Casablanca, Maroc", "Abidjan, Côte d'Ivoire",
+        "paris", "Paris \uD83C\uDDEB\uD83C\uDDF7", "PARIS, FRANCE", "Lyon \uD83C\uDDEB\uD83C\uDDF7", "Marseille | Provence", "Bruxelles \uD83C\uDDE7\uD83C\uDDEA",
+        "Montreal, QC", "Quelque part en France", "Ici et ailleurs", "\uD83C\uDF0D", "null"};
+
+    /**
+     * Coordinates of some places, latitude and longitude.
+     */
+    private static final double[][] PLACES = {{48.8566, 2.3522}, {45.7640, 4.8357}, {43.2965, 5.3698}, {43.6047, 1.4442}, {44.8378, -0.5792}, {50.6292, 3.0573}, {47.2184, -1.5536}, {48.5734, 7.7521}, {50.8503, 4.3517}, {51.5074, -0.1278}};
+
+    /**
+     * Sources of the tweets, the first ones the most frequent.
+     */
+    private static final String[] SOURCES = {
+        "<a href=\"http://twitter.com/download/iphone\" rel=\"nofollow\">Twitter for iPhone</a>",
+        "<a href=\"http://twitter.com/download/android\" rel=\"nofollow\">Twitter for Android</a>",
+        "<a href=\"http://twitter.com\" rel=\"nofollow\">Twitter Web Client</a>",
+        "<a href=\"https://about.twitter.com/products/tweetdeck\" rel=\"nofollow\">TweetDeck</a>",
+        "<a href=\"https://mobile.twitter.com\" rel=\"nofollow\">Twitter Lite</a>",
+        "<a href=\"https://hootsuite.com\" rel=\"nofollow\">Hootsuite</a>",
+        "<a href=\"http://instagram.com\" rel=\"nofollow\">Instagram</a>"
+    };
+
+    /**
+     * Number of users.
+     */
+    private final long users;
+
+    /**
+     * Seed of the graph.
+     */
+    private final long seed;
+
+    /**
+     * Step of the permutations of the users other than the hub, coprime with their number.
+     */
+    private final long step;
+
+    /**
+     * Class Constructor.
+     * @param users Number of users, at least 2.
+     * @param seed Seed of the graph.
+     */
+    public SyntheticTwitter(final long users, final long seed) {
+        if (users < 2) {
+            throw new IllegalArgumentException("At least 2 users are needed: " + users);
+        }
+        this.users = users;
+        this.seed = seed;
+        long s = (long) (users * 0.6180339887) | 1;
+        while (gcd(s, users - 1) != 1) {
+            s++;
+        }
+        this.step = s;
+    }
+
+    /**
+     * @param a First number.
+     * @param b Second number.
+     * @return the greatest common divisor.
+     */
+    private static long gcd(final long a, final long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Random generator of one thing of one user, the same for every call.
+     * @param user UserID.
+     * @param salt Thing generated.
+     * @return the generator.
+     */
+    private Random random(final long user, final long salt) {
+        long z = seed + user * 0x9E3779B97F4A7C15L + salt * 0xC2B2AE3D27D4EB4FL;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    /**
+     * Value of a power law.
+     * @param random Random generator.
+     * @param min Smallest value.
+     * @param exponent Exponent, above 1.
+     * @return the value.
+     */
+    private static long powerLaw(final Random random, final double min, final double exponent) {
+        return (long) (min * Math.pow(1 - random.nextDouble(), -1 / (exponent - 1)));
+    }
+
+    /**
+     * Index drawn with shares decreasing like 1/rank.
+     * @param random Random generator.
+     * @param count Number of indexes.
+     * @return the index.
+     */
+    private static int zipf(final Random random, final int count) {
+        return (int) Math.min(count - 1, Math.floor(Math.exp(random.nextDouble() * Math.log(count + 1)) - 1));
+    }
+
+    /**
+     * @param user UserID.
+     * @return true when the user exists.
+     */
+    private boolean exists(final long user) {
+        return user >= 1 && user <= users;
+    }
+
+    /**
+     * UserID of a Username.
+     * @param screenName Username.
+     * @return the UserID, 1 for unknown names.
+     */
+    private long resolve(final String screenName) {
+        if (screenName.startsWith("user")) {
+            try {
+                long user = Long.parseLong(screenName.substring(4));
+                if (exists(user)) {
+                    return user;
+                }
+            }
+            catch (NumberFormatException e) {
+                // Not a synthetic user
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param user UserID.
+     * @return the number of followers.
+     */
+    final long followersCount(final long user) {
+        if (user == 1) {
+            return users - 1;
+        }
+        return Math.min(users - 2, powerLaw(random(user, 1), FOLLOWERS_MIN, FOLLOWERS_EXPONENT));
+    }
+
+    /**
+     * @param user UserID.
+     * @return the number of friends.
+     */
+    final long friendsCount(final long user) {
+        return Math.min(Math.min(users - 2, FRIENDS_MAX), powerLaw(random(user, 2), FRIENDS_MIN, FRIENDS_EXPONENT));
+    }
+
+    /**
+     * @param user UserID.
+     * @return the number of tweets of the timeline.
+     */
+    final int statusesCount(final long user) {
+        return (int) Math.min(TIMELINE_MAX, powerLaw(random(user, 3), TWEETS_MIN, TWEETS_EXPONENT));
+    }
+
+    /**
+     * Related user of a list, the users other than the hub being drawn without repetition.
+     * @param user UserID.
+     * @param salt List of the user.
+     * @param index Index in the list.
+     * @return the UserID.
+     */
+    private long related(final long user, final long salt, final long index) {
+        if (user == 1 && salt == 1) {
+            // The hub is followed by every other user
+            return index + 2;
+        }
+        long offset = Math.floorMod(random(user, salt).nextLong(), users - 1);
+        // Permutation of the users other than the hub, the user itself replaced by the hub
+        long other = (offset + index % (users - 1) * step) % (users - 1) + 2;
+        return other == user ? 1 : other;
+    }
+
+    /**
+     * Page of cursored IDs.
+     * @param user UserID.
+     * @param salt List of the user.
+     * @param count Size of the list.
+     * @param cursor Cursor of the page, -1 for the first one.
+     * @return the JSON of the page.
+     */
+    private String ids(final long user, final long salt, final long count, final long cursor) {
+        long from = cursor < 0 ? 0 : cursor;
+        long to = Math.min(count, from + IDS_PAGE);
+        JSONArray ids = new JSONArray();
+        for (long i = from; i < to; i++) {
+            ids.put(related(user, salt, i));
+        }
+        long next = to < count ? to : 0;
+        long previous = from == 0 ? 0 : -from;
+        return new JSONObject()
+                .put("ids", ids)
+                .put("next_cursor", next)
+                .put("next_cursor_str", String.valueOf(next))
+                .put("previous_cursor", previous)
+                .put("previous_cursor_str", String.valueOf(previous))
+                .toString();
+    }
+
+    /**
+     * Date as written by the API.
+     * @param time Epoch milliseconds.
+     * @return the date.
+     */
+    private static String date(final long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * User object of the API.
+     * @param user UserID.
+     * @return the user.
+     */
+    final JSONObject user(final long user) {
+        Random random = random(user, 4);
+        long followers = followersCount(user);
+        String language = LANGUAGES[language(random)];
+        String location = random.nextDouble() < NO_LOCATION ? "" : LOCATIONS[zipf(random, LOCATIONS.length)];
+        return new JSONObject()
+                .put("id", user)
+                .put("id_str", String.valueOf(user))
+                .put("name", "User " + user)
+                .put("screen_name", "user" + user)
+                .put("location", location)
+                .put("description", text(random, language, 8))
+                .put("protected", false)
+                .put("verified", followers > 100000 || random.nextInt(1000) == 0)
+                .put("followers_count", followers)
+                .put("friends_count", friendsCount(user))
+                .put("favourites_count", powerLaw(random, 1, 1.5) - 1)
+                .put("statuses_count", statusesCount(user))
+                .put("lang", language)
+                .put("created_at", date(FIRST_ACCOUNT + (long) (random.nextDouble() * (LAST_TWEET - FIRST_ACCOUNT))));
+    }
+
+    /**
+     * Index of a language drawn with its share.
+     * @param random Random generator.
+     * @return the index in {@link #LANGUAGES}.
+     */
+    private static int language(final Random random) {
+        double share = random.nextDouble();
+        int i = 0;
+        while (share > LANGUAGE_SHARES[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Words of a language.
+     * @param random Random generator.
+     * @param language Language.
+     * @param count Number of words.
+     * @return the text.
+     */
+    private static String text(final Random random, final String language, final int count) {
+        String[] words = WORDS[Arrays.asList(LANGUAGES).indexOf(language)];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * TweetID of a tweet of a timeline, increasing with time.
+     * @param user UserID.
+     * @param index Index in the timeline, 0 for the oldest.
+     * @return the TweetID.
+     */
+    private static long statusId(final long user, final int index) {
+        return user * TIMELINE_MAX + index;
+    }
+
+    /**
+     * Status object of the API, with its author.
+     * @param user UserID.
+     * @param index Index in the timeline, 0 for the oldest.
+     * @param retweetable True when the tweet may be a retweet.
+     * @return the status.
+     */
+    final JSONObject status(final long user, final int index, final boolean retweetable) {
+        Random random = random(statusId(user, index), 5);
+        int count = statusesCount(user);
+        long interval = 3600000L + random(user, 6).nextInt(72) * 3600000L;
+        long time = LAST_TWEET - (count - 1 - index) * interval;
+        String language = LANGUAGES[language(random)];
+        JSONObject status = new JSONObject()
+                .put("id", statusId(user, index))
+                .put("id_str", String.valueOf(statusId(user, index)))
+                .put("created_at", date(time))
+                .put("source", SOURCES[zipf(random, SOURCES.length)])
+                .put("truncated", false)
+                .put("lang", language)
+                .put("retweet_count", powerLaw(random, 1, 1.7) - 1)
+                .put("favorite_count", powerLaw(random, 1, 1.6) - 1)
+                .put("user", user(user));
+        StringBuilder text = new StringBuilder(text(random, language, 6 + random.nextInt(10)));
+        JSONArray hashtags = new JSONArray();
+        int tags = random.nextDouble() < 0.6 ? 0 : 1 + zipf(random, 3);
+        for (int i = 0; i < tags; i++) {
+            String hashtag = HASHTAGS[zipf(random, HASHTAGS.length)];
+            text.append(" #");
+            int start = text.length() - 1;
+            text.append(hashtag);
+            hashtags.put(new JSONObject().put("text", hashtag).put("indices", new JSONArray().put(start).put(text.length())));
+        }
+        status.put("entities", new JSONObject().put("hashtags", hashtags).put("urls", new JSONArray()).put("user_mentions", new JSONArray()));
+        if (random.nextDouble() < GEOCALISED) {
+            double[] place = PLACES[zipf(random, PLACES.length)];
+            double latitude = place[0] + random.nextGaussian() * 0.05;
+            double longitude = place[1] + random.nextGaussian() * 0.05;
+            status.put("geo", new JSONObject().put("type", "Point").put("coordinates", new JSONArray().put(latitude).put(longitude)));
+            status.put("coordinates", new JSONObject().put("type", "Point").put("coordinates", new JSONArray().put(longitude).put(latitude)));
+        }
+        if (retweetable && random.nextDouble() < RETWEETS) {
+            // Retweet of an older tweet of a popular user
+            long author = 1 + zipf(random, (int) Math.min(users, Integer.MAX_VALUE - 1));
+            if (author != user) {
+                JSONObject original = status(author, random.nextInt(statusesCount(author)), false);
+                status.put("retweeted_status", original);
+                status.put("text", "RT @user" + author + ": " + original.getString("text"));
+                return status;
+            }
+        }
+        return status.put("text", text.toString());
+    }
+
+    /**
+     * Status object of the stream, a tweet of the timeline posted again now.
+     * TweetIDs of the stream follow the largest TweetID of the timelines.
+     * @param user UserID.
+     * @param sequence Number of the status in the stream, from 0.
+     * @param time Epoch milliseconds of the status.
+     * @return the status.
+     */
+    final JSONObject streamedStatus(final long user, final long sequence, final long time) {
+        Random random = random(sequence, 7);
+        long id = (users + 1) * TIMELINE_MAX + sequence;
+        return status(user, random.nextInt(statusesCount(user)), true)
+                .put("id", id)
+                .put("id_str", String.valueOf(id))
+                .put("created_at", date(time));
+    }
+
+    @Override
+    public String showUser(final long id) {
+        return exists(id) ? user(id).toString() : null;
+    }
+
+    @Override
+    public String showUser(final String screenName) {
+        return user(resolve(screenName)).toString();
+    }
+
+    @Override
+    public String lookupUsers(final long[] ids) {
+        JSONArray found = new JSONArray();
+        for (long id : ids) {
+            if (exists(id)) {
+                found.put(user(id).put("status", status(id, statusesCount(id) - 1, true)));
+            }
+        }
+        return found.toString();
+    }
+
+    @Override
+    public String getFriendsIDs(final long userId, final long cursor) {
+        return exists(userId) ? ids(userId, 2, friendsCount(userId), cursor) : null;
+    }
+
+    @Override
+    public String getFriendsIDs(final String screenName, final long cursor) {
+        return getFriendsIDs(resolve(screenName), cursor);
+    }
+
+    @Override
+    public String getFollowersIDs(final long userId, final long cursor) {
+        return exists(userId) ? ids(userId, 1, followersCount(userId), cursor) : null;
+    }
+
+    @Override
+    public String getUserTimeline(final String screenName, final Paging paging) {
+        long user = resolve(screenName);
+        int size = paging.getCount() > 0 ? paging.getCount() : TIMELINE_PAGE;
+        int page = paging.getPage() > 0 ? paging.getPage() : 1;
+        // Newest first, between sinceId excluded and maxId included
+        int newest = statusesCount(user) - 1;
+        if (paging.getMaxId() > 0) {
+            newest = (int) Math.min(newest, paging.getMaxId() - statusId(user, 0));
+        }
+        int oldest = 0;
+        if (paging.getSinceId() > 0) {
+            oldest = (int) Math.max(0, Math.min(TIMELINE_MAX, paging.getSinceId() - statusId(user, 0) + 1));
+        }
+        JSONArray statuses = new JSONArray();
+        for (int index = newest - (page - 1) * size; index >= oldest && index > newest - page * size; index--) {
+            statuses.put(status(user, index, true));
+        }
+        return statuses.toString();
+    }
+}
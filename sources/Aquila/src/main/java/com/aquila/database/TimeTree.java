@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Year, Month and Day levels of the tweet time tree.
+ * A tweet stores its creation time as epoch milliseconds in TweetTimestamp
+ * and is DATED_OF a Date node, reached from the tree by
+ * (:Year)-[:HAS_MONTH]->(:Month)-[:HAS_DAY]->(:Date). Levels are keyed by
+ * integers: Year 2018, MonthKey 201802 and DayKey 20180214, the calendar
+ * being the one of the aquila.timeZone system property, Europe/Paris by default.
+ * @author Aquila
+ */
+public final class TimeTree {
+
+    /**
+     * Time zone of the calendar days.
+     */
+    public static final ZoneId ZONE = ZoneId.of(System.getProperty("aquila.timeZone", "Europe/Paris"));
+
+    /**
+     * Format of java.util.Date#toString(), used by the former TweetDate property.
+     */
+    private static final DateTimeFormatter DATE_TO_STRING = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+    /**
+     * Class Constructor.
+     */
+    private TimeTree() {
+    }
+
+    /**
+     * Merging the levels of a day and relating them, leaving the day node in d.
+     * @param day Expression of a map built by {@link #day(int)}.
+     * @return the Cypher clauses.
+     */
+    static String mergeDay(final String day) {
+        return mergeMonth(day)
+                + "MERGE (d:Date {DayKey: " + day + ".daykey}) "
+                + "ON CREATE SET d.Year = " + day + ".year, d.Month = " + day + ".month, d.Day = " + day + ".day "
+                + "MERGE (m)-[:HAS_DAY]->(d) ";
+    }
+
+    /**
+     * Merging the levels of a month and relating them, leaving the month node in m.
+     * @param month Expression of a map built by {@link #month(int)} or {@link #day(int)}.
+     * @return the Cypher clauses.
+     */
+    static String mergeMonth(final String month) {
+        return "MERGE (y:Year {Year: " + month + ".year}) "
+                + "MERGE (m:Month {MonthKey: " + month + ".monthkey}) "
+                + "ON CREATE SET m.Year = " + month + ".year, m.Month = " + month + ".month "
+                + "MERGE (y)-[:HAS_MONTH]->(m) ";
+    }
+
+    /**
+     * Day key of a time.
+     * @param timestamp Epoch milliseconds.
+     * @return the day as yyyymmdd.
+     */
+    public static int dayKey(final long timestamp) {
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(ZONE).toLocalDate();
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+
+    /**
+     * Levels of a day used as a query parameter.
+     * @param dayKey Day as yyyymmdd.
+     * @return the map of daykey, monthkey, year, month and day.
+     */
+    public static Map<String, Object> day(final int dayKey) {
+        Map<String, Object> day = new HashMap<>();
+        day.put("daykey", dayKey);
+        day.put("monthkey", dayKey / 100);
+        day.put("year", dayKey / 10000);
+        day.put("month", dayKey / 100 % 100);
+        day.put("day", dayKey % 100);
+        return day;
+    }
+
+    /**
+     * Levels of a month used as a query parameter.
+     * @param monthKey Month as yyyymm.
+     * @return the map of monthkey, year and month.
+     */
+    public static Map<String, Object> month(final int monthKey) {
+        Map<String, Object> month = new HashMap<>();
+        month.put("monthkey", monthKey);
+        month.put("year", monthKey / 100);
+        month.put("month", monthKey % 100);
+        return month;
+    }
+
+    /**
+     * Parsing a date written by java.util.Date#toString(), like the former TweetDate property.
+     * @param date Date as text.
+     * @return the epoch milliseconds, or null when the text is not such a date.
+     */
+    public static Long parse(final String date) {
+        try {
+            return ZonedDateTime.parse(date, DATE_TO_STRING).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
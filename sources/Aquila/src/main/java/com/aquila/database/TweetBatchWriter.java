@@ -0,0 +1,524 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Buffering tweets and writing them in batches.
+ * Every flush writes the tweets, their sources, dates, hashtags and the
+ * author relationship with one UNWIND statement in one transaction. A
+ * retweet merges its original and only adds the RETWEETED relationship,
+ * carrying the ID and time of the retweet.
+ * Day nodes of the time tree are merged once and their node ids cached,
+ * so the tweets of a known day are linked to it without any lookup; ids
+ * enter the cache only when their transaction committed. Hashtag nodes
+ * go through a bounded dictionary of the most recently used ones, merged
+ * in the transaction of their first tweet, so popular hashtags are linked
+ * by node id as well.
+ * The analytics rollups of the tweets and relationships new to the graph
+ * are added in the same transaction, see {@link TweetRollup}.
+ * With a seen-set, tweets written by an earlier batch are not buffered
+ * again, and the IDs the statement of a batch wrote are added to the set
+ * once it committed; a retweet is known by its own ID, not by the one of
+ * its original.
+ * Progress depending on tweets, such as watermarks and checkpoints, is
+ * recorded by tasks run once every batch holding them committed. A failed
+ * batch cancels its tasks and is reported by the next {@link #flush()};
+ * rows dropped by the statement, of an unknown user or day, cancel the
+ * task of their tweets only, so that a later crawl tries them again.
+ * @author Aquila
+ */
+public class TweetBatchWriter implements AutoCloseable {
+
+    /**
+     * Writing a batch of tweets.
+     */
+    private static final String INSERT_TWEETS =
+            "UNWIND $rows AS row "
+            + "MATCH (u:User {UserID: row.user}) "
+            + "MATCH (d:Date) WHERE id(d) = row.dateid AND d.DayKey = row.daykey "
+            + "MERGE (t:Tweet {TweetID: row.tweetid}) "
+            + "SET t.TweetContent = row.tweetcontent, "
+            + "t.TweetDate = row.tweetdate, "
+            + "t.TweetTimestamp = row.tweettimestamp, "
+            + "t.NbRetweets = row.nbretweets, "
+            + "t.NbFavorites = row.nbfavorites, "
+            + "t.TweetLatitude = row.tweetlatitude, "
+            + "t.TweetLongitude = row.tweetlongitude "
+            + "MERGE (s:Source {Source: row.source}) "
+            + "MERGE (t)-[:HAS_SOURCE]->(s) "
+            + "MERGE (t)-[:DATED_OF]->(d) "
+            + "FOREACH (ignored IN CASE WHEN row.retweet THEN [1] ELSE [] END | "
+            + "MERGE (u)-[r:RETWEETED]->(t) SET r.RetweetID = row.retweetid, r.RetweetTimestamp = row.retweettimestamp) "
+            + "FOREACH (ignored IN CASE WHEN row.retweet THEN [] ELSE [1] END | MERGE (u)-[:TWEETED]->(t)) "
+            + "WITH row, t "
+            + "OPTIONAL MATCH (h:Hashtag) WHERE id(h) IN row.hashtagids AND h.Hashtag IN row.hashtags "
+            + "FOREACH (hashtag IN CASE WHEN h IS NULL THEN [] ELSE [h] END | MERGE (t)-[:HAS_HASHTAG]->(hashtag)) "
+            + "RETURN collect(DISTINCT coalesce(row.retweetid, row.tweetid)) AS written";
+
+    /**
+     * Finding the tweets and author relationships of a batch already written, rows of unknown users or days left out.
+     */
+    private static final String FIND_WRITTEN =
+            "UNWIND range(0, size($keys) - 1) AS i "
+            + "WITH i, $keys[i] AS key "
+            + "MATCH (u:User {UserID: key.user}) "
+            + "MATCH (d:Date) WHERE id(d) = key.dateid AND d.DayKey = key.daykey "
+            + "OPTIONAL MATCH (t:Tweet {TweetID: key.tweetid}) "
+            + "OPTIONAL MATCH (u)-[r]->(t) WHERE type(r) = key.type "
+            + "RETURN i, t IS NOT NULL AS tweet, count(r) > 0 AS link";
+
+    /**
+     * Merging days of the time tree.
+     */
+    private static final String MERGE_DAYS =
+            "UNWIND $days AS day "
+            + TimeTree.mergeDay("day")
+            + "RETURN day.daykey AS daykey, id(d) AS id";
+
+    /**
+     * Merging hashtags.
+     */
+    private static final String MERGE_HASHTAGS =
+            "UNWIND $hashtags AS hashtag "
+            + "MERGE (h:Hashtag {Hashtag: hashtag}) "
+            + "RETURN hashtag, id(h) AS id";
+
+    /**
+     * Hashtag node ids kept by default.
+     */
+    private static final int HASHTAG_CACHE_SIZE = 10000;
+
+    /**
+     * Statements of the batches, days and hashtags included.
+     */
+    private static final StageMetrics TWEET_WRITES = CrawlMetrics.stage("cypher.insert_tweets");
+
+    /**
+     * Statements merging the days of a batch.
+     */
+    private static final StageMetrics DAY_WRITES = CrawlMetrics.stage("cypher.merge_days");
+
+    /**
+     * Statements merging the hashtags of a batch missing from the dictionary.
+     */
+    private static final StageMetrics HASHTAG_WRITES = CrawlMetrics.stage("cypher.merge_hashtags");
+
+    /**
+     * Task waiting for the batches holding some tweets.
+     */
+    private static final class Pending {
+
+        /**
+         * Task run once every batch committed.
+         */
+        private final Runnable task;
+
+        /**
+         * Batches still to commit, plus one while tweets are added.
+         */
+        private int batches = 1;
+
+        /**
+         * Whether a batch failed or dropped some of the tweets, the task being cancelled.
+         */
+        private boolean failed;
+
+        /**
+         * Class Constructor.
+         * @param task Task run once every batch committed.
+         */
+        Pending(final Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Releasing a batch, running the task after the last one unless one failed.
+         */
+        void release() {
+            if (--batches == 0 && !failed) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Driver for connection.
+     */
+    private final Driver driver;
+
+    /**
+     * Number of tweets triggering a flush.
+     */
+    private final int batchSize;
+
+    /**
+     * Buffered tweets.
+     */
+    private List<Map<String, Object>> rows;
+
+    /**
+     * Task waiting for each buffered tweet, null for the tweets added without one.
+     */
+    private List<Pending> owners = new ArrayList<>();
+
+    /**
+     * Failure of a batch since the last {@link #flush()}, null when none.
+     */
+    private Exception failure;
+
+    /**
+     * Date node ids by day key, written by committed batches.
+     */
+    private final Map<Integer, Long> days = new HashMap<>();
+
+    /**
+     * Hashtag node ids by normalized hashtag, written by committed batches, least recently used first.
+     */
+    private final Map<String, Long> hashtags;
+
+    /**
+     * TweetIDs already written, null when not tracked.
+     */
+    private final LongHashSet seen;
+
+    /**
+     * Periodic flush of the buffer.
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Class Constructor.
+     * @param driver Driver for connection.
+     * @param batchSize Number of tweets triggering a flush.
+     * @param flushInterval Milliseconds between two periodic flushes, 0 to disable.
+     */
+    public TweetBatchWriter(final Driver driver, final int batchSize, final long flushInterval) {
+        this(driver, batchSize, flushInterval, null);
+    }
+
+    /**
+     * Class Constructor.
+     * @param driver Driver for connection.
+     * @param batchSize Number of tweets triggering a flush.
+     * @param flushInterval Milliseconds between two periodic flushes, 0 to disable.
+     * @param seen TweetIDs already written, skipped and completed by the writer, or null.
+     */
+    public TweetBatchWriter(final Driver driver, final int batchSize, final long flushInterval, final LongHashSet seen) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.driver = driver;
+        this.batchSize = batchSize;
+        this.rows = new ArrayList<>(batchSize);
+        this.seen = seen;
+        final int hashtagCacheSize = Integer.getInteger("aquila.hashtagCache", HASHTAG_CACHE_SIZE);
+        this.hashtags = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                return size() > hashtagCacheSize;
+            }
+        };
+        if (flushInterval > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "tweet-batch-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Adding a tweet to the buffer, unless it was already written.
+     * @param tweet Parsed tweet.
+     */
+    public final synchronized void add(final TweetRecord tweet) {
+        if (buffer(tweet, null) && rows.size() >= batchSize) {
+            write();
+        }
+    }
+
+    /**
+     * Adding tweets to the buffer, then running a task once every batch holding them committed.
+     * The task runs at once when every tweet was already written, and never when a batch fails.
+     * @param tweets Parsed tweets.
+     * @param task Task run after the commit, by the thread writing the last batch.
+     */
+    public final synchronized void add(final List<TweetRecord> tweets, final Runnable task) {
+        Pending pending = new Pending(task);
+        for (TweetRecord tweet : tweets) {
+            if (buffer(tweet, pending) && rows.size() >= batchSize) {
+                write();
+            }
+        }
+        pending.release();
+    }
+
+    /**
+     * Buffering a tweet, unless it was already written.
+     * @param tweet Parsed tweet.
+     * @param pending Task waiting for the tweet, or null.
+     * @return whether the tweet was buffered.
+     */
+    private boolean buffer(final TweetRecord tweet, final Pending pending) {
+        long id = Long.parseLong(tweet.getStatusid());
+        if (seen != null && seen.contains(id)) {
+            return false;
+        }
+        // The tweets of a task are buffered together, its batches counted on the first one of each
+        if (pending != null && (owners.isEmpty() || owners.get(owners.size() - 1) != pending)) {
+            pending.batches++;
+        }
+        rows.add(tweet.toRow());
+        owners.add(pending);
+        return true;
+    }
+
+    /**
+     * Writing the buffered tweets in one transaction.
+     * @throws IOException when this or an earlier batch since the last flush failed
+     */
+    public final synchronized void flush() throws IOException {
+        write();
+        if (failure != null) {
+            Exception cause = failure;
+            failure = null;
+            throw new IOException("Tweet batch failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Writing the buffered tweets in one transaction, then running or cancelling the tasks waiting for them.
+     */
+    private synchronized void write() {
+        if (rows.isEmpty()) {
+            return;
+        }
+        final List<Map<String, Object>> batch = rows;
+        List<Pending> batchOwners = owners;
+        rows = new ArrayList<>(batchSize);
+        owners = new ArrayList<>();
+        final Map<Integer, Long> merged = new HashMap<>();
+        final Map<String, Long> mergedHashtags = new HashMap<>();
+        final TweetRollup rollup = new TweetRollup();
+        try (Session session = driver.session()) {
+            List<Object> written = CrawlMetrics
+                    .write(session, TWEET_WRITES, new TransactionWork<List<Object>>() {
+                @Override
+                public List<Object> execute(final Transaction tx) {
+                    merged.clear();
+                    mergedHashtags.clear();
+                    mergeDays(tx, batch, merged);
+                    mergeHashtags(tx, batch, mergedHashtags);
+                    countNew(tx, batch, rollup);
+                    StatementResult result = tx.run(INSERT_TWEETS, parameters("rows", batch));
+                    List<Object> statusids = result.single().get("written").asList();
+                    rollup.write(tx);
+                    return statusids;
+                }
+            });
+            Set<Object> statusids = new HashSet<>(written);
+            int dropped = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Map<String, Object> row = batch.get(i);
+                Object statusid = row.get("retweetid") != null ? row.get("retweetid") : row.get("tweetid");
+                if (!statusids.contains(statusid)) {
+                    dropped++;
+                    if (batchOwners.get(i) != null) {
+                        batchOwners.get(i).failed = true;
+                    }
+                }
+            }
+            if (dropped > 0) {
+                // A cached day may have been deleted since, every day is merged again by the next batch
+                System.out.println("Tweet Batch of " + batch.size() + ": " + dropped + " tweets of unknown users or days dropped");
+                days.clear();
+            }
+            days.putAll(merged);
+            hashtags.putAll(mergedHashtags);
+            if (seen != null) {
+                for (Object statusid : written) {
+                    seen.add(Long.parseLong((String) statusid));
+                }
+            }
+        }
+        catch (Exception e) {
+            System.out.println("Tweet Batch of " + batch.size());
+            System.out.println(e.getMessage());
+            // The cached days and hashtags are merged again by the next batch
+            days.clear();
+            hashtags.clear();
+            failure = e;
+            for (Pending pending : batchOwners) {
+                if (pending != null) {
+                    pending.failed = true;
+                }
+            }
+        }
+        Pending last = null;
+        for (Pending pending : batchOwners) {
+            if (pending != null && pending != last) {
+                pending.release();
+            }
+            last = pending;
+        }
+    }
+
+    /**
+     * Counting in a rollup the rows adding a Tweet node or an author relationship to the graph.
+     * @param tx Current transaction.
+     * @param batch Rows of the batch.
+     * @param rollup Rollup, emptied first.
+     */
+    @SuppressWarnings("unchecked")
+    private static void countNew(final Transaction tx, final List<Map<String, Object>> batch, final TweetRollup rollup) {
+        rollup.clear();
+        List<Map<String, Object>> keys = new ArrayList<>(batch.size());
+        for (Map<String, Object> row : batch) {
+            Map<String, Object> key = new HashMap<>();
+            key.put("user", row.get("user"));
+            key.put("tweetid", row.get("tweetid"));
+            key.put("type", Boolean.TRUE.equals(row.get("retweet")) ? "RETWEETED" : "TWEETED");
+            key.put("dateid", row.get("dateid"));
+            key.put("daykey", row.get("daykey"));
+            keys.add(key);
+        }
+        // null for the rows of unknown users or days, written tweet then written relationship otherwise
+        boolean[][] written = new boolean[batch.size()][];
+        StatementResult result = tx.run(FIND_WRITTEN, parameters("keys", keys));
+        while (result.hasNext()) {
+            Record record = result.next();
+            written[record.get("i").asInt()] = new boolean[] {record.get("tweet").asBoolean(), record.get("link").asBoolean()};
+        }
+        Set<Object> newTweets = new HashSet<>();
+        Set<Object> newLinks = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (written[i] == null) {
+                continue;
+            }
+            Map<String, Object> row = batch.get(i);
+            int dayKey = (Integer) row.get("daykey");
+            if (!written[i][0] && newTweets.add(row.get("tweetid"))) {
+                rollup.addTweet((String) row.get("source"), dayKey, (List<String>) row.get("hashtags"));
+            }
+            if (!written[i][1] && newLinks.add(keys.get(i))) {
+                boolean retweet = Boolean.TRUE.equals(row.get("retweet"));
+                int monthKey = retweet ? TimeTree.dayKey((Long) row.get("retweettimestamp")) / 100 : dayKey / 100;
+                rollup.addActivity((String) row.get("user"), monthKey, retweet);
+            }
+        }
+    }
+
+    /**
+     * Setting the Date node id of every row, merging the days missing from the cache.
+     * @param tx Current transaction.
+     * @param batch Rows of the batch.
+     * @param merged Receiver of the days merged by the transaction.
+     */
+    private void mergeDays(final Transaction tx, final List<Map<String, Object>> batch, final Map<Integer, Long> merged) {
+        Set<Integer> missing = new HashSet<>();
+        for (Map<String, Object> row : batch) {
+            Integer daykey = (Integer) row.get("daykey");
+            if (!days.containsKey(daykey)) {
+                missing.add(daykey);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<Map<String, Object>> levels = new ArrayList<>();
+            for (int daykey : missing) {
+                levels.add(TimeTree.day(daykey));
+            }
+            long start = System.nanoTime();
+            StatementResult result = tx.run(MERGE_DAYS, parameters("days", levels));
+            while (result.hasNext()) {
+                Record record = result.next();
+                merged.put(record.get("daykey").asInt(), record.get("id").asLong());
+            }
+            DAY_WRITES.stop(start);
+        }
+        for (Map<String, Object> row : batch) {
+            Integer daykey = (Integer) row.get("daykey");
+            Long id = days.get(daykey);
+            row.put("dateid", id != null ? id : merged.get(daykey));
+        }
+    }
+
+    /**
+     * Setting the Hashtag node ids of every row, merging the hashtags missing from the dictionary.
+     * @param tx Current transaction.
+     * @param batch Rows of the batch.
+     * @param merged Receiver of the hashtags merged by the transaction.
+     */
+    @SuppressWarnings("unchecked")
+    private void mergeHashtags(final Transaction tx, final List<Map<String, Object>> batch, final Map<String, Long> merged) {
+        Set<String> missing = new HashSet<>();
+        for (Map<String, Object> row : batch) {
+            for (String hashtag : (List<String>) row.get("hashtags")) {
+                if (!hashtags.containsKey(hashtag)) {
+                    missing.add(hashtag);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            long start = System.nanoTime();
+            StatementResult result = tx.run(MERGE_HASHTAGS, parameters("hashtags", new ArrayList<>(missing)));
+            while (result.hasNext()) {
+                Record record = result.next();
+                merged.put(record.get("hashtag").asString(), record.get("id").asLong());
+            }
+            HASHTAG_WRITES.stop(start);
+        }
+        for (Map<String, Object> row : batch) {
+            List<Long> ids = new ArrayList<>();
+            for (String hashtag : (List<String>) row.get("hashtags")) {
+                Long id = hashtags.get(hashtag);
+                ids.add(id != null ? id : merged.get(hashtag));
+            }
+            row.put("hashtagids", ids);
+        }
+    }
+
+    /**
+     * Override Closing writer, writing remaining tweets.
+     */
+    @Override
+    public final void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        write();
+    }
+}
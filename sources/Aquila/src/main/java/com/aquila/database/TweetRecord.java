@@ -0,0 +1,319 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import twitter4j.HashtagEntity;
+import twitter4j.Status;
+
+/**
+ * Parsed Tweet ready to be written in the database.
+ * A retweet is not a Tweet node of its own: its record describes the
+ * retweeted original, the canonical Tweet node shared by all its retweets,
+ * and carries the ID and creation time of the retweet, written on the
+ * RETWEETED relationship of the retweeting user.
+ * @author Aquila
+ */
+public final class TweetRecord {
+
+    /**
+     * UserID of the author, or of the retweeting user for a retweet.
+     */
+    private final String user;
+
+    /**
+     * App used for tweeting.
+     */
+    private final String source;
+
+    /**
+     * Tweet ID.
+     */
+    private final String tweetid;
+
+    /**
+     * Tweet Content.
+     */
+    private final String tweetcontent;
+
+    /**
+     * Tweet Date.
+     */
+    private final String tweetdate;
+
+    /**
+     * Tweet creation time in epoch milliseconds.
+     */
+    private final long tweettimestamp;
+
+    /**
+     * Number of retweets.
+     */
+    private final long nbretweets;
+
+    /**
+     * Number of favorites.
+     */
+    private final long nbfavorites;
+
+    /**
+     * Tweet Latitude, null when the tweet is not geocalised.
+     */
+    private final Double tweetlatitude;
+
+    /**
+     * Tweet Longitude, null when the tweet is not geocalised.
+     */
+    private final Double tweetlongitude;
+
+    /**
+     * Tweet ID of the retweet, null for an original tweet.
+     */
+    private final String retweetid;
+
+    /**
+     * Retweet creation time in epoch milliseconds, 0 for an original tweet.
+     */
+    private final long retweettimestamp;
+
+    /**
+     * Distinct normalized hashtags of the tweet.
+     */
+    private final List<String> hashtags;
+
+    /**
+     * Class Constructor.
+     * @param user UserID of the author, or of the retweeting user.
+     * @param source App used for tweeting.
+     * @param tweetid Tweet ID, of the original for a retweet.
+     * @param tweetcontent Tweet Content.
+     * @param tweetdate Tweet Date.
+     * @param tweettimestamp Tweet creation time in epoch milliseconds.
+     * @param nbretweets Number of retweets.
+     * @param nbfavorites Number of favorites.
+     * @param tweetlatitude Tweet Latitude or null.
+     * @param tweetlongitude Tweet Longitude or null.
+     * @param retweetid Tweet ID of the retweet, null for an original tweet.
+     * @param retweettimestamp Retweet creation time in epoch milliseconds, 0 for an original tweet.
+     * @param hashtags Hashtags of the tweet, normalized and deduplicated by the record.
+     */
+    public TweetRecord(final String user, final String source, final String tweetid, final String tweetcontent, final String tweetdate, final long tweettimestamp, final long nbretweets, final long nbfavorites, final Double tweetlatitude, final Double tweetlongitude, final String retweetid, final long retweettimestamp, final List<String> hashtags) {
+        this.user = user;
+        this.source = source;
+        this.tweetid = tweetid;
+        this.tweetcontent = tweetcontent;
+        this.tweetdate = tweetdate;
+        this.tweettimestamp = tweettimestamp;
+        this.nbretweets = nbretweets;
+        this.nbfavorites = nbfavorites;
+        this.tweetlatitude = tweetlatitude;
+        this.tweetlongitude = tweetlongitude;
+        this.retweetid = retweetid;
+        this.retweettimestamp = retweettimestamp;
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String hashtag : hashtags) {
+            normalized.add(normalizeHashtag(hashtag));
+        }
+        this.hashtags = Collections.unmodifiableList(new ArrayList<>(normalized));
+    }
+
+    /**
+     * Key of a hashtag: compatibility characters composed (NFKC), then lower case.
+     * #Macron, #MACRON and #ｍａｃｒｏｎ all give the Hashtag node macron.
+     * @param hashtag Text of the hashtag, without #.
+     * @return the normalized text.
+     */
+    public static String normalizeHashtag(final String hashtag) {
+        return Normalizer.normalize(hashtag, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Parsing a Status of the Twitter API, resolving a retweet to its original.
+     * @param user UserID of the author.
+     * @param status Status of the Twitter API.
+     * @return the tweet record.
+     */
+    public static TweetRecord fromStatus(final String user, final Status status) {
+        Status original = status.getRetweetedStatus();
+        if (original == null) {
+            return fromStatus(user, status, null, 0);
+        }
+        return fromStatus(user, original, String.valueOf(status.getId()), status.getCreatedAt().getTime());
+    }
+
+    /**
+     * Parsing an original Status of the Twitter API.
+     * @param user UserID of the author, or of the retweeting user.
+     * @param status Original Status.
+     * @param retweetid Tweet ID of the retweet, null for an original tweet.
+     * @param retweettimestamp Retweet creation time in epoch milliseconds, 0 for an original tweet.
+     * @return the tweet record.
+     */
+    private static TweetRecord fromStatus(final String user, final Status status, final String retweetid, final long retweettimestamp) {
+        List<String> hashtags = new ArrayList<>();
+        for (HashtagEntity hashtag : status.getHashtagEntities()) {
+            hashtags.add(hashtag.getText());
+        }
+        Double latitude = null;
+        Double longitude = null;
+        if (status.getGeoLocation() != null) {
+            latitude = status.getGeoLocation().getLatitude();
+            longitude = status.getGeoLocation().getLongitude();
+        }
+        return new TweetRecord(user, String.valueOf(DataBase.getSource(status.getSource())), String.valueOf(status.getId()), String.valueOf(status.getText()), String.valueOf(status.getCreatedAt()), status.getCreatedAt().getTime(), status.getRetweetCount(), status.getFavoriteCount(), latitude, longitude, retweetid, retweettimestamp, hashtags);
+    }
+
+    /**
+     * Row of the tweet used as a query parameter.
+     * @return the row.
+     */
+    public Map<String, Object> toRow() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("user", user);
+        row.put("source", source);
+        row.put("tweetid", tweetid);
+        row.put("tweetcontent", tweetcontent);
+        row.put("tweetdate", tweetdate);
+        row.put("tweettimestamp", tweettimestamp);
+        row.put("daykey", getDayKey());
+        row.put("nbretweets", nbretweets);
+        row.put("nbfavorites", nbfavorites);
+        row.put("tweetlatitude", tweetlatitude);
+        row.put("tweetlongitude", tweetlongitude);
+        row.put("retweet", retweetid != null);
+        row.put("retweetid", retweetid);
+        row.put("retweettimestamp", retweettimestamp);
+        row.put("hashtags", hashtags);
+        return row;
+    }
+
+    /**
+     * @return UserID of the author, or of the retweeting user.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return App used for tweeting.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Tweet ID, of the original for a retweet.
+     */
+    public String getTweetid() {
+        return tweetid;
+    }
+
+    /**
+     * @return Tweet ID of the status the record comes from, the retweet for a retweet.
+     */
+    public String getStatusid() {
+        return retweetid != null ? retweetid : tweetid;
+    }
+
+    /**
+     * @return Tweet Content.
+     */
+    public String getTweetcontent() {
+        return tweetcontent;
+    }
+
+    /**
+     * @return Tweet Date.
+     */
+    public String getTweetdate() {
+        return tweetdate;
+    }
+
+    /**
+     * @return Tweet creation time in epoch milliseconds.
+     */
+    public long getTweettimestamp() {
+        return tweettimestamp;
+    }
+
+    /**
+     * @return Day of the tweet in the time tree, as yyyymmdd.
+     */
+    public int getDayKey() {
+        return TimeTree.dayKey(tweettimestamp);
+    }
+
+    /**
+     * @return Number of retweets.
+     */
+    public long getNbretweets() {
+        return nbretweets;
+    }
+
+    /**
+     * @return Number of favorites.
+     */
+    public long getNbfavorites() {
+        return nbfavorites;
+    }
+
+    /**
+     * @return Tweet Latitude or null.
+     */
+    public Double getTweetlatitude() {
+        return tweetlatitude;
+    }
+
+    /**
+     * @return Tweet Longitude or null.
+     */
+    public Double getTweetlongitude() {
+        return tweetlongitude;
+    }
+
+    /**
+     * @return true when the tweet is geocalised.
+     */
+    public boolean isGeocalised() {
+        return tweetlatitude != null && tweetlongitude != null;
+    }
+
+    /**
+     * @return Retweet Status.
+     */
+    public boolean isRetweet() {
+        return retweetid != null;
+    }
+
+    /**
+     * @return Tweet ID of the retweet, null for an original tweet.
+     */
+    public String getRetweetid() {
+        return retweetid;
+    }
+
+    /**
+     * @return Retweet creation time in epoch milliseconds, 0 for an original tweet.
+     */
+    public long getRetweettimestamp() {
+        return retweettimestamp;
+    }
+
+    /**
+     * @return Distinct normalized hashtags of the tweet.
+     */
+    public List<String> getHashtags() {
+        return hashtags;
+    }
+}
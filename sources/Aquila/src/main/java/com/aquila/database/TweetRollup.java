@@ -0,0 +1,316 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.TransactionWork;
+import org.neo4j.driver.v1.Value;
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Counters of the analytics rollups, maintained as tweets are written.
+ * NbTweets of a Date, a Source and a Hashtag count their tweets,
+ * (:Hashtag)-[:USED_ON {NbTweets}]->(:Date) the tweets of a hashtag on a
+ * day, and (:User)-[:ACTIVE_IN {NbTweets, NbRetweets}]->(:Month) the
+ * tweets and retweets of a user in a month, a retweet counting in the
+ * month it was retweeted. A rollup gathers the increments of the new
+ * tweets of a batch and adds them in the transaction of the batch, one
+ * row per counter, so dashboards read a few counters instead of scanning
+ * the tweets.
+ * @author Aquila
+ */
+public class TweetRollup {
+
+    /**
+     * Adding tweets to days.
+     */
+    private static final String ADD_DAYS =
+            "UNWIND $rows AS row "
+            + "MATCH (d:Date {DayKey: row.daykey}) "
+            + "SET d.NbTweets = coalesce(d.NbTweets, 0) + row.count";
+
+    /**
+     * Adding tweets to sources.
+     */
+    private static final String ADD_SOURCES =
+            "UNWIND $rows AS row "
+            + "MATCH (s:Source {Source: row.source}) "
+            + "SET s.NbTweets = coalesce(s.NbTweets, 0) + row.count";
+
+    /**
+     * Adding tweets to hashtags, in total and per day.
+     */
+    private static final String ADD_HASHTAGS =
+            "UNWIND $rows AS row "
+            + "MATCH (h:Hashtag {Hashtag: row.hashtag}) "
+            + "MATCH (d:Date {DayKey: row.daykey}) "
+            + "SET h.NbTweets = coalesce(h.NbTweets, 0) + row.count "
+            + "MERGE (h)-[c:USED_ON]->(d) "
+            + "SET c.NbTweets = coalesce(c.NbTweets, 0) + row.count";
+
+    /**
+     * Adding tweets and retweets to users per month.
+     */
+    private static final String ADD_USERS =
+            "UNWIND $rows AS row "
+            + "MATCH (u:User {UserID: row.user}) "
+            + TimeTree.mergeMonth("row")
+            + "MERGE (u)-[a:ACTIVE_IN]->(m) "
+            + "SET a.NbTweets = coalesce(a.NbTweets, 0) + row.tweets, "
+            + "a.NbRetweets = coalesce(a.NbRetweets, 0) + row.retweets";
+
+    /**
+     * Statements adding the counters of a batch.
+     */
+    private static final StageMetrics ROLLUP_WRITES = CrawlMetrics.stage("cypher.rollup");
+
+    /**
+     * Statements rebuilding the counters of a window.
+     */
+    private static final StageMetrics REBUILD_WRITES = CrawlMetrics.stage("cypher.rollup_rebuild");
+
+    /**
+     * Tweets by day key.
+     */
+    private final Map<Integer, Long> days = new HashMap<>();
+
+    /**
+     * Tweets by Source.
+     */
+    private final Map<String, Long> sources = new HashMap<>();
+
+    /**
+     * Tweets by day key, by Hashtag.
+     */
+    private final Map<String, Map<Integer, Long>> hashtags = new HashMap<>();
+
+    /**
+     * Tweets then retweets by month key, by UserID.
+     */
+    private final Map<String, Map<Integer, long[]>> users = new HashMap<>();
+
+    /**
+     * Counting a new Tweet node in its day, its source and its hashtags.
+     * @param source App used for tweeting.
+     * @param dayKey Day of the tweet as yyyymmdd.
+     * @param tags Normalized hashtags of the tweet.
+     */
+    public final void addTweet(final String source, final int dayKey, final Collection<String> tags) {
+        increment(days, dayKey, 1);
+        increment(sources, source, 1);
+        for (String hashtag : tags) {
+            Map<Integer, Long> perDay = hashtags.get(hashtag);
+            if (perDay == null) {
+                perDay = new HashMap<>();
+                hashtags.put(hashtag, perDay);
+            }
+            increment(perDay, dayKey, 1);
+        }
+    }
+
+    /**
+     * Counting a new TWEETED or RETWEETED relationship of a user.
+     * @param user UserID.
+     * @param monthKey Month of the tweet, or of the retweet, as yyyymm.
+     * @param retweet Retweet Status.
+     */
+    public final void addActivity(final String user, final int monthKey, final boolean retweet) {
+        addActivity(user, monthKey, retweet, 1);
+    }
+
+    /**
+     * Counting TWEETED or RETWEETED relationships of a user.
+     * @param user UserID.
+     * @param monthKey Month of the tweets, or of the retweets, as yyyymm.
+     * @param retweet Retweet Status.
+     * @param count Number of relationships.
+     */
+    private void addActivity(final String user, final int monthKey, final boolean retweet, final long count) {
+        Map<Integer, long[]> perMonth = users.get(user);
+        if (perMonth == null) {
+            perMonth = new HashMap<>();
+            users.put(user, perMonth);
+        }
+        long[] counts = perMonth.get(monthKey);
+        if (counts == null) {
+            counts = new long[2];
+            perMonth.put(monthKey, counts);
+        }
+        counts[retweet ? 1 : 0] += count;
+    }
+
+    /**
+     * Adding to a counter of a map.
+     * @param <K> Key type.
+     * @param counters Counters by key.
+     * @param key Key.
+     * @param count Number added.
+     */
+    private static <K> void increment(final Map<K, Long> counters, final K key, final long count) {
+        Long current = counters.get(key);
+        counters.put(key, current == null ? count : current + count);
+    }
+
+    /**
+     * @return true when nothing was counted.
+     */
+    public final boolean isEmpty() {
+        return days.isEmpty() && users.isEmpty();
+    }
+
+    /**
+     * Forgetting the counted increments.
+     */
+    public final void clear() {
+        days.clear();
+        sources.clear();
+        hashtags.clear();
+        users.clear();
+    }
+
+    /**
+     * Adding the counted increments to the graph, in the transaction of their tweets.
+     * Dates, sources, hashtags and users have to exist, months are merged.
+     * @param tx Current transaction.
+     */
+    public final void write(final Transaction tx) {
+        if (isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Map.Entry<Integer, Long> day : days.entrySet()) {
+            rows.add(parameters("daykey", day.getKey(), "count", day.getValue()).asMap());
+        }
+        run(tx, ADD_DAYS, rows);
+        for (Map.Entry<String, Long> source : sources.entrySet()) {
+            rows.add(parameters("source", source.getKey(), "count", source.getValue()).asMap());
+        }
+        run(tx, ADD_SOURCES, rows);
+        for (Map.Entry<String, Map<Integer, Long>> hashtag : hashtags.entrySet()) {
+            for (Map.Entry<Integer, Long> day : hashtag.getValue().entrySet()) {
+                rows.add(parameters("hashtag", hashtag.getKey(), "daykey", day.getKey(), "count", day.getValue()).asMap());
+            }
+        }
+        run(tx, ADD_HASHTAGS, rows);
+        for (Map.Entry<String, Map<Integer, long[]>> user : users.entrySet()) {
+            for (Map.Entry<Integer, long[]> month : user.getValue().entrySet()) {
+                Map<String, Object> row = TimeTree.month(month.getKey());
+                row.put("user", user.getKey());
+                row.put("tweets", month.getValue()[0]);
+                row.put("retweets", month.getValue()[1]);
+                rows.add(row);
+            }
+        }
+        run(tx, ADD_USERS, rows);
+        ROLLUP_WRITES.stop(start);
+    }
+
+    /**
+     * Running a statement over rows, then emptying them.
+     * @param tx Current transaction.
+     * @param statement Statement unwinding $rows.
+     * @param rows Rows, emptied.
+     */
+    private static void run(final Transaction tx, final String statement, final List<Map<String, Object>> rows) {
+        if (!rows.isEmpty()) {
+            tx.run(statement, parameters("rows", rows)).consume();
+            rows.clear();
+        }
+    }
+
+    /**
+     * Rebuilding every rollup from the tweets of the graph, while nothing else writes.
+     * Rollup relationships are deleted, counters of dates, sources and
+     * hashtags set from their degree, then hashtags and users are counted
+     * again window by window of {@link NodeIdWindows}, a window per transaction.
+     * @param driver Driver for connection.
+     * @param chunkSize Number of hashtags or users per transaction.
+     */
+    public static void rebuild(final Driver driver, final int chunkSize) {
+        try (Session session = driver.session()) {
+            for (String type : new String[] {"USED_ON", "ACTIVE_IN"}) {
+                final String delete = "MATCH ()-[r:" + type + "]->() WITH r LIMIT $chunk DELETE r RETURN count(r)";
+                long deleted;
+                do {
+                    deleted = session.writeTransaction(new TransactionWork<Long>() {
+                        @Override
+                        public Long execute(final Transaction tx) {
+                            return tx.run(delete, parameters("chunk", chunkSize)).single().get(0).asLong();
+                        }
+                    });
+                } while (deleted > 0);
+            }
+            session.writeTransaction(new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run("MATCH (d:Date) SET d.NbTweets = size((d)<-[:DATED_OF]-())").consume();
+                    tx.run("MATCH (s:Source) SET s.NbTweets = size((s)<-[:HAS_SOURCE]-())").consume();
+                    return null;
+                }
+            });
+            long hashtagCount = NodeIdWindows.walk(session, REBUILD_WRITES, -1, chunkSize, new NodeIdWindows.Handler() {
+                @Override
+                public long handle(final Transaction tx, final long first, final long last) {
+                    long count = tx.run("UNWIND range($first, $last) AS i "
+                            + "MATCH (h:Hashtag) WHERE id(h) = i "
+                            + "SET h.NbTweets = size((h)<-[:HAS_HASHTAG]-()) "
+                            + "RETURN count(h)",
+                            parameters("first", first, "last", last)).single().get(0).asLong();
+                    tx.run("UNWIND range($first, $last) AS i "
+                            + "MATCH (h:Hashtag)<-[:HAS_HASHTAG]-(:Tweet)-[:DATED_OF]->(d:Date) WHERE id(h) = i "
+                            + "WITH h, d, count(*) AS count "
+                            + "CREATE (h)-[:USED_ON {NbTweets: count}]->(d)",
+                            parameters("first", first, "last", last)).consume();
+                    return count;
+                }
+            });
+            long userCount = NodeIdWindows.walk(session, REBUILD_WRITES, -1, chunkSize, new NodeIdWindows.Handler() {
+                @Override
+                public long handle(final Transaction tx, final long first, final long last) {
+                    TweetRollup rollup = new TweetRollup();
+                    for (Record record : tx.run("UNWIND range($first, $last) AS i "
+                            + "MATCH (u:User)-[:TWEETED]->(:Tweet)-[:DATED_OF]->(d:Date) WHERE id(u) = i "
+                            + "RETURN u.UserID AS user, d.DayKey / 100 AS monthkey, count(*) AS count",
+                            parameters("first", first, "last", last)).list()) {
+                        rollup.addActivity(record.get("user").asString(), record.get("monthkey").asInt(), false, record.get("count").asLong());
+                    }
+                    for (Record record : tx.run("UNWIND range($first, $last) AS i "
+                            + "MATCH (u:User)-[r:RETWEETED]->(t:Tweet) WHERE id(u) = i "
+                            + "OPTIONAL MATCH (t)-[:DATED_OF]->(d:Date) "
+                            + "RETURN u.UserID AS user, r.RetweetTimestamp AS retweettimestamp, d.DayKey AS daykey",
+                            parameters("first", first, "last", last)).list()) {
+                        Value timestamp = record.get("retweettimestamp");
+                        Value dayKey = record.get("daykey");
+                        // Retweets written before RetweetTimestamp count in the month of their tweet
+                        if (!timestamp.isNull()) {
+                            rollup.addActivity(record.get("user").asString(), TimeTree.dayKey(timestamp.asLong()) / 100, true);
+                        } else if (!dayKey.isNull()) {
+                            rollup.addActivity(record.get("user").asString(), dayKey.asInt() / 100, true);
+                        }
+                    }
+                    rollup.write(tx);
+                    return tx.run("UNWIND range($first, $last) AS i "
+                            + "MATCH (u:User) WHERE id(u) = i "
+                            + "RETURN count(u)",
+                            parameters("first", first, "last", last)).single().get(0).asLong();
+                }
+            });
+            System.out.println("Rollups Rebuilt: " + hashtagCount + " hashtags, " + userCount + " users");
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import twitter4j.IDs;
+import twitter4j.JSONArray;
+import twitter4j.Paging;
+import twitter4j.RateLimitStatus;
+import twitter4j.ResponseList;
+import twitter4j.Status;
+import twitter4j.Twitter;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+import twitter4j.TwitterResponse;
+import twitter4j.User;
+
+/**
+ * Local stand-in for the Twitter API calls of the crawlers.
+ * The calls of {@link RateLimitedTwitter} (users/show, users/lookup,
+ * friends/ids, followers/ids and statuses/user_timeline) are answered with
+ * the JSON of the real API, read from {@link Responses}: recordings of a
+ * live crawl or a {@link SyntheticTwitter}. The JSON is parsed by twitter4j
+ * like a live response, and every response carries rate limit headers
+ * counted by the stand-in. Other calls throw UnsupportedOperationException.
+ * @author Aquila
+ */
+public final class TwitterStandIn implements InvocationHandler {
+
+    /**
+     * JSON responses of the Twitter API, null when the resource does not exist.
+     */
+    public interface Responses {
+
+        /**
+         * users/show by UserID.
+         * @param id UserID.
+         * @return the user object.
+         * @throws TwitterException Twitter Exception
+         */
+        String showUser(long id) throws TwitterException;
+
+        /**
+         * users/show by Username.
+         * @param screenName Username.
+         * @return the user object.
+         * @throws TwitterException Twitter Exception
+         */
+        String showUser(String screenName) throws TwitterException;
+
+        /**
+         * users/lookup.
+         * @param ids Up to 100 UserIDs.
+         * @return the array of the users found.
+         * @throws TwitterException Twitter Exception
+         */
+        String lookupUsers(long[] ids) throws TwitterException;
+
+        /**
+         * friends/ids by UserID.
+         * @param userId UserID.
+         * @param cursor Cursor of the page.
+         * @return the cursored IDs.
+         * @throws TwitterException Twitter Exception
+         */
+        String getFriendsIDs(long userId, long cursor) throws TwitterException;
+
+        /**
+         * friends/ids by Username.
+         * @param screenName Username.
+         * @param cursor Cursor of the page.
+         * @return the cursored IDs.
+         * @throws TwitterException Twitter Exception
+         */
+        String getFriendsIDs(String screenName, long cursor) throws TwitterException;
+
+        /**
+         * followers/ids.
+         * @param userId UserID.
+         * @param cursor Cursor of the page.
+         * @return the cursored IDs.
+         * @throws TwitterException Twitter Exception
+         */
+        String getFollowersIDs(long userId, long cursor) throws TwitterException;
+
+        /**
+         * statuses/user_timeline.
+         * @param screenName Username.
+         * @param paging Page of the timeline.
+         * @return the array of the tweets, newest first.
+         * @throws TwitterException Twitter Exception
+         */
+        String getUserTimeline(String screenName, Paging paging) throws TwitterException;
+    }
+
+    /**
+     * Length of a rate limit window of the real API.
+     */
+    private static final long WINDOW = 15 * 60 * 1000L;
+
+    /**
+     * Status code of an unknown resource.
+     */
+    private static final int NOT_FOUND = 404;
+
+    /**
+     * Status code of an exceeded rate limit.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Source of the responses.
+     */
+    private final Responses responses;
+
+    /**
+     * Length of a rate limit window, 0 to never exhaust a quota.
+     */
+    private final long window;
+
+    /**
+     * Calls left and end of the window of every endpoint.
+     */
+    private final Map<RateLimitedTwitter.Endpoint, long[]> quotas = new EnumMap<>(RateLimitedTwitter.Endpoint.class);
+
+    /**
+     * Class Constructor.
+     * @param responses Source of the responses.
+     * @param window Length of a rate limit window in milliseconds, 0 to never exhaust a quota.
+     */
+    private TwitterStandIn(final Responses responses, final long window) {
+        this.responses = responses;
+        this.window = window;
+    }
+
+    /**
+     * Twitter API answered by a source of responses.
+     * @param responses Source of the responses.
+     * @param window Length of a rate limit window in milliseconds, 0 to never exhaust a quota.
+     * @return the stand-in, with quotas of its own like one credential.
+     */
+    public static Twitter create(final Responses responses, final long window) {
+        return (Twitter) Proxy.newProxyInstance(Twitter.class.getClassLoader(), new Class<?>[] {Twitter.class}, new TwitterStandIn(responses, window));
+    }
+
+    /**
+     * Responses recorded in a directory by {@link #recording(Twitter, File)}.
+     * @param dir Directory of the recordings.
+     * @return the responses, null for the calls never recorded.
+     */
+    public static Responses recorded(final File dir) {
+        return new Responses() {
+            @Override
+            public String showUser(final long id) throws TwitterException {
+                return read(dir, "showUser", id);
+            }
+
+            @Override
+            public String showUser(final String screenName) throws TwitterException {
+                return read(dir, "showUser", screenName);
+            }
+
+            @Override
+            public String lookupUsers(final long[] ids) throws TwitterException {
+                return read(dir, "lookupUsers", ids);
+            }
+
+            @Override
+            public String getFriendsIDs(final long userId, final long cursor) throws TwitterException {
+                return read(dir, "getFriendsIDs", userId, cursor);
+            }
+
+            @Override
+            public String getFriendsIDs(final String screenName, final long cursor) throws TwitterException {
+                return read(dir, "getFriendsIDs", screenName, cursor);
+            }
+
+            @Override
+            public String getFollowersIDs(final long userId, final long cursor) throws TwitterException {
+                return read(dir, "getFollowersIDs", userId, cursor);
+            }
+
+            @Override
+            public String getUserTimeline(final String screenName, final Paging paging) throws TwitterException {
+                return read(dir, "getUserTimeline", screenName, paging);
+            }
+        };
+    }
+
+    /**
+     * Twitter API writing the JSON of every crawler call into a directory
+     * before returning it. The JSON store of its configuration has to be enabled.
+     * @param twitter Live Twitter API.
+     * @param dir Directory of the recordings.
+     * @return the recording Twitter API.
+     */
+    public static Twitter recording(final Twitter twitter, final File dir) {
+        return (Twitter) Proxy.newProxyInstance(Twitter.class.getClassLoader(), new Class<?>[] {Twitter.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                Object response;
+                try {
+                    response = method.invoke(twitter, args);
+                }
+                catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+                String json = TwitterObjectFactory.getRawJSON(response);
+                if (json != null && isCrawlerCall(method)) {
+                    try {
+                        write(recordingOf(dir, method.getName(), args), json);
+                    }
+                    catch (IOException e) {
+                        System.out.println(e.getMessage());
+                    }
+                }
+                return response;
+            }
+        });
+    }
+
+    /**
+     * @param method Method of the Twitter API.
+     * @return true when the crawlers call it.
+     */
+    private static boolean isCrawlerCall(final Method method) {
+        switch (method.getName()) {
+            case "showUser":
+            case "lookupUsers":
+            case "getFriendsIDs":
+            case "getFollowersIDs":
+            case "getUserTimeline":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * File of the recorded response of a call.
+     * Named after a digest of the arguments and their types, so the same
+     * call made by the live API and by the replay finds the same file.
+     * @param dir Directory of the recordings.
+     * @param name Name of the method.
+     * @param args Arguments of the call.
+     * @return the file.
+     */
+    static File recordingOf(final File dir, final String name, final Object... args) {
+        StringBuilder call = new StringBuilder(name);
+        for (Object arg : args) {
+            call.append('|').append(arg.getClass().getSimpleName()).append('=');
+            if (arg instanceof long[]) {
+                call.append(Arrays.toString((long[]) arg));
+            } else if (arg instanceof Paging) {
+                Paging paging = (Paging) arg;
+                call.append(paging.getPage()).append(',').append(paging.getCount()).append(',').append(paging.getSinceId()).append(',').append(paging.getMaxId());
+            } else {
+                call.append(arg);
+            }
+        }
+        try {
+            StringBuilder digest = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(call.toString().getBytes(StandardCharsets.UTF_8))) {
+                digest.append(String.format("%02x", b & 0xff));
+            }
+            return new File(new File(dir, name), digest + ".json");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reading a recorded response.
+     * @param dir Directory of the recordings.
+     * @param name Name of the method.
+     * @param args Arguments of the call.
+     * @return the JSON, or null when the call was not recorded.
+     * @throws TwitterException Twitter Exception
+     */
+    private static String read(final File dir, final String name, final Object... args) throws TwitterException {
+        File file = recordingOf(dir, name, args);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new TwitterException("Unreadable recording " + file, e);
+        }
+    }
+
+    /**
+     * Writing a recorded response, replacing an older one.
+     * @param file File of the recording.
+     * @param json JSON of the response.
+     * @throws IOException IO Exception
+     */
+    private static void write(final File file, final String json) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws TwitterException {
+        String name = method.getName();
+        Class<?>[] types = method.getParameterTypes();
+        if (method.getDeclaringClass() == Object.class) {
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "TwitterStandIn";
+            }
+        }
+        if ("showUser".equals(name) && types[0] == long.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.USERS_SHOW);
+            return user(found(responses.showUser((Long) args[0]), args[0]), status);
+        }
+        if ("showUser".equals(name) && types[0] == String.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.USERS_SHOW);
+            return user(found(responses.showUser((String) args[0]), args[0]), status);
+        }
+        if ("lookupUsers".equals(name) && types[0] == long[].class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.USERS_LOOKUP);
+            ResponseArrayList<User> users = new ResponseArrayList<>(status);
+            JSONArray array = new JSONArray(found(responses.lookupUsers((long[]) args[0]), args[0]));
+            for (int i = 0; i < array.length(); i++) {
+                users.add(TwitterObjectFactory.createUser(array.getJSONObject(i).toString()));
+            }
+            if (users.isEmpty()) {
+                throw new TwitterException("No user matches for specified terms.", null, NOT_FOUND);
+            }
+            return users;
+        }
+        if ("getFriendsIDs".equals(name) && types.length == 2 && types[0] == long.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.FRIENDS_IDS);
+            return ids(found(responses.getFriendsIDs((Long) args[0], (Long) args[1]), args[0]), status);
+        }
+        if ("getFriendsIDs".equals(name) && types.length == 2 && types[0] == String.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.FRIENDS_IDS);
+            return ids(found(responses.getFriendsIDs((String) args[0], (Long) args[1]), args[0]), status);
+        }
+        if ("getFollowersIDs".equals(name) && types.length == 2 && types[0] == long.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.FOLLOWERS_IDS);
+            return ids(found(responses.getFollowersIDs((Long) args[0], (Long) args[1]), args[0]), status);
+        }
+        if ("getUserTimeline".equals(name) && types.length == 2 && types[0] == String.class) {
+            RateLimitStatus status = call(RateLimitedTwitter.Endpoint.STATUSES_USER_TIMELINE);
+            ResponseArrayList<Status> statuses = new ResponseArrayList<>(status);
+            JSONArray array = new JSONArray(found(responses.getUserTimeline((String) args[0], (Paging) args[1]), args[0]));
+            for (int i = 0; i < array.length(); i++) {
+                statuses.add(TwitterObjectFactory.createStatus(array.getJSONObject(i).toString()));
+            }
+            return statuses;
+        }
+        throw new UnsupportedOperationException("Not available offline: " + method);
+    }
+
+    /**
+     * Failing like the API when a resource does not exist.
+     * @param json Response, null when the resource does not exist.
+     * @param resource Requested resource.
+     * @return the response.
+     * @throws TwitterException Twitter Exception
+     */
+    private static String found(final String json, final Object resource) throws TwitterException {
+        if (json == null) {
+            String name = resource instanceof long[] ? Arrays.toString((long[]) resource) : String.valueOf(resource);
+            throw new TwitterException("Sorry, that page does not exist: " + name, null, NOT_FOUND);
+        }
+        return json;
+    }
+
+    /**
+     * Counting a call in the quota of its endpoint.
+     * @param endpoint Rate limited endpoint.
+     * @return the rate limit headers of the response.
+     * @throws TwitterException Exceeded rate limit.
+     */
+    private synchronized RateLimitStatus call(final RateLimitedTwitter.Endpoint endpoint) throws TwitterException {
+        long now = System.currentTimeMillis();
+        int limit = endpoint.getDefaultLimit();
+        if (window == 0) {
+            return new Headers(limit, limit, now + WINDOW);
+        }
+        long[] quota = quotas.get(endpoint);
+        if (quota == null || now >= quota[1]) {
+            quota = new long[] {limit, now + window};
+            quotas.put(endpoint, quota);
+        }
+        if (quota[0] == 0) {
+            throw new TwitterException("Rate limit exceeded", null, TOO_MANY_REQUESTS);
+        }
+        quota[0]--;
+        return new Headers(limit, (int) quota[0], quota[1]);
+    }
+
+    /**
+     * Parsing a user with its rate limit headers.
+     * @param json User object.
+     * @param status Rate limit headers.
+     * @return the user.
+     * @throws TwitterException Twitter Exception
+     */
+    private static User user(final String json, final RateLimitStatus status) throws TwitterException {
+        return withHeaders(User.class, TwitterObjectFactory.createUser(json), status);
+    }
+
+    /**
+     * Parsing cursored IDs with their rate limit headers.
+     * @param json Cursored IDs.
+     * @param status Rate limit headers.
+     * @return the IDs.
+     * @throws TwitterException Twitter Exception
+     */
+    private static IDs ids(final String json, final RateLimitStatus status) throws TwitterException {
+        return withHeaders(IDs.class, TwitterObjectFactory.createIDs(json), status);
+    }
+
+    /**
+     * Response answering getRateLimitStatus() with the headers of the stand-in.
+     * @param <T> Type of the response.
+     * @param type Interface of the response.
+     * @param response Parsed response.
+     * @param status Rate limit headers.
+     * @return the response.
+     */
+    private static <T extends TwitterResponse> T withHeaders(final Class<T> type, final T response, final RateLimitStatus status) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                if ("getRateLimitStatus".equals(method.getName())) {
+                    return status;
+                }
+                try {
+                    return method.invoke(response, args);
+                }
+                catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }));
+    }
+
+    /**
+     * List response with rate limit headers.
+     * @param <T> Type of the elements.
+     */
+    private static final class ResponseArrayList<T> extends ArrayList<T> implements ResponseList<T> {
+
+        /**
+         * Serial Version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Rate limit headers.
+         */
+        private final RateLimitStatus status;
+
+        /**
+         * Class Constructor.
+         * @param status Rate limit headers.
+         */
+        private ResponseArrayList(final RateLimitStatus status) {
+            this.status = status;
+        }
+
+        @Override
+        public RateLimitStatus getRateLimitStatus() {
+            return status;
+        }
+
+        @Override
+        public int getAccessLevel() {
+            return READ;
+        }
+    }
+
+    /**
+     * Rate limit headers of a response.
+     */
+    private static final class Headers implements RateLimitStatus {
+
+        /**
+         * Serial Version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Calls per window.
+         */
+        private final int limit;
+
+        /**
+         * Calls left in the window.
+         */
+        private final int remaining;
+
+        /**
+         * End of the window in milliseconds.
+         */
+        private final long reset;
+
+        /**
+         * Class Constructor.
+         * @param limit Calls per window.
+         * @param remaining Calls left in the window.
+         * @param reset End of the window in milliseconds.
+         */
+        private Headers(final int limit, final int remaining, final long reset) {
+            this.limit = limit;
+            this.remaining = remaining;
+            this.reset = reset;
+        }
+
+        @Override
+        public int getRemaining() {
+            return remaining;
+        }
+
+        @Override
+        public int getLimit() {
+            return limit;
+        }
+
+        @Override
+        public int getResetTimeInSeconds() {
+            return (int) ((reset + 999) / 1000);
+        }
+
+        @Override
+        public int getSecondsUntilReset() {
+            return (int) Math.max((reset - System.currentTimeMillis() + 999) / 1000, 0);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Arrays;
+import twitter4j.TwitterException;
+import twitter4j.User;
+
+/**
+ * Resolving user IDs into users with one users/lookup call per 100 IDs.
+ * Only users having at least one tweet are handed over.
+ * @author Aquila
+ */
+public class UserHydrator {
+
+    /**
+     * Receiver of the hydrated users.
+     */
+    public interface Handler {
+
+        /**
+         * Handling a hydrated user.
+         * @param user User with at least one tweet.
+         * @throws Exception Exception
+         */
+        void handle(User user) throws Exception;
+    }
+
+    /**
+     * Maximum number of IDs of a users/lookup call.
+     */
+    public static final int LOOKUP_SIZE = 100;
+
+    /**
+     * Twitter API behind its rate limit scheduler.
+     */
+    private final RateLimitedTwitter twitter;
+
+    /**
+     * Receiver of the hydrated users.
+     */
+    private final Handler handler;
+
+    /**
+     * IDs waiting for the next lookup.
+     */
+    private final long[] pending = new long[LOOKUP_SIZE];
+
+    /**
+     * Number of pending IDs.
+     */
+    private int size;
+
+    /**
+     * Class Constructor.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param handler Receiver of the hydrated users.
+     */
+    public UserHydrator(final RateLimitedTwitter twitter, final Handler handler) {
+        this.twitter = twitter;
+        this.handler = handler;
+    }
+
+    /**
+     * Adding a user ID, looking the pending IDs up once 100 are waiting.
+     * @param id UserID.
+     * @throws Exception Exception of the Twitter API or of the handler.
+     */
+    public final void add(final long id) throws Exception {
+        pending[size++] = id;
+        if (size == LOOKUP_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Adding a page of user IDs.
+     * @param ids UserIDs.
+     * @throws Exception Exception of the Twitter API or of the handler.
+     */
+    public final void addAll(final long[] ids) throws Exception {
+        for (long id : ids) {
+            add(id);
+        }
+    }
+
+    /**
+     * Looking the pending IDs up.
+     * @throws Exception Exception of the Twitter API or of the handler.
+     */
+    public final void flush() throws Exception {
+        if (size == 0) {
+            return;
+        }
+        long[] ids = Arrays.copyOf(pending, size);
+        size = 0;
+        try {
+            for (User user : twitter.lookupUsers(ids)) {
+                if (user.getStatus() != null) {
+                    handler.handle(user);
+                }
+            }
+        }
+        catch (TwitterException e) {
+            // No user of the batch exists anymore
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import twitter4j.User;
+
+/**
+ * Parsed Twitter Account ready to be written in the database.
+ * @author Aquila
+ */
+public final class UserRecord {
+
+    /**
+     * UserID of Twitter Account.
+     */
+    private final String userID;
+
+    /**
+     * Username of Twitter Account.
+     */
+    private final String username;
+
+    /**
+     * Description of User Twitter Account.
+     */
+    private final String description;
+
+    /**
+     * Number of friends of Twitter Account.
+     */
+    private final long nbfriends;
+
+    /**
+     * Number of followers of Twitter Account.
+     */
+    private final long nbfollowers;
+
+    /**
+     * Number of favorites of Twitter Account.
+     */
+    private final long nbfavorites;
+
+    /**
+     * Verified Twitter Account.
+     */
+    private final boolean verified;
+
+    /**
+     * Place of the location of Twitter Account, null when it has none.
+     */
+    private final Place place;
+
+    /**
+     * Class Constructor.
+     * @param userID UserID of Twitter Account.
+     * @param username Username of Twitter Account.
+     * @param description Description of User Twitter Account.
+     * @param nbfriends Number of friends of Twitter Account.
+     * @param nbfollowers Number of followers of Twitter Account.
+     * @param nbfavorites Number of favorites of Twitter Account.
+     * @param verified Verified Twitter Account.
+     * @param place Place of the location of Twitter Account, null when it has none.
+     */
+    public UserRecord(final String userID, final String username, final String description, final long nbfriends, final long nbfollowers, final long nbfavorites, final boolean verified, final Place place) {
+        this.userID = userID;
+        this.username = username;
+        this.description = description;
+        this.nbfriends = nbfriends;
+        this.nbfollowers = nbfollowers;
+        this.nbfavorites = nbfavorites;
+        this.verified = verified;
+        this.place = place;
+    }
+
+    /**
+     * Parsing a User of the Twitter API.
+     * @param user User of the Twitter API.
+     * @param gazetteer Gazetteer resolving the location of the user.
+     * @return the user record.
+     */
+    public static UserRecord fromUser(final User user, final Gazetteer gazetteer) {
+        return new UserRecord(String.valueOf(user.getId()), user.getScreenName(), user.getDescription(), user.getFriendsCount(), user.getFollowersCount(), user.getFavouritesCount(), user.isVerified(), gazetteer.resolve(user.getLocation()));
+    }
+
+    /**
+     * @return UserID of Twitter Account.
+     */
+    public String getUserID() {
+        return userID;
+    }
+
+    /**
+     * @return Username of Twitter Account.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Description of User Twitter Account.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return Number of friends of Twitter Account.
+     */
+    public long getNbfriends() {
+        return nbfriends;
+    }
+
+    /**
+     * @return Number of followers of Twitter Account.
+     */
+    public long getNbfollowers() {
+        return nbfollowers;
+    }
+
+    /**
+     * @return Number of favorites of Twitter Account.
+     */
+    public long getNbfavorites() {
+        return nbfavorites;
+    }
+
+    /**
+     * @return Verified Twitter Account.
+     */
+    public boolean getVerified() {
+        return verified;
+    }
+
+    /**
+     * @return Location of the Location node of Twitter Account, null when it has none.
+     */
+    public String getLocation() {
+        return place == null ? null : place.getLocation();
+    }
+
+    /**
+     * @return Place of the location of Twitter Account, null when it has none.
+     */
+    public Place getPlace() {
+        return place;
+    }
+}
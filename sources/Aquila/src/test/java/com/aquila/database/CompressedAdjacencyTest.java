@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link CompressedAdjacency}.
+ * @author Aquila
+ */
+public class CompressedAdjacencyTest {
+
+    /**
+     * Neighbours come back sorted and deduplicated, deltas of one to five bytes included.
+     */
+    @Test
+    public void decodesVarintDeltas() {
+        int[] starts = {0, 0, 0, 0, 0, 0, 0, 2, 2};
+        int[] ends = {Integer.MAX_VALUE - 1, 0, 127, 128, 16384, 16384, 1 << 21, 1, 0};
+        CompressedAdjacency adjacency = CompressedAdjacency.build(3, starts, ends, starts.length);
+        int[] into = new int[adjacency.getMaxDegree()];
+        assertEquals(6, adjacency.neighbours(0, into));
+        assertArrayEquals(new int[] {0, 127, 128, 16384, 1 << 21, Integer.MAX_VALUE - 1}, into);
+        assertEquals(0, adjacency.neighbours(1, into));
+        assertEquals(0, adjacency.degree(1));
+        assertEquals(2, adjacency.neighbours(2, into));
+        assertEquals(0, into[0]);
+        assertEquals(1, into[1]);
+        assertEquals(8, adjacency.getEdgeCount());
+    }
+
+    /**
+     * A random graph decodes to the sorted sets of its edges, after other values when given an offset.
+     */
+    @Test
+    public void roundTripsRandomGraph() {
+        int nodeCount = 2000;
+        int count = 50000;
+        Random random = new Random(7);
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        TreeSet<Integer>[] expected = newSets(nodeCount);
+        for (int i = 0; i < count; i++) {
+            starts[i] = random.nextInt(nodeCount);
+            ends[i] = random.nextBoolean() ? random.nextInt(nodeCount) : random.nextInt(Integer.MAX_VALUE);
+            expected[starts[i]].add(ends[i]);
+        }
+        CompressedAdjacency adjacency = CompressedAdjacency.build(nodeCount, starts, ends, count);
+        int[] into = new int[adjacency.getMaxDegree() + 3];
+        long edges = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            int degree = adjacency.neighbours(v, into, 3);
+            assertEquals(expected[v].size(), degree);
+            assertEquals(degree, adjacency.degree(v));
+            int[] values = new int[degree];
+            int i = 0;
+            for (int neighbour : expected[v]) {
+                values[i++] = neighbour;
+            }
+            assertArrayEquals(values, Arrays.copyOfRange(into, 3, 3 + degree));
+            edges += degree;
+        }
+        assertEquals(edges, adjacency.getEdgeCount());
+    }
+
+    /**
+     * Empty neighbour sets of every node.
+     * @param nodeCount Number of nodes.
+     * @return the sets.
+     */
+    @SuppressWarnings("unchecked")
+    private static TreeSet<Integer>[] newSets(final int nodeCount) {
+        TreeSet<Integer>[] sets = new TreeSet[nodeCount];
+        for (int v = 0; v < nodeCount; v++) {
+            sets[v] = new TreeSet<>();
+        }
+        return sets;
+    }
+}
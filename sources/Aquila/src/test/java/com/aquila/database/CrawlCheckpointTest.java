@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CrawlCheckpoint}.
+ * @author Aquila
+ */
+public class CrawlCheckpointTest {
+
+    /**
+     * Bytes of a record of the log.
+     */
+    private static final int RECORD = 9;
+
+    /**
+     * Directory of the logs.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A reopened log resumes the last page, its position and the completed users.
+     */
+    @Test
+    public void replaysProgress() throws IOException {
+        File file = new File(folder.getRoot(), "friends.checkpoint");
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            assertEquals(-1, checkpoint.getCursor());
+            checkpoint.startPage(-1);
+            checkpoint.advance(20);
+            checkpoint.complete(7);
+            checkpoint.startPage(1234);
+            checkpoint.advance(3);
+            checkpoint.complete(8);
+            checkpoint.complete(7);
+        }
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            assertEquals(1234, checkpoint.getCursor());
+            assertEquals(3, checkpoint.getPosition());
+            assertTrue(checkpoint.isCompleted(7));
+            assertTrue(checkpoint.isCompleted(8));
+            assertFalse(checkpoint.isCompleted(9));
+        }
+    }
+
+    /**
+     * Reopening rewrites the log as the cursor, the position and one record per completed user.
+     */
+    @Test
+    public void compactsOnOpen() throws IOException {
+        File file = new File(folder.getRoot(), "friends.checkpoint");
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 60000)) {
+            for (int page = 0; page < 10; page++) {
+                checkpoint.startPage(page);
+                for (int position = 1; position <= 50; position++) {
+                    checkpoint.advance(position);
+                }
+            }
+            checkpoint.complete(1);
+            checkpoint.complete(2);
+        }
+        assertEquals((2 + 10 * 51 + 2) * RECORD, file.length());
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 60000)) {
+            assertEquals(9, checkpoint.getCursor());
+            assertEquals(50, checkpoint.getPosition());
+        }
+        assertEquals((2 + 2) * RECORD, file.length());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    /**
+     * A record torn by a crash is dropped, the records before it replayed.
+     */
+    @Test
+    public void dropsTornRecord() throws IOException {
+        File file = new File(folder.getRoot(), "friends.checkpoint");
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            checkpoint.startPage(55);
+            checkpoint.advance(4);
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[] {3, 0, 0, 0});
+        }
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            assertEquals(55, checkpoint.getCursor());
+            assertEquals(4, checkpoint.getPosition());
+        }
+        assertEquals(2 * RECORD, file.length());
+    }
+
+    /**
+     * A finished crawl deletes its log, the next one starting over.
+     */
+    @Test
+    public void finishDeletesLog() throws IOException {
+        File file = new File(folder.getRoot(), "friends.checkpoint");
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            checkpoint.startPage(12);
+            checkpoint.finish();
+        }
+        assertFalse(file.exists());
+        try (CrawlCheckpoint checkpoint = new CrawlCheckpoint(file, 0)) {
+            assertEquals(-1, checkpoint.getCursor());
+        }
+    }
+}
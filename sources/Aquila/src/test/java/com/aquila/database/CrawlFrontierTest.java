@@ -0,0 +1,89 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link CrawlFrontier}.
+ * @author Aquila
+ */
+public class CrawlFrontierTest {
+
+    /**
+     * Directory of the spill files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Entries spilled by a small heap come back in priority order, then depth order.
+     */
+    @Test
+    public void pollsSpilledEntriesInOrder() throws IOException {
+        File spill = new File(folder.getRoot(), "frontier.spill");
+        Random random = new Random(42);
+        int count = 10000;
+        try (CrawlFrontier frontier = new CrawlFrontier(spill, 100 * CrawlFrontier.ENTRY_BYTES)) {
+            for (int i = 0; i < count; i++) {
+                frontier.add(i, random.nextInt(4), random.nextInt(500));
+            }
+            assertTrue(frontier.getSpilled() > 0);
+            assertEquals(count, frontier.size());
+            CrawlFrontier.Entry previous = null;
+            boolean[] polled = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                CrawlFrontier.Entry entry = frontier.poll();
+                if (previous != null) {
+                    assertTrue(entry.getPriority() <= previous.getPriority());
+                    if (entry.getPriority() == previous.getPriority()) {
+                        assertTrue(entry.getDepth() >= previous.getDepth());
+                    }
+                }
+                assertFalse(polled[(int) entry.getId()]);
+                polled[(int) entry.getId()] = true;
+                previous = entry;
+            }
+            assertNull(frontier.poll());
+            assertEquals(0, frontier.size());
+        }
+        assertFalse(spill.exists());
+    }
+
+    /**
+     * Entries added between polls still come out before the spilled ones of lower priority.
+     */
+    @Test
+    public void interleavesAddsAndPolls() throws IOException {
+        File spill = new File(folder.getRoot(), "frontier.spill");
+        try (CrawlFrontier frontier = new CrawlFrontier(spill, 4 * CrawlFrontier.ENTRY_BYTES)) {
+            for (int i = 1; i <= 20; i++) {
+                frontier.add(i, 1, i);
+            }
+            assertEquals(20, frontier.poll().getId());
+            frontier.add(100, 2, 15.5);
+            assertEquals(19, frontier.poll().getId());
+            assertEquals(18, frontier.poll().getId());
+            assertEquals(17, frontier.poll().getId());
+            assertEquals(16, frontier.poll().getId());
+            assertEquals(100, frontier.poll().getId());
+            assertEquals(15, frontier.poll().getId());
+            for (int i = 14; i >= 1; i--) {
+                assertEquals(i, frontier.poll().getId());
+            }
+            assertNull(frontier.poll());
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import twitter4j.IDs;
+import twitter4j.Paging;
+import twitter4j.Status;
+import twitter4j.User;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link InMemoryGraphSink}, written by a {@link CrawlPipeline} crawling a {@link SyntheticTwitter}.
+ * @author Aquila
+ */
+public class InMemoryGraphSinkTest {
+
+    /**
+     * Number of tweets the pipeline downloads from a timeline never crawled.
+     */
+    private static final int TIMELINE_SIZE = 20;
+
+    /**
+     * Twitter API answered by the synthetic graph.
+     */
+    private RateLimitedTwitter twitter;
+
+    /**
+     * Gazetteer resolving the locations of the users.
+     */
+    private Gazetteer gazetteer;
+
+    /**
+     * Creating the synthetic Twitter API and loading the gazetteer.
+     * @throws Exception Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        twitter = new RateLimitedTwitter(Collections.singletonList(TwitterStandIn.create(new SyntheticTwitter(300, 1), 0)));
+        gazetteer = Gazetteer.loadDefault();
+    }
+
+    /**
+     * The friends of the main account, their friendships and their French tweets end up in the sink.
+     * @throws Exception Exception
+     */
+    @Test
+    public void writesCrawledFriends() throws Exception {
+        final InMemoryGraphSink sink = new InMemoryGraphSink();
+        User main = twitter.showUser("EmmanuelMacron");
+        String mainaccount = String.valueOf(main.getId());
+        sink.addUser(UserRecord.fromUser(main, gazetteer));
+        IDs ids = twitter.getFriendsIDs(main.getId(), -1);
+        assertTrue(ids.getIDs().length > 0);
+        try (final CrawlPipeline pipeline = new CrawlPipeline(twitter, sink, gazetteer, mainaccount, 2, 2, 2, 8, null, null)) {
+            UserHydrator hydrator = new UserHydrator(twitter, new UserHydrator.Handler() {
+                @Override
+                public void handle(final User user) throws InterruptedException {
+                    pipeline.submit(user);
+                }
+            });
+            hydrator.addAll(ids.getIDs());
+            hydrator.flush();
+            pipeline.close();
+            assertEquals(ids.getIDs().length, pipeline.getWritten());
+        }
+
+        Set<String> friends = new HashSet<>();
+        for (long id : ids.getIDs()) {
+            friends.add(String.valueOf(id));
+        }
+        assertEquals(friends, sink.getFriends(mainaccount));
+        assertEquals(friends.size() + 1, sink.getUsers().size());
+        assertTrue(sink.getUsers().keySet().containsAll(friends));
+        assertTrue(sink.getFollowers(mainaccount).isEmpty());
+
+        Map<String, TweetRecord> tweets = sink.getTweets();
+        Map<String, TweetRecord> retweets = sink.getRetweets();
+        int french = 0;
+        for (long id : ids.getIDs()) {
+            User friend = twitter.showUser(id);
+            for (Status status : twitter.getUserTimeline(friend.getScreenName(), new Paging(1, TIMELINE_SIZE))) {
+                String statusid = String.valueOf(status.getId());
+                if (!"fr".equals(status.getLang())) {
+                    // Only held as the original of a French retweet
+                    assertTrue(!tweets.containsKey(statusid) || tweets.get(statusid).isRetweet());
+                    assertFalse(retweets.containsKey(statusid));
+                    continue;
+                }
+                french++;
+                TweetRecord expected = TweetRecord.fromStatus(String.valueOf(id), status);
+                TweetRecord written = expected.isRetweet() ? retweets.get(statusid) : tweets.get(statusid);
+                assertNotNull(statusid, written);
+                assertEquals(expected.getUser(), written.getUser());
+                assertEquals(expected.getTweetid(), written.getTweetid());
+                assertTrue(tweets.containsKey(expected.getTweetid()));
+                assertTrue(sink.getSources().contains(expected.getSource()));
+                assertTrue(sink.getHashtags().containsAll(expected.getHashtags()));
+                assertTrue(sink.getDays().contains(expected.getDayKey()));
+            }
+        }
+        assertTrue(french > 0);
+        assertTrue(tweets.size() + retweets.size() >= french);
+    }
+
+    /**
+     * Relationships and tweets of unknown users are dropped, users and tweets added twice are kept once.
+     * @throws Exception Exception
+     */
+    @Test
+    public void dropsUnknownUsers() throws Exception {
+        InMemoryGraphSink sink = new InMemoryGraphSink();
+        User main = twitter.showUser(1);
+        User friend = twitter.showUser(2);
+        sink.addUser(UserRecord.fromUser(main, gazetteer));
+        sink.addFriendship("1", "2");
+        assertTrue(sink.getFriends("1").isEmpty());
+        sink.addUser(UserRecord.fromUser(friend, gazetteer));
+        sink.addUser(UserRecord.fromUser(friend, gazetteer));
+        sink.addFriendship("1", "2");
+        sink.addFollowing("1", "2");
+        assertEquals(Collections.singleton("2"), sink.getFriends("1"));
+        assertEquals(Collections.singleton("2"), sink.getFollowers("1"));
+        assertEquals(2, sink.getUsers().size());
+
+        TweetRecord tweet = TweetRecord.fromStatus("3", twitter.getUserTimeline(friend.getScreenName(), new Paging(1, 1)).get(0));
+        sink.addTweet(tweet);
+        assertTrue(sink.getTweets().isEmpty());
+        tweet = TweetRecord.fromStatus("2", twitter.getUserTimeline(friend.getScreenName(), new Paging(1, 1)).get(0));
+        sink.addTweet(tweet);
+        sink.addTweet(tweet);
+        assertEquals(Collections.singleton(tweet.getTweetid()), sink.getTweets().keySet());
+        assertEquals(tweet.isRetweet() ? 1 : 0, sink.getRetweets().size());
+    }
+}
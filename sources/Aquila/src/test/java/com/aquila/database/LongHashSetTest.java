@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link LongHashSet}.
+ * @author Aquila
+ */
+public class LongHashSetTest {
+
+    /**
+     * Directory of the backing files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A set growing far beyond its expected size keeps every ID, ID 0 included.
+     */
+    @Test
+    public void growsBeyondExpected() throws IOException {
+        try (LongHashSet set = new LongHashSet(4)) {
+            assertTrue(set.add(0));
+            for (long id = 1; id <= 100000; id++) {
+                assertTrue(set.add(id * 31));
+            }
+            assertFalse(set.add(0));
+            assertFalse(set.add(31));
+            assertEquals(100001, set.size());
+            assertTrue(set.contains(0));
+            assertTrue(set.contains(100000 * 31));
+            assertFalse(set.contains(32));
+        }
+    }
+
+    /**
+     * A file-backed set reopens with the IDs added before it grew and closed.
+     */
+    @Test
+    public void reopensGrownFile() throws IOException {
+        File file = new File(folder.getRoot(), "tweets.seen");
+        try (LongHashSet set = new LongHashSet(file, 16)) {
+            set.add(0);
+            for (long id = 1; id <= 50000; id++) {
+                set.add(id * 7);
+            }
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        final Set<Long> visited = new HashSet<>();
+        try (LongHashSet set = new LongHashSet(file, 16)) {
+            assertEquals(50001, set.size());
+            assertTrue(set.contains(0));
+            for (long id = 1; id <= 50000; id++) {
+                assertTrue(set.contains(id * 7));
+                assertFalse(set.contains(id * 7 + 1));
+            }
+            set.forEach(new LongConsumer() {
+                @Override
+                public void accept(final long id) {
+                    visited.add(id);
+                }
+            });
+            assertTrue(set.add(3));
+        }
+        assertEquals(50001, visited.size());
+        try (LongHashSet set = new LongHashSet(file, 16)) {
+            assertEquals(50002, set.size());
+            assertTrue(set.contains(3));
+        }
+    }
+
+    /**
+     * A file whose size is not a header and a power of two of slots is refused.
+     */
+    @Test(expected = IOException.class)
+    public void refusesCorruptedFile() throws IOException {
+        File file = new File(folder.getRoot(), "corrupted.seen");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(16 + 3 * 8);
+        }
+        new LongHashSet(file, 16).close();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests of {@link LongLongHashMap}.
+ * @author Aquila
+ */
+public class LongLongHashMapTest {
+
+    /**
+     * Directory of the backing files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A key keeps the largest value it was given, missing keys reading as 0.
+     */
+    @Test
+    public void keepsLargestValue() throws IOException {
+        try (LongLongHashMap map = new LongLongHashMap(16)) {
+            assertEquals(10, map.putMax(5, 10));
+            assertEquals(10, map.putMax(5, 3));
+            assertEquals(12, map.putMax(5, 12));
+            assertEquals(7, map.putMax(0, 7));
+            assertEquals(7, map.putMax(0, 2));
+            assertEquals(12, map.get(5));
+            assertEquals(7, map.get(0));
+            assertEquals(0, map.get(6));
+            assertEquals(2, map.size());
+        }
+    }
+
+    /**
+     * A file-backed map reopens with the entries added before it grew and closed.
+     */
+    @Test
+    public void reopensGrownFile() throws IOException {
+        File file = new File(folder.getRoot(), "timelines.watermarks");
+        try (LongLongHashMap map = new LongLongHashMap(file, 16)) {
+            map.putMax(0, 42);
+            for (long key = 1; key <= 50000; key++) {
+                map.putMax(key * 13, key + 1000);
+            }
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        try (LongLongHashMap map = new LongLongHashMap(file, 16)) {
+            assertEquals(50001, map.size());
+            assertEquals(42, map.get(0));
+            for (long key = 1; key <= 50000; key++) {
+                assertEquals(key + 1000, map.get(key * 13));
+                assertEquals(0, map.get(key * 13 + 1));
+            }
+            map.putMax(13, 5000);
+        }
+        try (LongLongHashMap map = new LongLongHashMap(file, 16)) {
+            assertEquals(5000, map.get(13));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.database;
+
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of {@link SourceExtractor}.
+ * @author Aquila
+ */
+public class SourceExtractorTest {
+
+    /**
+     * Sources of tweets, plain, with entities, attributes holding brackets and markup the scan leaves to Jsoup.
+     */
+    private static final String[] SOURCES = {
+        "<a href=\"http://twitter.com/download/iphone\" rel=\"nofollow\">Twitter for iPhone</a>",
+        "<a href=\"https://about.twitter.com/products/tweetdeck\" rel=\"nofollow\">TweetDeck</a>",
+        "<a href=\"http://example.com/?a=1&amp;b=2\" rel=\"nofollow\">Caf&eacute; &amp; Co</a>",
+        "<a href=\"http://example.com/\" title=\"a > b\">  Spaced \t\n  client  </a>",
+        "<a href=\"http://example.com/\">&lt;Tag&gt; &quot;quoted&quot; &#39;x&#39; &#x263A;</a>",
+        "<a href=\"http://example.com/\">Emoji &#128640; rocket</a>",
+        "<a>No attributes</a>",
+        "web",
+        "  Plain   text  ",
+        "<a href=\"http://example.com/\"><b>Bold</b> client</a>",
+        "<a href=\"http://example.com/\">Unknown &foo; entity</a>",
+        "<a href=\"http://example.com/\">Dangling & ampersand</a>",
+        "<p>Not an anchor</p>",
+        ""
+    };
+
+    /**
+     * Every source gives the text Jsoup gives.
+     */
+    @Test
+    public void matchesJsoupText() {
+        SourceExtractor extractor = new SourceExtractor(100);
+        for (String source : SOURCES) {
+            assertEquals(source, Jsoup.parse(source).text(), extractor.extract(source));
+        }
+    }
+
+    /**
+     * Markup the scan does not understand is left to Jsoup.
+     */
+    @Test
+    public void leavesNestedMarkupToJsoup() {
+        assertNull(SourceExtractor.scan("<a href=\"http://example.com/\"><b>Bold</b> client</a>"));
+        assertNull(SourceExtractor.scan("<p>Not an anchor</p>"));
+    }
+
+    /**
+     * Sources differing only by their URL share one name instance, and a full dictionary still extracts.
+     */
+    @Test
+    public void sharesCanonicalNames() {
+        SourceExtractor extractor = new SourceExtractor(2);
+        String first = extractor.extract("<a href=\"http://a.example.com/\">Client</a>");
+        String second = extractor.extract("<a href=\"http://b.example.com/\">Client</a>");
+        assertSame(first, second);
+        assertEquals(2, extractor.size());
+        assertEquals("Other", extractor.extract("<a href=\"http://c.example.com/\">Other</a>"));
+        assertEquals(2, extractor.size());
+        assertEquals("", extractor.extract(null));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Running the benchmarks with the JMH command line options.
+ * Unless -rf and -rff are given, results are written as JSON to the file
+ * of the aquila.benchmarkResults system property, jmh-result.json by default,
+ * so that two runs can be compared by tools.
+ * The embedded Neo4j 3.3 database needs a Java 8 runtime.
+ * Usage: java -jar benchmarks.jar [JMH options] [benchmark regexps]
+ * @author Aquila
+ */
+public final class BenchmarkMain {
+
+    /**
+     * Class Constructor.
+     */
+    private BenchmarkMain() {
+    }
+
+    /**
+     * @param args the JMH command line options
+     * @throws Exception Exception
+     */
+    public static void main(final String... args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!options.getResult().hasValue()) {
+            builder.result(System.getProperty("aquila.benchmarkResults", "jmh-result.json"));
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.DataBase;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.configuration.BoltConnector;
+
+/**
+ * Embedded Neo4j 3.3 database listening for Bolt on a free local port.
+ * The benchmarks reach it through {@link DataBase}, so they measure the
+ * same driver, statements and transactions as the crawlers, without a
+ * server to install. Authentication is disabled and encryption optional,
+ * which lets the default driver configuration connect.
+ * @author Aquila
+ */
+public class EmbeddedServer implements AutoCloseable {
+
+    /**
+     * Embedded database.
+     */
+    private final GraphDatabaseService db;
+
+    /**
+     * Bolt URI of the database.
+     */
+    private final String uri;
+
+    /**
+     * Class Constructor, starting the database on an existing or empty store.
+     * @param storeDir Store directory of the database.
+     * @throws IOException IO Exception
+     */
+    public EmbeddedServer(final File storeDir) throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        BoltConnector bolt = new BoltConnector("bolt");
+        db = new GraphDatabaseFactory()
+                .newEmbeddedDatabaseBuilder(storeDir)
+                .setConfig(bolt.type, "BOLT")
+                .setConfig(bolt.enabled, "true")
+                .setConfig(bolt.listen_address, "localhost:" + port)
+                .setConfig(bolt.encryption_level, BoltConnector.EncryptionLevel.OPTIONAL.name())
+                .setConfig(GraphDatabaseSettings.auth_enabled, "false")
+                .newGraphDatabase();
+        uri = "bolt://localhost:" + port;
+    }
+
+    /**
+     * Connecting to the database.
+     * @return a new connection, to close before the server.
+     * @throws IOException when the gazetteer cannot be read
+     */
+    public final DataBase newDataBase() throws IOException {
+        return new DataBase(uri, "neo4j", "neo4j");
+    }
+
+    /**
+     * Override Closing server.
+     */
+    @Override
+    public final void close() {
+        db.shutdown();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.EmbeddedBatchLoader;
+import com.aquila.database.Place;
+import com.aquila.database.TweetRecord;
+import com.aquila.database.UserRecord;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+/**
+ * Synthetic users and tweets, identical from one run to the next.
+ * Users are numbered from 1, tweets from 1 in the order they are generated,
+ * and every random choice comes from a seeded generator, so two benchmarks
+ * given the same seed write the same graph.
+ * @author Aquila
+ */
+public class Fixtures {
+
+    /**
+     * Seed of the generators.
+     */
+    public static final long SEED = 42;
+
+    /**
+     * Number of distinct hashtags; a few are very frequent, most are rare.
+     */
+    private static final int HASHTAGS = 10000;
+
+    /**
+     * Number of distinct locations.
+     */
+    private static final int LOCATIONS = 1000;
+
+    /**
+     * Share of geocalised tweets.
+     */
+    private static final double GEOCALISED = 0.2;
+
+    /**
+     * Sources of the tweets, as kept by DataBase#getSource.
+     */
+    private static final String[] SOURCES = {"Twitter for iPhone", "Twitter for Android", "Twitter Web Client", "TweetDeck", "Hootsuite"};
+
+    /**
+     * First day of the tweets, 2018-01-01 UTC.
+     */
+    private static final long FIRST_DAY = 1514764800000L;
+
+    /**
+     * Span of the tweets, one year.
+     */
+    private static final long SPAN = 365L * 24 * 3600 * 1000;
+
+    /**
+     * Random generator.
+     */
+    private final Random random;
+
+    /**
+     * Number of users the tweets are spread over.
+     */
+    private final int users;
+
+    /**
+     * Number of hashtags per tweet.
+     */
+    private final int hashtagFanout;
+
+    /**
+     * Last generated TweetID.
+     */
+    private long lastTweet;
+
+    /**
+     * Last generated UserID.
+     */
+    private long lastUser;
+
+    /**
+     * Class Constructor.
+     * @param users Number of users the tweets are spread over, already written.
+     * @param hashtagFanout Number of hashtags per tweet.
+     */
+    public Fixtures(final int users, final int hashtagFanout) {
+        this.random = new Random(SEED);
+        this.users = users;
+        this.hashtagFanout = hashtagFanout;
+        this.lastUser = users;
+    }
+
+    /**
+     * User of an ID.
+     * @param id UserID.
+     * @return the user, the same for every call.
+     */
+    public static UserRecord user(final long id) {
+        return new UserRecord(String.valueOf(id), "user" + id, "Description of user " + id, id % 500, id % 5000, id % 50, id % 100 == 0, Place.unresolved(location(id)));
+    }
+
+    /**
+     * Location of a user.
+     * @param id UserID.
+     * @return the location.
+     */
+    private static String location(final long id) {
+        return "Location " + id % LOCATIONS;
+    }
+
+    /**
+     * Next user never generated before.
+     * @return the user.
+     */
+    public final UserRecord nextUser() {
+        return user(++lastUser);
+    }
+
+    /**
+     * UserID of one of the written users.
+     * @return the UserID.
+     */
+    public final String anyUser() {
+        return String.valueOf(1 + random.nextInt(users));
+    }
+
+    /**
+     * Next status never generated before, by one of the written users.
+     * @param retweet Retweet Status, the original being one of the tweets generated before.
+     * @return the tweet.
+     */
+    public final TweetRecord nextTweet(final boolean retweet) {
+        long id = ++lastTweet;
+        long timestamp = FIRST_DAY + (long) (random.nextDouble() * SPAN);
+        Double latitude = null;
+        Double longitude = null;
+        if (random.nextDouble() < GEOCALISED) {
+            latitude = 41 + random.nextDouble() * 10;
+            longitude = -5 + random.nextDouble() * 13;
+        }
+        if (retweet && id > 1) {
+            // Retweet of one of the tweets generated before
+            long original = 1 + (long) (random.nextDouble() * (id - 1));
+            return new TweetRecord(anyUser(), SOURCES[random.nextInt(SOURCES.length)], String.valueOf(original), "Tweet " + original, new Date(timestamp).toString(), timestamp, random.nextInt(1000), random.nextInt(1000), latitude, longitude, String.valueOf(id), timestamp, nextHashtags());
+        }
+        return new TweetRecord(anyUser(), SOURCES[random.nextInt(SOURCES.length)], String.valueOf(id), "Tweet " + id, new Date(timestamp).toString(), timestamp, random.nextInt(1000), random.nextInt(1000), latitude, longitude, null, 0, nextHashtags());
+    }
+
+    /**
+     * Distinct hashtags of a tweet, skewed towards the first ones.
+     * @return the hashtags.
+     */
+    private List<String> nextHashtags() {
+        Set<String> hashtags = new LinkedHashSet<>();
+        while (hashtags.size() < hashtagFanout) {
+            double skew = random.nextDouble();
+            hashtags.add("hashtag" + (int) (HASHTAGS * skew * skew * skew));
+        }
+        return new ArrayList<>(hashtags);
+    }
+
+    /**
+     * Writing users 1 to count into an empty store, with its constraints and indexes.
+     * @param storeDir Store directory.
+     * @param count Number of users.
+     * @throws IOException IO Exception
+     */
+    public static void preload(final File storeDir, final int count) throws IOException {
+        try (EmbeddedBatchLoader loader = new EmbeddedBatchLoader(storeDir)) {
+            for (long id = 1; id <= count; id++) {
+                loader.addUser(user(id));
+            }
+        }
+    }
+
+    /**
+     * Writing duplicated nodes into an empty store, without constraints.
+     * For each of User, Tweet, Location and Hashtag, count nodes are
+     * created of which the given share repeats the natural key of an
+     * earlier node, with the relationships the merging passes move:
+     * users FROM a location, tweets TWEETED by a user and HAS_HASHTAG.
+     * @param storeDir Store directory.
+     * @param count Number of nodes of each label.
+     * @param duplicates Share of the nodes repeating a key.
+     * @throws IOException IO Exception
+     */
+    public static void duplicates(final File storeDir, final int count, final double duplicates) throws IOException {
+        Random random = new Random(SEED);
+        BatchInserter inserter = BatchInserters.inserter(storeDir);
+        try {
+            long[] locations = nodes(inserter, random, Label.label("Location"), "Location", count, duplicates);
+            long[] hashtags = nodes(inserter, random, Label.label("Hashtag"), "Hashtag", count, duplicates);
+            long[] users = nodes(inserter, random, Label.label("User"), "UserID", count, duplicates);
+            long[] tweets = nodes(inserter, random, Label.label("Tweet"), "TweetID", count, duplicates);
+            Map<String, Object> none = Collections.emptyMap();
+            for (long user : users) {
+                inserter.createRelationship(user, locations[random.nextInt(count)], RelationshipType.withName("FROM"), none);
+            }
+            for (long tweet : tweets) {
+                inserter.createRelationship(users[random.nextInt(count)], tweet, RelationshipType.withName("TWEETED"), none);
+                inserter.createRelationship(tweet, hashtags[random.nextInt(count)], RelationshipType.withName("HAS_HASHTAG"), none);
+            }
+        }
+        finally {
+            inserter.shutdown();
+        }
+    }
+
+    /**
+     * Creating the nodes of a label, some of them repeating a key.
+     * @param inserter Store writer.
+     * @param random Random generator.
+     * @param label Label of the nodes.
+     * @param key Natural key of the label.
+     * @param count Number of nodes.
+     * @param duplicates Share of the nodes repeating a key.
+     * @return the node ids.
+     */
+    private static long[] nodes(final BatchInserter inserter, final Random random, final Label label, final String key, final int count, final double duplicates) {
+        long[] nodes = new long[count];
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            int value = distinct > 0 && random.nextDouble() < duplicates ? random.nextInt(distinct) : distinct++;
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(key, String.valueOf(value));
+            nodes[i] = inserter.createNode(properties, label);
+        }
+        return nodes;
+    }
+
+    /**
+     * Copying a store directory.
+     * @param from Template store.
+     * @param to Missing directory.
+     * @throws IOException IO Exception
+     */
+    public static void copy(final File from, final File to) throws IOException {
+        final Path source = from.toPath();
+        final Path target = to.toPath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deleting a directory and its content.
+     * @param dir Directory, possibly missing.
+     * @throws IOException IO Exception
+     */
+    public static void delete(final File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path directory, final IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * New temporary directory, missing so that a store can be created in it.
+     * @param prefix Prefix of its name.
+     * @return the directory.
+     * @throws IOException IO Exception
+     */
+    public static File newStoreDir(final String prefix) throws IOException {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        Files.delete(dir.toPath());
+        return dir;
+    }
+}
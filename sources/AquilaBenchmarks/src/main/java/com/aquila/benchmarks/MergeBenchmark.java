@@ -0,0 +1,143 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.DataBase;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Merging passes of {@link DataBase} over a store full of duplicates.
+ * The store is generated once per trial, then every iteration runs one
+ * pass on a fresh copy, so each pass reads every node from the start.
+ * @author Aquila
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MergeBenchmark {
+
+    /**
+     * Share of the nodes repeating the key of another one.
+     */
+    private static final double DUPLICATES = 0.1;
+
+    /**
+     * Number of nodes of each merged label.
+     */
+    @Param({"10000", "100000", "1000000"})
+    public int nodes;
+
+    /**
+     * Generated store, copied before every pass.
+     */
+    private File template;
+
+    /**
+     * Store directory of the iteration.
+     */
+    private File storeDir;
+
+    /**
+     * Embedded database.
+     */
+    private EmbeddedServer server;
+
+    /**
+     * Connection to the database.
+     */
+    private DataBase bd;
+
+    /**
+     * Generating the store.
+     * @throws Exception Exception
+     */
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        template = Fixtures.newStoreDir("aquila-duplicates");
+        Fixtures.duplicates(template, nodes, DUPLICATES);
+    }
+
+    /**
+     * Deleting the generated store.
+     * @throws Exception Exception
+     */
+    @TearDown(Level.Trial)
+    public void delete() throws Exception {
+        Fixtures.delete(template);
+    }
+
+    /**
+     * Copying the store and starting the database.
+     * @throws Exception Exception
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        storeDir = Fixtures.newStoreDir("aquila-merge");
+        Fixtures.copy(template, storeDir);
+        server = new EmbeddedServer(storeDir);
+        bd = server.newDataBase();
+    }
+
+    /**
+     * Stopping the database and deleting the copy.
+     * @throws Exception Exception
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        bd.close();
+        server.close();
+        Fixtures.delete(storeDir);
+    }
+
+    /**
+     * Merging User nodes.
+     */
+    @Benchmark
+    public void mergingUsers() {
+        bd.mergingUsers();
+    }
+
+    /**
+     * Merging Tweet nodes.
+     */
+    @Benchmark
+    public void mergingTweets() {
+        bd.mergingTweets();
+    }
+
+    /**
+     * Merging Location nodes.
+     */
+    @Benchmark
+    public void mergingLocation() {
+        bd.mergingLocation();
+    }
+
+    /**
+     * Merging Hashtag nodes.
+     */
+    @Benchmark
+    public void mergingHashtag() {
+        bd.mergingHashtag();
+    }
+}
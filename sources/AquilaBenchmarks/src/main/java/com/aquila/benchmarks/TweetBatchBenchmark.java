@@ -0,0 +1,128 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.DataBase;
+import com.aquila.database.TweetBatchWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tweets written through the {@link TweetBatchWriter}, in batches of batchSize.
+ * Each invocation writes the same number of tweets, one in ten a retweet,
+ * so the scores are times per tweet whatever the batch size.
+ * @author Aquila
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TweetBatchBenchmark {
+
+    /**
+     * Number of tweets written per invocation.
+     */
+    private static final int TWEETS = 1000;
+
+    /**
+     * Number of users written before the benchmark.
+     */
+    @Param({"1000", "100000"})
+    public int graphSize;
+
+    /**
+     * Number of hashtags per tweet.
+     */
+    @Param({"0", "3", "10"})
+    public int hashtagFanout;
+
+    /**
+     * Number of tweets per transaction.
+     */
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+
+    /**
+     * Store directory.
+     */
+    private File storeDir;
+
+    /**
+     * Embedded database.
+     */
+    private EmbeddedServer server;
+
+    /**
+     * Connection to the database.
+     */
+    private DataBase bd;
+
+    /**
+     * Batch writer for tweets.
+     */
+    private TweetBatchWriter writer;
+
+    /**
+     * Synthetic tweets.
+     */
+    private Fixtures fixtures;
+
+    /**
+     * Writing the users and starting the database.
+     * @throws Exception Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storeDir = Fixtures.newStoreDir("aquila-batches");
+        Fixtures.preload(storeDir, graphSize);
+        server = new EmbeddedServer(storeDir);
+        bd = server.newDataBase();
+        writer = bd.newTweetBatchWriter(batchSize, 0);
+        fixtures = new Fixtures(graphSize, hashtagFanout);
+    }
+
+    /**
+     * Stopping the database and deleting its store.
+     * @throws Exception Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        writer.close();
+        bd.close();
+        server.close();
+        Fixtures.delete(storeDir);
+    }
+
+    /**
+     * Writing new tweets and flushing the last partial batch.
+     * @throws IOException IO Exception
+     */
+    @Benchmark
+    @OperationsPerInvocation(TWEETS)
+    public void addTweets() throws IOException {
+        for (int i = 0; i < TWEETS; i++) {
+            writer.add(fixtures.nextTweet(i % 10 == 0));
+        }
+        writer.flush();
+    }
+}
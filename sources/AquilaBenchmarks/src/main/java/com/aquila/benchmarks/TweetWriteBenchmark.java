@@ -0,0 +1,156 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.DataBase;
+import com.aquila.database.TweetRecord;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single tweet, retweet and hashtag writes of {@link DataBase}.
+ * A tweet is written like the crawlers did before batching: one
+ * transaction for the tweet, its source and day, then one per hashtag.
+ * @author Aquila
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TweetWriteBenchmark {
+
+    /**
+     * Number of users written before the benchmark.
+     */
+    @Param({"1000", "100000"})
+    public int graphSize;
+
+    /**
+     * Number of hashtags per tweet.
+     */
+    @Param({"0", "3", "10"})
+    public int hashtagFanout;
+
+    /**
+     * Store directory.
+     */
+    private File storeDir;
+
+    /**
+     * Embedded database.
+     */
+    private EmbeddedServer server;
+
+    /**
+     * Connection to the database.
+     */
+    private DataBase bd;
+
+    /**
+     * Synthetic tweets.
+     */
+    private Fixtures fixtures;
+
+    /**
+     * Tweet written before the benchmark, receiving the hashtags of {@link #addHashtags()}.
+     */
+    private TweetRecord last;
+
+    /**
+     * Writing the users and starting the database.
+     * @throws Exception Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storeDir = Fixtures.newStoreDir("aquila-tweets");
+        Fixtures.preload(storeDir, graphSize);
+        server = new EmbeddedServer(storeDir);
+        bd = server.newDataBase();
+        fixtures = new Fixtures(graphSize, hashtagFanout);
+        last = write(fixtures.nextTweet(false));
+    }
+
+    /**
+     * Stopping the database and deleting its store.
+     * @throws Exception Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        bd.close();
+        server.close();
+        Fixtures.delete(storeDir);
+    }
+
+    /**
+     * Writing a tweet and its hashtags one transaction each.
+     * @param tweet Synthetic tweet.
+     * @return the tweet.
+     */
+    private TweetRecord write(final TweetRecord tweet) {
+        if (tweet.isRetweet() && tweet.isGeocalised()) {
+            bd.addRetweetGeocalised(tweet.getUser(), tweet.getSource(), tweet.getTweetid(), tweet.getTweetcontent(), tweet.getTweetdate(), tweet.getNbretweets(), tweet.getNbfavorites(), tweet.getTweetlatitude(), tweet.getTweetlongitude(), tweet.getRetweetid(), tweet.getRetweettimestamp());
+        } else if (tweet.isRetweet()) {
+            bd.addRetweetNotGeocalised(tweet.getUser(), tweet.getSource(), tweet.getTweetid(), tweet.getTweetcontent(), tweet.getTweetdate(), tweet.getNbretweets(), tweet.getNbfavorites(), tweet.getRetweetid(), tweet.getRetweettimestamp());
+        } else if (tweet.isGeocalised()) {
+            bd.addTweetGeocalised(tweet.getUser(), tweet.getSource(), tweet.getTweetid(), tweet.getTweetcontent(), tweet.getTweetdate(), tweet.getNbretweets(), tweet.getNbfavorites(), tweet.getTweetlatitude(), tweet.getTweetlongitude());
+        } else {
+            bd.addTweetNotGeocalised(tweet.getUser(), tweet.getSource(), tweet.getTweetid(), tweet.getTweetcontent(), tweet.getTweetdate(), tweet.getNbretweets(), tweet.getNbfavorites());
+        }
+        addHashtags(tweet);
+        return tweet;
+    }
+
+    /**
+     * Relating a tweet to its hashtags.
+     * @param tweet Written tweet.
+     */
+    private void addHashtags(final TweetRecord tweet) {
+        for (String hashtag : tweet.getHashtags()) {
+            bd.addHashTag(tweet.getTweetid(), hashtag);
+        }
+    }
+
+    /**
+     * Writing a new tweet with its hashtags.
+     */
+    @Benchmark
+    public void addTweet() {
+        write(fixtures.nextTweet(false));
+    }
+
+    /**
+     * Writing a new retweet with its hashtags.
+     */
+    @Benchmark
+    public void addRetweet() {
+        write(fixtures.nextTweet(true));
+    }
+
+    /**
+     * Relating the existing tweet to hashtagFanout hashtags, new or not.
+     */
+    @Benchmark
+    public void addHashtags() {
+        for (String hashtag : fixtures.nextTweet(false).getHashtags()) {
+            bd.addHashTag(last.getTweetid(), hashtag);
+        }
+    }
+}
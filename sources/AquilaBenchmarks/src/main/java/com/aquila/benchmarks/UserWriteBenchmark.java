@@ -0,0 +1,104 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.aquila.benchmarks;
+
+import com.aquila.database.DataBase;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * User and friendship writes of {@link DataBase}, one transaction each.
+ * The store holds graphSize users with the constraints of the crawlers
+ * before the first write; new users are appended to it.
+ * @author Aquila
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UserWriteBenchmark {
+
+    /**
+     * Number of users written before the benchmark.
+     */
+    @Param({"1000", "100000"})
+    public int graphSize;
+
+    /**
+     * Store directory.
+     */
+    private File storeDir;
+
+    /**
+     * Embedded database.
+     */
+    private EmbeddedServer server;
+
+    /**
+     * Connection to the database.
+     */
+    private DataBase bd;
+
+    /**
+     * Synthetic users.
+     */
+    private Fixtures fixtures;
+
+    /**
+     * Writing the users and starting the database.
+     * @throws Exception Exception
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        storeDir = Fixtures.newStoreDir("aquila-users");
+        Fixtures.preload(storeDir, graphSize);
+        server = new EmbeddedServer(storeDir);
+        bd = server.newDataBase();
+        fixtures = new Fixtures(graphSize, 0);
+    }
+
+    /**
+     * Stopping the database and deleting its store.
+     * @throws Exception Exception
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        bd.close();
+        server.close();
+        Fixtures.delete(storeDir);
+    }
+
+    /**
+     * Merging a new user and its location.
+     */
+    @Benchmark
+    public void addUser() {
+        bd.addUserNode(fixtures.nextUser());
+    }
+
+    /**
+     * Merging a friendship between two existing users.
+     */
+    @Benchmark
+    public void addFriendship() {
+        bd.addFriendship(fixtures.anyUser(), fixtures.anyUser());
+    }
+}
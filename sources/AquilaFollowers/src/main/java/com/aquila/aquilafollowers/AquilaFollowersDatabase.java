@@ -5,22 +5,29 @@
  */
 package com.aquila.aquilafollowers;
 
-import java.util.Map;
-import org.jsoup.Jsoup;
+import com.aquila.database.BoltGraphSink;
+import com.aquila.database.CrawlCheckpoint;
+import com.aquila.database.CrawlFrontier;
+import com.aquila.database.CsvGraphWriter;
+import com.aquila.database.LongHashSet;
+import com.aquila.database.Deduplicator;
+import com.aquila.database.FrontierCrawler;
+import com.aquila.database.Gazetteer;
+import com.aquila.database.GraphSink;
+import com.aquila.database.RateLimitedTwitter;
+import com.aquila.database.TweetBatchWriter;
+import com.aquila.database.UserHydrator;
+import com.aquila.database.UserRecord;
+import java.io.File;
+import java.io.IOException;
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
 import org.neo4j.driver.v1.Session;
-import org.neo4j.driver.v1.StatementResult;
 import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.TransactionWork;
-import static org.neo4j.driver.v1.Values.parameters;
 import twitter4j.IDs;
-import twitter4j.RateLimitStatus;
-import twitter4j.Twitter;
-import twitter4j.TwitterFactory;
 import twitter4j.User;
-import twitter4j.conf.ConfigurationBuilder;
 
 /**
  * Adding followers.
@@ -33,14 +40,70 @@ public class AquilaFollowersDatabase implements AutoCloseable {
      */
     private final Driver driver;
 
+    /**
+     * Bolt sink writing on the driver.
+     */
+    private final GraphSink graph;
+
+    /**
+     * Gazetteer resolving the locations of the users.
+     */
+    private final Gazetteer gazetteer;
+
+    /**
+     * Number of tweets written per transaction.
+     */
+    private static final int TWEET_BATCH_SIZE = 500;
+
+    /**
+     * Number of new nodes merged per transaction.
+     */
+    private static final int DEDUP_CHUNK_SIZE = 10000;
+
+    /**
+     * Default milliseconds between two forces of the crawl checkpoint to disk.
+     */
+    private static final long CHECKPOINT_SYNC_INTERVAL = 1000;
+
+    /**
+     * Number of followers a new seen-set file is sized for.
+     */
+    private static final int SEEN_EXPECTED_IDS = 1000000;
+
+    /**
+     * OAuth credentials shared by the crawl: consumer key, consumer secret, access token, access token secret.
+     */
+    private static final String[][] CREDENTIALS = {
+        //Tianyuan
+        {"Ckt54ac8nVyqTMDlW4VALUaOE", "sOOY3Dkujy0ruJLcMjJ1lA87mbqUgMG3K06GWwjHAEbyRSrmSU", "708838056040734722-CZm6LvxAKs1trZMWCgnV6RqhpBTclMr", "b98KWD1Tph2NCFtWhB6jJCQFYcW8OeiqtUXVqme9KRuRl"},
+        //Alexandre
+        {"qh7Nt1pGJHGvMt3DqNnjoacAZ", "xJMhad585jycg4WrU2Oh6AJxQaTEMfKp3Xyn3X6U2p4dRE3InF", "966009557372801025-KNpGkpGtSfPOU2iHzQFs9jLneDKA6on", "UfBSEDaSTr5wDMBMweJJNPd3jBCiQr7HsSN3PSB0Utc57"},
+        //Colin
+        {"PrGFy40pU5ucfM15LpS73AU1c", "hGbNAwIFyPzhm7VTkIrMb09fCd4pR864ekjHPuU5EKqWmedVHQ", "965874428692324352-f3QHxWHRvVvZvLrqXknIKTTjfrpZCP7", "zoI08QzLhAkK7fQKvcd8gWVVAOGsd8pIg9BBSxjONHSqu"}
+    };
+
+    /**
+     * Class Constructor, loading the gazetteer of aquila.gazetteer or the bundled one.
+     * @param uri URI.
+     * @param user Database username.
+     * @param password Database password.
+     * @throws IOException when the gazetteer cannot be read
+     */
+    public AquilaFollowersDatabase(final String uri, final String user, final String password) throws IOException {
+        this(uri, user, password, Gazetteer.loadDefault());
+    }
+
     /**
      * Class Constructor.
      * @param uri URI.
      * @param user Database username.
      * @param password Database password.
+     * @param gazetteer Gazetteer resolving the locations of the users.
      */
-    public AquilaFollowersDatabase(final String uri, final String user, final String password) {
+    public AquilaFollowersDatabase(final String uri, final String user, final String password, final Gazetteer gazetteer) {
         driver = GraphDatabase.driver(uri, AuthTokens.basic(user, password));
+        graph = new BoltGraphSink(driver, new TweetBatchWriter(driver, TWEET_BATCH_SIZE, 0));
+        this.gazetteer = gazetteer;
     }
 
     /**
@@ -49,9 +112,42 @@ public class AquilaFollowersDatabase implements AutoCloseable {
      */
     @Override
     public final void close() throws Exception {
+        graph.close();
         driver.close();
     }
 
+    /**
+     * Adding uniqueness constraints on User and Location nodes.
+     * @return true when every constraint is in place, false when duplicates left by older runs block one.
+     */
+    public final boolean addConstraints() {
+        boolean added = addSchema("CREATE CONSTRAINT ON (u:User) ASSERT u.UserID IS UNIQUE");
+        added &= addSchema("CREATE CONSTRAINT ON (l:Location) ASSERT l.Location IS UNIQUE");
+        return added;
+    }
+
+    /**
+     * Running a schema statement in its own transaction.
+     * @param statement Schema statement.
+     * @return true when the statement committed.
+     */
+    private boolean addSchema(final String statement) {
+        try (Session session = driver.session()) {
+            session.writeTransaction(new TransactionWork<Void>() {
+                @Override
+                public Void execute(final Transaction tx) {
+                    tx.run(statement).consume();
+                    return null;
+                }
+            });
+            return true;
+        }
+        catch (Exception e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Adding User Node.
      * @param userID UserID of Twitter Account.
@@ -63,31 +159,9 @@ public class AquilaFollowersDatabase implements AutoCloseable {
      * @param verified Verified Twitter Account.
      * @param location Location of Twitter Account.
      */
-    public final void addUserNode(final String userID, final String username, final String description, final String nbfriends, final String nbfollowers, final String nbfavorites, final String verified, final String location) {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "CREATE (u:User) "
-                            + "SET u.UserID = $userID, "
-                            + "u.Username = $username, "
-                            + "u.Description = $description, "
-                            + "u.NbFriends = $nbfriends, "
-                            + "u.NbFollowers = $nbfollowers, "
-                            + "u.NbFavoritesUser = $nbfavorites, "
-                            + "u.Verified = $verified "
-                            + "CREATE (l:Location) "
-                            + "SET l.Location = $location "
-                            + "WITH count(*) as dummy "
-                            + "MATCH (u:User {UserID:  $userID}), (l:Location {Location: $location})"
-                            + "MERGE (u)-[:FROM]->(l)"
-                            + "RETURN l.location",
-                            parameters("userID", userID, "username", username, "description", description, "nbfriends", nbfriends, "nbfollowers", nbfollowers, "nbfavorites", nbfavorites, "verified", verified, "location", location));
-                    return result.next().get(0).asString();
-                }
-            });
+    public final void addUserNode(final String userID, final String username, final String description, final long nbfriends, final long nbfollowers, final long nbfavorites, final boolean verified, final String location) {
+        try {
+            graph.addUser(new UserRecord(userID, username, description, nbfriends, nbfollowers, nbfavorites, verified, gazetteer.resolve(location)));
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
@@ -100,19 +174,8 @@ public class AquilaFollowersDatabase implements AutoCloseable {
      * @param user User Twitter Account.
      */
     public final void addFollowing(final String mainaccount, final String user) {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (u1:User {UserID: $mainaccount}), (u2:User {UserID: $user}) "
-                            + "MERGE (u1)<-[:FOLLOWS]-(u2) "
-                            + "RETURN 'Friendship added'",
-                            parameters("mainaccount", mainaccount, "user", user));
-                    return result.single().get(0).asString();
-                }
-            });
+        try {
+            graph.addFollowing(mainaccount, user);
         }
         catch (Exception e) {
             System.out.println(e.getMessage());
@@ -120,104 +183,200 @@ public class AquilaFollowersDatabase implements AutoCloseable {
     }
 
     /**
-     * Merging User nodes in the database.
+     * @return the Bolt sink writing on the same driver.
+     */
+    public final GraphSink getGraphSink() {
+        return graph;
+    }
+
+    /**
+     * Merging User nodes created since the last merge.
      */
     public final void mergingUsers() {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (u:User) "
-                            + "WITH u.UserID as UserID, collect(u) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (u in tail(nodes) | DETACH DELETE u) "
-                            + "RETURN 'Users Merged'");
-                    return result.next().get(0).asString();
-                }
-            });
-        }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
-        }
+        new Deduplicator(driver, DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.USER);
     }
 
     /**
-     * Merging Location nodes in the database.
+     * Merging Location nodes created since the last merge.
      */
     public final void mergingLocation() {
-        try (Session session = driver.session()) {
-            String userNode = session
-                    .writeTransaction(new TransactionWork<String>() {
-                @Override
-                public String execute(final Transaction tx) {
-                    StatementResult result = tx.run(
-                            "MATCH (l:Location) "
-                            + "WITH l.Location as Location, collect(l) AS nodes "
-                            + "WHERE size(nodes) >  1 "
-                            + "FOREACH (l in tail(nodes) | DETACH DELETE l) "
-                            + "RETURN 'Location Merged'");
-                    return result.next().get(0).asString();
+        new Deduplicator(driver, DEDUP_CHUNK_SIZE).deduplicate(Deduplicator.LOCATION);
+    }
+
+    /**
+     * Paging the followers of an account and hydrating them 100 at a time,
+     * resuming from the checkpoint of the previous crawl. The checkpoint only
+     * advances past followers the sink has flushed, so a crash writes the
+     * followers handled since the last flush again, never loses them.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param nodeid UserID of the followed account.
+     * @param checkpoint Progress of the crawl.
+     * @param seen Followers written by earlier crawls, neither looked up nor handed over again, or null.
+     * @param sink Destination the handler writes to, flushed before the checkpoint advances.
+     * @param handler Receiver of the followers.
+     * @throws Exception Exception
+     */
+    static void crawlFollowers(final RateLimitedTwitter twitter, final long nodeid, final CrawlCheckpoint checkpoint, final LongHashSet seen, final GraphSink sink, final UserHydrator.Handler handler) throws Exception {
+        UserHydrator hydrator = new UserHydrator(twitter, handler);
+        IDs followersid;
+        long cursorfollow = checkpoint.getCursor();
+        int position = checkpoint.getPosition();
+        do {
+            followersid = twitter.getFollowersIDs(nodeid, cursorfollow);
+            long[] page = followersid.getIDs();
+            for (int i = position; i < page.length; i++) {
+                if (!checkpoint.isCompleted(page[i]) && (seen == null || !seen.contains(page[i]))) {
+                    hydrator.add(page[i]);
                 }
-            });
+                if ((i + 1) % UserHydrator.LOOKUP_SIZE == 0 || i + 1 == page.length) {
+                    hydrator.flush();
+                    sink.flush();
+                    checkpoint.advance(i + 1);
+                    checkpoint.sync();
+                }
+            }
+            position = 0;
+            cursorfollow = followersid.getNextCursor();
+            checkpoint.startPage(cursorfollow);
+        } while (cursorfollow != 0);
+        checkpoint.finish();
+    }
+
+    /**
+     * Checkpoint of the followers crawl.
+     * @param name Name of the crawl.
+     * @return the checkpoint.
+     * @throws IOException IO Exception
+     */
+    private static CrawlCheckpoint openCheckpoint(final String name) throws IOException {
+        return new CrawlCheckpoint(checkpointFile(name), Long.getLong("aquila.checkpointSync", CHECKPOINT_SYNC_INTERVAL));
+    }
+
+    /**
+     * File of the checkpoint of the followers crawl.
+     * @param name Name of the crawl.
+     * @return the file, existing while the crawl is unfinished.
+     */
+    private static File checkpointFile(final String name) {
+        return new File(System.getProperty("aquila.checkpointDir", "."), name + ".checkpoint");
+    }
+
+    /**
+     * Adding the main account and its followers, resuming the previous crawl.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param userEntry Main account.
+     * @param sink Destination of the users.
+     * @param gazetteer Gazetteer resolving the locations of the users.
+     * @param checkpoint Progress of the crawl.
+     * @param seen Followers written by earlier crawls, or null.
+     * @throws Exception Exception
+     */
+    static void addFollowers(final RateLimitedTwitter twitter, final User userEntry, final GraphSink sink, final Gazetteer gazetteer, final CrawlCheckpoint checkpoint, final LongHashSet seen) throws Exception {
+        final String mainaccount = String.valueOf(userEntry.getId());
+        sink.addUser(UserRecord.fromUser(userEntry, gazetteer));
+
+        //Adding some Followers, resolved 100 at a time, skipping the ones already written
+        crawlFollowers(twitter, userEntry.getId(), checkpoint, seen, sink, new UserHydrator.Handler() {
+            @Override
+            public void handle(final User follower) throws IOException {
+                sink.addUser(UserRecord.fromUser(follower, gazetteer));
+                sink.addFollowing(mainaccount, String.valueOf(follower.getId()));
+                if (seen != null) {
+                    seen.add(follower.getId());
+                }
+                System.out.println("Follower Added: " + follower.getScreenName());
+            }
+        });
+    }
+
+    /**
+     * Adding the followers of the main account, and theirs up to aquila.crawlDepth hops.
+     * One hop is the resumable crawl of {@link #addFollowers}; more hops go
+     * through a {@link FrontierCrawler} expanding the most followed accounts
+     * first, with at most aquila.crawlFanout followers each and a frontier of
+     * aquila.frontierMemory bytes of heap spilling into the checkpoint directory.
+     * @param twitter Twitter API behind its rate limit scheduler.
+     * @param userEntry Main account.
+     * @param sink Destination of the users.
+     * @param gazetteer Gazetteer resolving the locations of the users.
+     * @param name Name of the crawl.
+     * @param seen Followers of the main account written by earlier crawls, or null.
+     * @throws Exception Exception
+     */
+    static void crawl(final RateLimitedTwitter twitter, final User userEntry, final GraphSink sink, final Gazetteer gazetteer, final String name, final LongHashSet seen) throws Exception {
+        int depth = Integer.getInteger("aquila.crawlDepth", 1);
+        if (depth <= 1) {
+            try (CrawlCheckpoint checkpoint = openCheckpoint(name)) {
+                addFollowers(twitter, userEntry, sink, gazetteer, checkpoint, seen);
+            }
+            return;
         }
-        catch (Exception e) {
-            System.out.println(e.getMessage());
+        try (CrawlFrontier frontier = new CrawlFrontier(new File(System.getProperty("aquila.checkpointDir", "."), name + ".frontier"), Long.getLong("aquila.frontierMemory", FrontierCrawler.FRONTIER_MEMORY));
+             LongHashSet visited = new LongHashSet(SEEN_EXPECTED_IDS)) {
+            new FrontierCrawler(twitter, FrontierCrawler.Direction.FOLLOWERS, depth, Integer.getInteger("aquila.crawlFanout", Integer.MAX_VALUE), frontier, visited, new FrontierCrawler.Writer() {
+                @Override
+                public void addUser(final String account, final User follower) throws IOException {
+                    sink.addUser(UserRecord.fromUser(follower, gazetteer));
+                    if (account != null) {
+                        sink.addFollowing(account, String.valueOf(follower.getId()));
+                        System.out.println("Follower Added: " + follower.getScreenName());
+                    }
+                }
+
+                @Override
+                public void addRelationship(final String account, final String follower) throws IOException {
+                    sink.addFollowing(account, follower);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    sink.flush();
+                }
+            }).crawl(userEntry);
         }
     }
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments, "--csv directory" to export CSV files for neo4j-admin import instead of writing to the database,
+     * or "--migrate" to remove the duplicates left by older runs
      */
     public static void main(String[] args) throws Exception {
-        try (AquilaFollowersDatabase bd = new AquilaFollowersDatabase("bolt://localhost:7687", "neo4j", "123")) {
-
-            //App Configuration in order to retrieve data
-            ConfigurationBuilder cb = new ConfigurationBuilder();
-            cb.setDebugEnabled(true)
-                //Tianyuan
-                /*.setOAuthConsumerKey("Ckt54ac8nVyqTMDlW4VALUaOE")
-                .setOAuthConsumerSecret("sOOY3Dkujy0ruJLcMjJ1lA87mbqUgMG3K06GWwjHAEbyRSrmSU")
-                .setOAuthAccessToken("708838056040734722-CZm6LvxAKs1trZMWCgnV6RqhpBTclMr")
-                .setOAuthAccessTokenSecret("b98KWD1Tph2NCFtWhB6jJCQFYcW8OeiqtUXVqme9KRuRl");*/
-                //Alexandre
-                .setOAuthConsumerKey("qh7Nt1pGJHGvMt3DqNnjoacAZ")
-                .setOAuthConsumerSecret("xJMhad585jycg4WrU2Oh6AJxQaTEMfKp3Xyn3X6U2p4dRE3InF")
-                .setOAuthAccessToken("966009557372801025-KNpGkpGtSfPOU2iHzQFs9jLneDKA6on")
-                .setOAuthAccessTokenSecret("UfBSEDaSTr5wDMBMweJJNPd3jBCiQr7HsSN3PSB0Utc57");
-                //Colin
-                /*.setOAuthConsumerKey("PrGFy40pU5ucfM15LpS73AU1c")
-                .setOAuthConsumerSecret("hGbNAwIFyPzhm7VTkIrMb09fCd4pR864ekjHPuU5EKqWmedVHQ")
-                .setOAuthAccessToken("965874428692324352-f3QHxWHRvVvZvLrqXknIKTTjfrpZCP7")
-                .setOAuthAccessTokenSecret("zoI08QzLhAkK7fQKvcd8gWVVAOGsd8pIg9BBSxjONHSqu");*/
-
-            // Connecting to Twitter
-            TwitterFactory tf = new TwitterFactory(cb.build());
-            Twitter twitter = tf.getInstance();
-
-            User userEntry = twitter.showUser("EmmanuelMacron");
-            // Variable for NodeEntry for Project Scope
-            long nodeid;
-            nodeid = userEntry.getId();
-
-            //Adding some Followers to the database
-            IDs followersid;
-            long cursorfollow = -1;
-            do {
-                followersid = twitter.getFollowersIDs(nodeid, cursorfollow);
-                for (long id : followersid.getIDs()) {
-                    User follower = twitter.showUser(id);
-                    if (follower.getStatus() != null) {
-                        bd.addUserNode(String.valueOf(follower.getId()), String.valueOf(follower.getScreenName()), follower.getDescription(), String.valueOf(follower.getFriendsCount()), String.valueOf(follower.getFollowersCount()), String.valueOf(follower.getFavouritesCount()), String.valueOf(follower.isVerified()), String.valueOf(follower.getLocation()));
-                        bd.addFollowing(String.valueOf(nodeid), String.valueOf(follower.getId()));
-                        System.out.println("Follower Added: " + follower.getScreenName());
-                        bd.mergingUsers();
-                        bd.mergingLocation();
-                        System.out.println("Merging Done");
-                    }
+        if (args.length == 1 && "--migrate".equals(args[0])) {
+            // Removing duplicates left by older runs, then adding the constraints they blocked
+            try (AquilaFollowersDatabase bd = new AquilaFollowersDatabase("bolt://localhost:7687", "neo4j", "123")) {
+                bd.mergingUsers();
+                bd.mergingLocation();
+                if (bd.addConstraints()) {
+                    System.out.println("Migrated, the crawl can start");
                 }
-            } while ((cursorfollow = followersid.getNextCursor()) != 0); 
+            }
+            return;
+        }
+
+        // Connecting to Twitter with every credential, locations resolved by a gazetteer loaded once
+        RateLimitedTwitter twitter = RateLimitedTwitter.fromCredentials(CREDENTIALS);
+        Gazetteer gazetteer = Gazetteer.loadDefault();
+        User userEntry = twitter.showUser("EmmanuelMacron");
+
+        if (args.length == 2 && "--csv".equals(args[0])) {
+            // Continuing the files of an interrupted one-hop export, which its checkpoint resumes
+            boolean resume = Integer.getInteger("aquila.crawlDepth", 1) <= 1 && checkpointFile("followers-csv").exists();
+            try (CsvGraphWriter csv = new CsvGraphWriter(new File(args[1]), resume)) {
+                crawl(twitter, userEntry, csv, gazetteer, "followers-csv", null);
+                System.out.println(csv.importCommand());
+            }
+            return;
+        }
+
+        try (AquilaFollowersDatabase bd = new AquilaFollowersDatabase("bolt://localhost:7687", "neo4j", "123", gazetteer);
+             LongHashSet seen = new LongHashSet(new File(System.getProperty("aquila.checkpointDir", "."), "followers-" + userEntry.getId() + ".seen"), SEEN_EXPECTED_IDS)) {
+
+            // Adding constraints in the database, the duplicates of older runs being left to --migrate
+            if (!bd.addConstraints()) {
+                throw new IllegalStateException("Duplicates left by an older run block the constraints: run once with --migrate");
+            }
+
+            crawl(twitter, userEntry, bd.getGraphSink(), gazetteer, "followers", seen);
         }
     }
 }